@@ -0,0 +1,126 @@
+package org.neo4j.elasticsearch;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+
+/**
+ * An in-process database with nodes of the shapes the benchmarks are parameterized with, and a
+ * handler indexing all of them. The handler has no client, the benchmarks only build requests.
+ */
+class BenchmarkGraph implements AutoCloseable {
+
+    static final int WIDE_PROPERTIES = 50;
+    static final int ARRAY_PROPERTIES = 5;
+    static final int ARRAY_LENGTH = 100;
+
+    /**
+     * The node shapes: a handful of scalars, many scalars, and a few large arrays.
+     */
+    enum Shape {
+        NARROW, WIDE, ARRAYS;
+
+        Label label() {
+            return Label.label(name().charAt(0) + name().substring(1).toLowerCase());
+        }
+
+        String[] keys() {
+            switch (this) {
+                case NARROW:
+                    return new String[]{"name", "age", "score"};
+                case WIDE:
+                    return keys("p", WIDE_PROPERTIES);
+                default:
+                    return keys("a", ARRAY_PROPERTIES);
+            }
+        }
+
+        Object value(int key, long seed) {
+            switch (this) {
+                case NARROW:
+                    return key == 0 ? "name-" + seed : key == 1 ? seed % 100 : seed / 3.0;
+                case WIDE:
+                    return key % 3 == 0 ? "value-" + key + "-" + seed
+                        : key % 3 == 1 ? (Object) (seed + key) : (Object) (seed * 0.5 + key);
+                default:
+                    if (key % 2 == 0) {
+                        long[] values = new long[ARRAY_LENGTH];
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = seed + i;
+                        }
+                        return values;
+                    }
+                    String[] values = new String[ARRAY_LENGTH / 5];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = "tag-" + (seed + i);
+                    }
+                    return values;
+            }
+        }
+
+        private static String[] keys(String prefix, int count) {
+            String[] keys = new String[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = prefix + i;
+            }
+            return keys;
+        }
+    }
+
+    private final Neo4j neo4j;
+    final GraphDatabaseService db;
+    final ElasticSearchHandler handler;
+
+    BenchmarkGraph(boolean partialUpdates) throws ParseException {
+        neo4j = Neo4jBuilders.newInProcessBuilder().withDisabledServer().build();
+        db = neo4j.defaultDatabaseService();
+        StringBuilder spec = new StringBuilder();
+        for (Shape shape : Shape.values()) {
+            spec.append(spec.length() == 0 ? "" : ",").append(shape.name().toLowerCase())
+                .append(':').append(shape.label().name())
+                .append('(').append(String.join(",", shape.keys())).append(')');
+        }
+        ElasticSearchIndexSettings settings = new ElasticSearchIndexSettings(
+            ElasticSearchIndexSpecParser.parseIndexSpec(spec.toString()), true, true);
+        settings.setPartialUpdates(partialUpdates);
+        handler = ElasticSearchHandler.newInstance(null, settings);
+    }
+
+    /**
+     * Creates and commits {@code count} nodes of the shape, returning their ids.
+     */
+    long[] createNodes(Shape shape, int count) {
+        long[] ids = new long[count];
+        String[] keys = shape.keys();
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < count; i++) {
+                Node node = tx.createNode(shape.label());
+                for (int k = 0; k < keys.length; k++) {
+                    node.setProperty(keys[k], shape.value(k, i));
+                }
+                ids[i] = node.getId();
+            }
+            tx.commit();
+        }
+        return ids;
+    }
+
+    static List<Node> nodes(Transaction tx, long[] ids) {
+        List<Node> nodes = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            nodes.add(tx.getNodeById(id));
+        }
+        return nodes;
+    }
+
+    @Override
+    public void close() {
+        neo4j.close();
+    }
+}
@@ -0,0 +1,88 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.Gson;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Index;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.entity.ContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the body of a bulk request from index actions, through the queued items the shipper
+ * sends, as a string or written into pooled direct buffers, compared with the body Jest renders
+ * for the same actions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkBodyBenchmark {
+
+    @Param({"100", "1000"})
+    public int actions;
+
+    @Param({"3", "50"})
+    public int fields;
+
+    private final Gson gson = new Gson();
+    private final ElasticSearchBufferPool pool = new ElasticSearchBufferPool(64 * 1024, 256);
+    private List<Index> indexActions;
+    private List<ElasticSearchBulkItem> items;
+
+    @Setup
+    public void setUp() {
+        indexActions = new ArrayList<>(actions);
+        for (int i = 0; i < actions; i++) {
+            ElasticSearchDocumentWriter writer = ElasticSearchDocumentWriter.acquire()
+                .beginObject();
+            writer.field("id").value(String.valueOf(i));
+            for (int f = 0; f < fields; f++) {
+                writer.field("field" + f).value(f % 2 == 0 ? "value " + i : (Object) (long) i);
+            }
+            indexActions.add(ElasticSearchRenderedSource.index(writer.endObject().toByteArray())
+                .index("people").type("Person").id(String.valueOf(i)).build());
+        }
+        items = items();
+    }
+
+    @Benchmark
+    public List<ElasticSearchBulkItem> items() {
+        List<ElasticSearchBulkItem> items = new ArrayList<>(indexActions.size());
+        for (Index action : indexActions) {
+            items.add(ElasticSearchBulkItem.of(action));
+        }
+        return items;
+    }
+
+    @Benchmark
+    public String body() {
+        return JestRawBulk.of(items).getData(gson);
+    }
+
+    @Benchmark
+    public long pooledBody() {
+        ElasticSearchBulkEntity entity = ElasticSearchBulkEntity.of(items, pool,
+            ContentType.APPLICATION_JSON);
+        entity.release();
+        return entity.getContentLength();
+    }
+
+    @Benchmark
+    public String jestBulk() {
+        return new Bulk.Builder().addAction(indexActions).build().getData(gson);
+    }
+}
@@ -0,0 +1,66 @@
+package org.neo4j.elasticsearch;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.elasticsearch.BenchmarkGraph.Shape;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering the document of a single node, for narrow and wide nodes and nodes with array
+ * properties.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentBenchmark {
+
+    @Param({"NARROW", "WIDE", "ARRAYS"})
+    public Shape shape;
+
+    private BenchmarkGraph graph;
+    private Transaction tx;
+    private Node node;
+    private Map<String, Object> changes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        graph = new BenchmarkGraph(true);
+        long[] ids = graph.createNodes(shape, 1);
+        tx = graph.db.beginTx();
+        node = tx.getNodeById(ids[0]);
+        changes = node.getProperties(shape.keys()[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tx.close();
+        graph.close();
+    }
+
+    @Benchmark
+    public Map<?, ?> indexRequests() {
+        return graph.handler.indexRequests(node);
+    }
+
+    @Benchmark
+    public Map<?, ?> partialUpdateRequests() {
+        return graph.handler.partialUpdateRequests(node, changes);
+    }
+}
@@ -0,0 +1,108 @@
+package org.neo4j.elasticsearch;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.elasticsearch.BenchmarkGraph.Shape;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ElasticSearchEventListener#beforeCommit} for transactions of different shapes: how many
+ * nodes, how wide they are, and what happened to them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventListenerBenchmark {
+
+    /**
+     * What the synthetic transaction did to each node.
+     */
+    public enum Change {
+        CREATE, UPDATE_ONE, UPDATE_ALL, UPDATE_UNCHANGED, ADD_LABEL, DELETE
+    }
+
+    @Param({"1", "100", "1000"})
+    public int nodes;
+
+    @Param({"NARROW", "WIDE", "ARRAYS"})
+    public Shape shape;
+
+    @Param({"CREATE", "UPDATE_ONE", "UPDATE_ALL", "UPDATE_UNCHANGED", "ADD_LABEL", "DELETE"})
+    public Change change;
+
+    @Param({"false", "true"})
+    public boolean partialUpdates;
+
+    private BenchmarkGraph graph;
+    private Transaction tx;
+    private ElasticSearchEventListener listener;
+    private SyntheticTransactionData data;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        graph = new BenchmarkGraph(partialUpdates);
+        long[] ids = graph.createNodes(shape, nodes);
+        listener = new ElasticSearchEventListener(graph.handler);
+        tx = graph.db.beginTx();
+        List<Node> txNodes = BenchmarkGraph.nodes(tx, ids);
+        String[] keys = shape.keys();
+        data = new SyntheticTransactionData();
+        for (int i = 0; i < txNodes.size(); i++) {
+            Node node = txNodes.get(i);
+            switch (change) {
+                case CREATE:
+                    data.created(node);
+                    break;
+                case UPDATE_ONE:
+                    data.assigned(node, keys[0], shape.value(0, i + 1),
+                        node.getProperty(keys[0]));
+                    break;
+                case UPDATE_ALL:
+                    for (int k = 0; k < keys.length; k++) {
+                        data.assigned(node, keys[k], shape.value(k, i + 1),
+                            node.getProperty(keys[k]));
+                    }
+                    break;
+                case UPDATE_UNCHANGED:
+                    for (int k = 0; k < keys.length; k++) {
+                        data.assigned(node, keys[k], node.getProperty(keys[k]),
+                            node.getProperty(keys[k]));
+                    }
+                    break;
+                case ADD_LABEL:
+                    data.assignedLabel(node, shape.label());
+                    break;
+                default:
+                    data.deleted(node);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tx.close();
+        graph.close();
+    }
+
+    @Benchmark
+    public ElasticSearchChangeSet beforeCommit() throws Exception {
+        return listener.beforeCommit(data, tx, graph.db);
+    }
+}
@@ -0,0 +1,80 @@
+package org.neo4j.elasticsearch;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.elasticsearch.ElasticSearchHandler.IndexId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link IndexId} keyed collections on the write path: the per-transaction action map, which
+ * sees every document of a node once per index, and the in-flight set of the shipper, which is
+ * filled and drained once per bulk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexIdBenchmark {
+
+    private static final String[] INDEXES = {"people", "people_search", "companies"};
+
+    @Param({"10", "1000", "100000"})
+    public int ids;
+
+    private String[] nodeIds;
+    private IndexId[] keys;
+
+    @Setup
+    public void setUp() {
+        nodeIds = new String[ids];
+        keys = new IndexId[ids * INDEXES.length];
+        for (int i = 0; i < ids; i++) {
+            nodeIds[i] = String.valueOf(i);
+            for (int j = 0; j < INDEXES.length; j++) {
+                keys[i * INDEXES.length + j] = new IndexId(INDEXES[j], nodeIds[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<IndexId, String> transactionActions() {
+        Map<IndexId, String> actions = new HashMap<>();
+        for (String id : nodeIds) {
+            for (String index : INDEXES) {
+                actions.put(new IndexId(index, id), id);
+            }
+        }
+        return actions;
+    }
+
+    @Benchmark
+    public Set<IndexId> inFlightChurn() {
+        Set<IndexId> inFlight = new HashSet<>();
+        int window = Math.max(1, keys.length / 10);
+        for (int start = 0; start < keys.length; start += window) {
+            int end = Math.min(keys.length, start + window);
+            for (int i = start; i < end; i++) {
+                inFlight.add(keys[i]);
+            }
+            for (int i = start; i < end; i++) {
+                inFlight.remove(keys[i]);
+            }
+        }
+        return inFlight;
+    }
+}
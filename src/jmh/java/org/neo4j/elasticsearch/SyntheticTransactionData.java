@@ -0,0 +1,195 @@
+package org.neo4j.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+
+/**
+ * Transaction data assembled from existing nodes, so that the listener can be measured on
+ * transactions of any shape without the cost of committing them.
+ */
+class SyntheticTransactionData implements TransactionData {
+
+    private final List<Node> createdNodes = new ArrayList<>();
+    private final Set<Node> deletedNodes = new HashSet<>();
+    private final List<PropertyEntry<Node>> assignedNodeProperties = new ArrayList<>();
+    private final List<PropertyEntry<Node>> removedNodeProperties = new ArrayList<>();
+    private final List<LabelEntry> assignedLabels = new ArrayList<>();
+    private final List<LabelEntry> removedLabels = new ArrayList<>();
+
+    SyntheticTransactionData created(Node node) {
+        createdNodes.add(node);
+        for (Label label : node.getLabels()) {
+            assignedLabel(node, label);
+        }
+        for (Map.Entry<String, Object> property : node.getAllProperties().entrySet()) {
+            assigned(node, property.getKey(), null, property.getValue());
+        }
+        return this;
+    }
+
+    SyntheticTransactionData deleted(Node node) {
+        deletedNodes.add(node);
+        for (Label label : node.getLabels()) {
+            removedLabel(node, label);
+        }
+        for (Map.Entry<String, Object> property : node.getAllProperties().entrySet()) {
+            removed(node, property.getKey(), property.getValue());
+        }
+        return this;
+    }
+
+    SyntheticTransactionData assigned(Node node, String key, Object previous, Object value) {
+        assignedNodeProperties.add(new Property(node, key, previous, value));
+        return this;
+    }
+
+    SyntheticTransactionData removed(Node node, String key, Object previous) {
+        removedNodeProperties.add(new Property(node, key, previous, null));
+        return this;
+    }
+
+    SyntheticTransactionData assignedLabel(Node node, Label label) {
+        assignedLabels.add(new LabelChange(node, label));
+        return this;
+    }
+
+    SyntheticTransactionData removedLabel(Node node, Label label) {
+        removedLabels.add(new LabelChange(node, label));
+        return this;
+    }
+
+    @Override
+    public Iterable<Node> createdNodes() {
+        return createdNodes;
+    }
+
+    @Override
+    public Iterable<Node> deletedNodes() {
+        return deletedNodes;
+    }
+
+    @Override
+    public boolean isDeleted(Node node) {
+        return deletedNodes.contains(node);
+    }
+
+    @Override
+    public Iterable<PropertyEntry<Node>> assignedNodeProperties() {
+        return assignedNodeProperties;
+    }
+
+    @Override
+    public Iterable<PropertyEntry<Node>> removedNodeProperties() {
+        return removedNodeProperties;
+    }
+
+    @Override
+    public Iterable<LabelEntry> assignedLabels() {
+        return assignedLabels;
+    }
+
+    @Override
+    public Iterable<LabelEntry> removedLabels() {
+        return removedLabels;
+    }
+
+    @Override
+    public Iterable<Relationship> createdRelationships() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Iterable<Relationship> deletedRelationships() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isDeleted(Relationship relationship) {
+        return false;
+    }
+
+    @Override
+    public Iterable<PropertyEntry<Relationship>> assignedRelationshipProperties() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Iterable<PropertyEntry<Relationship>> removedRelationshipProperties() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String username() {
+        return "neo4j";
+    }
+
+    @Override
+    public Map<String, Object> metaData() {
+        return Collections.emptyMap();
+    }
+
+    private static class Property implements PropertyEntry<Node> {
+
+        private final Node node;
+        private final String key;
+        private final Object previous, value;
+
+        Property(Node node, String key, Object previous, Object value) {
+            this.node = node;
+            this.key = key;
+            this.previous = previous;
+            this.value = value;
+        }
+
+        @Override
+        public Node entity() {
+            return node;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public Object previouslyCommittedValue() {
+            return previous;
+        }
+
+        @Override
+        public Object value() {
+            return value;
+        }
+    }
+
+    private static class LabelChange implements LabelEntry {
+
+        private final Node node;
+        private final Label label;
+
+        LabelChange(Node node, Label label) {
+            this.node = node;
+            this.label = label;
+        }
+
+        @Override
+        public Label label() {
+            return label;
+        }
+
+        @Override
+        public Node node() {
+            return node;
+        }
+    }
+}
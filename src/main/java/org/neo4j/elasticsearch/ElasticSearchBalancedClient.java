@@ -0,0 +1,200 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.Action;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.client.config.HttpClientConfig;
+import io.searchbox.client.http.JestHttpClient;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Jest client that sends every request to the node chosen by an
+ * {@link ElasticSearchHostSelector} instead of round-robin, and reports the outcome and latency
+ * of every request back to it. It shares the HTTP clients, discovery and connection reaping of
+ * the client built by the {@code JestClientFactory}, which is closed with it, and discovered
+ * nodes are passed on to the selector.
+ * <p>
+ * When the breakers of all nodes are open, requests fail with an {@link IOException} without
+ * touching the network; asynchronous requests are failed through their handler.
+ * <p>
+ * Bodies of bulk requests are written, and compressed, while the request is prepared on the
+ * calling thread, so the I/O dispatcher of the async client only writes finished buffers.
+ */
+class ElasticSearchBalancedClient extends JestHttpClient {
+
+    private final ElasticSearchHostSelector selector;
+    private final ElasticSearchBufferPool bufferPool;
+    private final ElasticSearchRequestCompression compression;
+    private JestHttpClient delegate;
+
+    /**
+     * @param bufferPool buffers for the bodies of bulk requests, {@code null} sends them as
+     *     strings
+     * @param compression compresses large bulk bodies, {@code null} sends them as they are
+     */
+    ElasticSearchBalancedClient(ElasticSearchHostSelector selector,
+        ElasticSearchBufferPool bufferPool, ElasticSearchRequestCompression compression) {
+        this.selector = selector;
+        this.bufferPool = bufferPool;
+        this.compression = compression;
+    }
+
+    /**
+     * Takes over the HTTP clients and settings of a client built by the factory. Called once
+     * before discovery starts and again when the factory is done, the configured nodes are only
+     * taken the first time so nodes discovered in between are kept.
+     */
+    synchronized void adopt(JestHttpClient client, HttpClientConfig config) {
+        setHttpClient(client.getHttpClient());
+        setAsyncClient(client.getAsyncClient());
+        setGson(client.getGson());
+        setHttpClientContextTemplate(client.getHttpClientContextTemplate());
+        setRequestCompressionEnabled(config.isRequestCompressionEnabled());
+        setElasticsearchVersion(config.getElasticsearchVersion());
+        if (delegate == null) {
+            setServers(config.getServerList());
+        }
+        this.delegate = client;
+    }
+
+    @Override
+    public void setServers(Set<String> servers) {
+        super.setServers(servers);
+        selector.setHosts(servers);
+    }
+
+    @Override
+    protected String getNextServer() {
+        try {
+            return selector.select();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T extends JestResult> T execute(Action<T> clientRequest, RequestConfig requestConfig)
+        throws IOException {
+        try {
+            return super.execute(clientRequest, requestConfig);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public <T extends JestResult> void executeAsync(Action<T> clientRequest,
+        JestResultHandler<? super T> resultHandler, RequestConfig requestConfig) {
+        try {
+            super.executeAsync(clientRequest, resultHandler, requestConfig);
+        } catch (UncheckedIOException e) {
+            resultHandler.failed(e.getCause());
+        }
+    }
+
+    /**
+     * Writes the body of raw bulks into pooled buffers instead of a string, and compresses large
+     * bulk bodies.
+     */
+    @Override
+    protected <T extends JestResult> HttpUriRequest prepareRequest(Action<T> clientRequest,
+        RequestConfig requestConfig) {
+        HttpUriRequest request;
+        if (bufferPool == null || !(clientRequest instanceof JestRawBulk)) {
+            request = super.prepareRequest(clientRequest, requestConfig);
+        } else {
+            JestRawBulk bulk = (JestRawBulk) clientRequest;
+            request = super.prepareRequest(bulk.withoutBody(), requestConfig);
+            ((HttpEntityEnclosingRequest) request).setEntity(
+                ElasticSearchBulkEntity.of(bulk.getItems(), bufferPool, requestContentType));
+        }
+        if (compression != null) {
+            try {
+                compression.compress(request);
+            } catch (IOException e) {
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    release(((HttpEntityEnclosingRequest) request).getEntity());
+                }
+                throw new UncheckedIOException(e);
+            }
+        }
+        return request;
+    }
+
+    private static void release(HttpEntity entity) {
+        if (entity instanceof ElasticSearchBulkEntity) {
+            ((ElasticSearchBulkEntity) entity).release();
+        }
+    }
+
+    @Override
+    protected CloseableHttpResponse executeRequest(HttpUriRequest request) throws IOException {
+        String host = request.getURI().toString();
+        long start = System.nanoTime();
+        HttpEntity entity = request instanceof HttpEntityEnclosingRequest
+            ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+        try {
+            CloseableHttpResponse response = super.executeRequest(request);
+            selector.response(host, response.getStatusLine().getStatusCode(), millisSince(start));
+            return response;
+        } catch (IOException e) {
+            selector.failure(host);
+            throw e;
+        } finally {
+            release(entity);
+        }
+    }
+
+    @Override
+    protected <T extends JestResult> Future<HttpResponse> executeAsyncRequest(
+        Action<T> clientRequest, JestResultHandler<? super T> resultHandler,
+        HttpUriRequest request) {
+        String host = request.getURI().toString();
+        long start = System.nanoTime();
+        HttpEntity entity = request instanceof HttpEntityEnclosingRequest
+            ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+        try {
+            return super.executeAsyncRequest(clientRequest, new JestResultHandler<T>() {
+                @Override
+                public void completed(T result) {
+                    release(entity);
+                    selector.response(host, result.getResponseCode(), millisSince(start));
+                    resultHandler.completed(result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    release(entity);
+                    selector.failure(host);
+                    resultHandler.failed(ex);
+                }
+            }, request);
+        } catch (RuntimeException e) {
+            release(entity);
+            throw e;
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate != null) {
+            delegate.close();
+        } else {
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.neo4j.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import org.neo4j.elasticsearch.ElasticSearchSettings.BackpressurePolicy;
+
+/**
+ * {@link ElasticSearchQueue} that limits the bytes of bulk lines waiting for ElasticSearch and
+ * applies a {@link BackpressurePolicy} once the limit is reached:
+ * <ul>
+ * <li>{@code BLOCK} makes the committing thread wait until the shipper caught up,</li>
+ * <li>{@code SPILL} appends to a file based spill queue instead, which is drained after the
+ * primary queue so the order of changes is kept,</li>
+ * <li>{@code DROP} discards the changes and marks their indexes as dirty, so they can be
+ * reindexed later. Once the dirty indexes are recorded, the dropped items are passed to a
+ * callback, so they do not hold back the transaction checkpoint.</li>
+ * </ul>
+ * A transaction is always accepted while nothing is pending, no matter how large it is.
+ */
+class ElasticSearchBoundedQueue implements ElasticSearchQueue {
+
+    private final static Logger logger = Logger.getLogger(
+        ElasticSearchBoundedQueue.class.getName());
+
+    private static final int PRIMARY = 0;
+    private static final int SPILL = 1;
+
+    private final ElasticSearchQueue primary;
+    private final ElasticSearchQueue spill;
+    private final long maxPendingBytes;
+    private final BackpressurePolicy policy;
+    private final Consumer<Collection<ElasticSearchBulkItem>> dropped;
+    private final ElasticSearchDirtyIndexes dirtyIndexes;
+
+    // for every poll: end offset of this queue, source queue and end offset of the source queue
+    private final ArrayDeque<long[]> polled = new ArrayDeque<>();
+    private long readPosition;
+    private long acknowledged;
+    private boolean spilling;
+    private boolean closed;
+
+    /**
+     * @param spill queue used by the {@code SPILL} policy, {@code null} if the primary queue is
+     * durable already, in which case it just keeps growing
+     */
+    ElasticSearchBoundedQueue(ElasticSearchQueue primary, ElasticSearchQueue spill,
+        long maxPendingBytes, BackpressurePolicy policy) {
+        this(primary, spill, maxPendingBytes, policy, new ElasticSearchDirtyIndexes(), items -> {
+        });
+    }
+
+    /**
+     * @param dirtyIndexes where the {@code DROP} policy records the indexes it dropped changes of
+     * @param dropped called with the items discarded by the {@code DROP} policy
+     */
+    ElasticSearchBoundedQueue(ElasticSearchQueue primary, ElasticSearchQueue spill,
+        long maxPendingBytes, BackpressurePolicy policy, ElasticSearchDirtyIndexes dirtyIndexes,
+        Consumer<Collection<ElasticSearchBulkItem>> dropped) {
+        this.primary = primary;
+        this.dirtyIndexes = dirtyIndexes;
+        this.dropped = dropped;
+        this.spill = policy == BackpressurePolicy.SPILL ? spill : null;
+        this.maxPendingBytes = maxPendingBytes;
+        this.policy = policy;
+        this.spilling = this.spill != null && this.spill.pendingBytes() > 0;
+    }
+
+    @Override
+    public synchronized void append(Collection<ElasticSearchBulkItem> items) throws IOException {
+        long size = 0;
+        for (ElasticSearchBulkItem item : items) {
+            size += item.getLines().length;
+        }
+        switch (policy) {
+            case BLOCK:
+                try {
+                    while (!closed && exceedsLimit(pendingBytes(), size)) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for ElasticSearch queue", e);
+                }
+                primary.append(items);
+                break;
+            case SPILL:
+                if (spill != null && (spilling || exceedsLimit(primary.pendingBytes(), size))) {
+                    if (!spilling) {
+                        logger.warning("ElasticSearch queue is full, spilling to disk");
+                    }
+                    spilling = true;
+                    spill.append(items);
+                } else {
+                    primary.append(items);
+                }
+                break;
+            case DROP:
+                if (exceedsLimit(pendingBytes(), size)) {
+                    // if the indexes could not be recorded, the checkpoint keeps the changes
+                    if (markDirty(items)) {
+                        dropped.accept(items);
+                    }
+                    return;
+                }
+                primary.append(items);
+                break;
+        }
+        notifyAll();
+    }
+
+    private boolean exceedsLimit(long pending, long size) {
+        return pending > 0 && pending + size > maxPendingBytes;
+    }
+
+    private boolean markDirty(Collection<ElasticSearchBulkItem> items) {
+        Set<String> indexes = new TreeSet<>();
+        for (ElasticSearchBulkItem item : items) {
+            indexes.add(item.getIndexName());
+        }
+        if (!dirtyIndexes.names().containsAll(indexes)) {
+            logger.severe("ElasticSearch queue is full, dropped changes for " + indexes
+                + ", these indexes need to be reindexed");
+        }
+        return dirtyIndexes.mark(indexes);
+    }
+
+    /**
+     * Indexes for which changes were dropped by the {@code DROP} policy, also before a restart.
+     */
+    Set<String> getDirtyIndexes() {
+        return dirtyIndexes.names();
+    }
+
+    void clearDirty(String indexName) {
+        dirtyIndexes.clear(indexName);
+    }
+
+    @Override
+    public synchronized Batch poll(int maxItems, long maxBytes, long timeout, TimeUnit unit)
+        throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            int source = PRIMARY;
+            Batch batch = primary.poll(maxItems, maxBytes, 0, TimeUnit.NANOSECONDS);
+            if (batch.isEmpty() && spill != null) {
+                source = SPILL;
+                batch = spill.poll(maxItems, maxBytes, 0, TimeUnit.NANOSECONDS);
+            }
+            if (!batch.isEmpty()) {
+                readPosition += batch.getItems().size();
+                polled.addLast(new long[]{readPosition, source, batch.getEndOffset()});
+                return new Batch(batch.getItems(), readPosition);
+            }
+            long remaining = deadline - System.nanoTime();
+            if (closed || remaining <= 0) {
+                return new Batch(Collections.emptyList(), readPosition);
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    @Override
+    public synchronized void acknowledge(long offset) throws IOException {
+        while (!polled.isEmpty() && polled.peekFirst()[0] <= offset) {
+            long[] poll = polled.pollFirst();
+            (poll[1] == SPILL ? spill : primary).acknowledge(poll[2]);
+        }
+        acknowledged = Math.max(acknowledged, offset);
+        if (spilling && spill.pendingBytes() == 0) {
+            spilling = false;
+            logger.info("ElasticSearch spill queue drained");
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void rewind() {
+        primary.rewind();
+        if (spill != null) {
+            spill.rewind();
+        }
+        polled.clear();
+        readPosition = acknowledged;
+    }
+
+    @Override
+    public synchronized long pendingBytes() {
+        return primary.pendingBytes() + (spill == null ? 0 : spill.pendingBytes());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        notifyAll();
+        primary.close();
+        if (spill != null) {
+            spill.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.neo4j.elasticsearch;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Direct buffers of {@code bufferSize} bytes that bulk bodies are written into, so large bulks are
+ * neither copied into Java strings nor allocated as humongous arrays on the heap. At most
+ * {@code maxBuffers} direct buffers are ever allocated; they are reused after the response of
+ * their bulk. When all of them are in use the request is counted as a miss, so a burst of large
+ * bulks never waits for the pool.
+ * <p>
+ * The bulk lines of an item are still rendered into a heap array first: the item outlives the
+ * request, as the outbox persists it and the coalescer and retries send it again, so its lines
+ * are copied once into the buffers of each body. On a miss a body refers to these arrays instead
+ * of copying them again; only bodies that exist nowhere else, like compressed ones, fall back to
+ * heap buffers.
+ */
+class ElasticSearchBufferPool {
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final BlockingQueue<ByteBuffer> idle;
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final LongAdder misses = new LongAdder();
+
+    ElasticSearchBufferPool(int bufferSize, int maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxBuffers));
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * A direct buffer, or a heap buffer if all of them are in use.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = acquireDirect();
+        return buffer != null ? buffer : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * A direct buffer, or {@code null} if all of them are in use.
+     */
+    ByteBuffer acquireDirect() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer != null) {
+            buffer.clear();
+            return buffer;
+        }
+        if (allocated.incrementAndGet() <= maxBuffers) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        allocated.decrementAndGet();
+        misses.increment();
+        return null;
+    }
+
+    void release(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == bufferSize) {
+            idle.offer(buffer);
+        }
+    }
+
+    long inUse() {
+        return allocated.get() - idle.size();
+    }
+
+    /**
+     * Reports the usage to the metrics of a database. The client, and so the pool, is shared by
+     * all databases.
+     */
+    void register(ElasticSearchMetrics metrics) {
+        metrics.gauge("bufferPool.buffers", allocated::get);
+        metrics.gauge("bufferPool.inUse", this::inUse);
+        metrics.gauge("bufferPool.bytes", () -> (long) allocated.get() * bufferSize);
+        metrics.gauge("bufferPool.misses", misses::sum);
+    }
+}
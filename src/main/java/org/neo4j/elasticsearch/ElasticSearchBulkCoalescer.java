@@ -0,0 +1,96 @@
+package org.neo4j.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.neo4j.elasticsearch.ElasticSearchHandler.IndexId;
+
+/**
+ * Merges the bulk items of many transactions into one bulk window, keeping only the latest write
+ * per document: an index or delete replaces everything queued before it for the same
+ * {@link IndexId}, while updates are kept in order behind the write they apply to. The window is
+ * due once it holds {@code maxActions} actions or {@code maxBytes} of bulk lines, or when its
+ * oldest item is older than the linger time.
+ */
+class ElasticSearchBulkCoalescer {
+
+    private final long lingerNanos;
+    private int maxActions;
+    private long maxBytes;
+
+    private final Map<IndexId, List<ElasticSearchBulkItem>> pending = new LinkedHashMap<>();
+    private int actions;
+    private long bytes;
+    private long windowStart;
+
+    ElasticSearchBulkCoalescer(int maxActions, long maxBytes, long lingerNanos) {
+        this.maxActions = maxActions;
+        this.maxBytes = maxBytes;
+        this.lingerNanos = lingerNanos;
+    }
+
+    /**
+     * Changes the limits of the window, a window that is already larger is due right away.
+     */
+    void resize(int maxActions, long maxBytes) {
+        this.maxActions = maxActions;
+        this.maxBytes = maxBytes;
+    }
+
+    void add(ElasticSearchBulkItem item, long nowNanos) {
+        if (actions == 0) {
+            windowStart = nowNanos;
+        }
+        IndexId key = new IndexId(item.getIndexName(), item.getId());
+        List<ElasticSearchBulkItem> writes = pending.get(key);
+        if (writes == null) {
+            writes = new ArrayList<>(1);
+            pending.put(key, writes);
+        } else if (item.getOperation() != ElasticSearchBulkItem.UPDATE) {
+            for (ElasticSearchBulkItem superseded : writes) {
+                bytes -= superseded.getLines().length;
+            }
+            actions -= writes.size();
+            writes.clear();
+        }
+        writes.add(item);
+        bytes += item.getLines().length;
+        actions++;
+    }
+
+    boolean isEmpty() {
+        return actions == 0;
+    }
+
+    int remainingActions() {
+        return Math.max(0, maxActions - actions);
+    }
+
+    long remainingBytes() {
+        return Math.max(0, maxBytes - bytes);
+    }
+
+    /**
+     * Nanoseconds until the window is due because of its linger time.
+     */
+    long remainingLinger(long nowNanos) {
+        return isEmpty() ? lingerNanos : Math.max(0, windowStart + lingerNanos - nowNanos);
+    }
+
+    boolean isDue(long nowNanos) {
+        return !isEmpty() && (actions >= maxActions || bytes >= maxBytes
+            || remainingLinger(nowNanos) == 0);
+    }
+
+    List<ElasticSearchBulkItem> drain() {
+        List<ElasticSearchBulkItem> items = new ArrayList<>(actions);
+        for (List<ElasticSearchBulkItem> writes : pending.values()) {
+            items.addAll(writes);
+        }
+        pending.clear();
+        actions = 0;
+        bytes = 0;
+        return items;
+    }
+}
@@ -0,0 +1,251 @@
+package org.neo4j.elasticsearch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * Body of a bulk request, its bulk lines copied once into buffers of an
+ * {@link ElasticSearchBufferPool}, or referred to where they are when the pool has no direct
+ * buffer left. The async client writes the buffers to the connection as they
+ * are, the sync client and compression stream them; compressed bodies are written into pooled
+ * buffers too, by a {@link Writer}. The buffers go back to the pool by {@link #release()} once
+ * the response arrived; the entity must not be used after that.
+ */
+class ElasticSearchBulkEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+    private static final int COPY_SIZE = 8192;
+
+    private final ElasticSearchBufferPool pool;
+    private final List<ByteBuffer> buffers;
+    private final long length;
+    private final AtomicBoolean released = new AtomicBoolean();
+    // position of the async producer
+    private int producing;
+    private ByteBuffer current;
+
+    private ElasticSearchBulkEntity(ElasticSearchBufferPool pool, List<ByteBuffer> buffers,
+        long length, ContentType contentType) {
+        this.pool = pool;
+        this.buffers = buffers;
+        this.length = length;
+        setContentType(contentType.toString());
+    }
+
+    static ElasticSearchBulkEntity of(List<ElasticSearchBulkItem> items,
+        ElasticSearchBufferPool pool, ContentType contentType) {
+        Writer out = new Writer(pool);
+        for (ElasticSearchBulkItem item : items) {
+            out.writeShared(item.getLines());
+        }
+        return out.toEntity(contentType);
+    }
+
+    /**
+     * Writes a body into buffers of the pool, e.g. a compressed one. Either
+     * {@link #toEntity(ContentType)} hands the buffers over to the entity or {@link #discard()}
+     * returns them; closing the stream does neither.
+     */
+    static class Writer extends OutputStream {
+
+        private final ElasticSearchBufferPool pool;
+        private List<ByteBuffer> buffers = new ArrayList<>();
+        private ByteBuffer buffer;
+        private long length;
+
+        Writer(ElasticSearchBufferPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) {
+            length += count;
+            while (count > 0) {
+                if (buffer == null || !buffer.hasRemaining()) {
+                    next(pool.acquire());
+                }
+                int written = Math.min(buffer.remaining(), count);
+                buffer.put(bytes, offset, written);
+                offset += written;
+                count -= written;
+            }
+        }
+
+        /**
+         * Writes bytes that do not change while the body is used, like the lines of an item. When
+         * the pool has no direct buffer left the rest is referred to instead of being copied.
+         */
+        void writeShared(byte[] bytes) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (buffer == null || !buffer.hasRemaining()) {
+                    ByteBuffer direct = pool.acquireDirect();
+                    if (direct == null) {
+                        next(null);
+                        buffers.add(ByteBuffer.wrap(bytes, offset, bytes.length - offset));
+                        length += bytes.length - offset;
+                        return;
+                    }
+                    next(direct);
+                }
+                int written = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, written);
+                offset += written;
+                length += written;
+            }
+        }
+
+        private void next(ByteBuffer next) {
+            if (buffer != null) {
+                buffer.flip();
+            }
+            buffer = next;
+            if (next != null) {
+                buffers.add(next);
+            }
+        }
+
+        long length() {
+            return length;
+        }
+
+        ElasticSearchBulkEntity toEntity(ContentType contentType) {
+            next(null);
+            ElasticSearchBulkEntity entity = new ElasticSearchBulkEntity(pool, buffers, length,
+                contentType);
+            buffers = null;
+            return entity;
+        }
+
+        void discard() {
+            if (buffers != null) {
+                for (ByteBuffer buffer : buffers) {
+                    pool.release(buffer);
+                }
+                buffers = null;
+            }
+        }
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new InputStream() {
+            private int index;
+            private ByteBuffer buffer = next();
+
+            private ByteBuffer next() {
+                return index < buffers.size() ? buffers.get(index++).duplicate() : null;
+            }
+
+            @Override
+            public int read() {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int count) {
+                while (buffer != null && !buffer.hasRemaining()) {
+                    buffer = next();
+                }
+                if (buffer == null) {
+                    return -1;
+                }
+                int read = Math.min(count, buffer.remaining());
+                buffer.get(bytes, offset, read);
+                return read;
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] copy = new byte[COPY_SIZE];
+        for (ByteBuffer buffer : buffers) {
+            ByteBuffer data = buffer.duplicate();
+            if (data.hasArray()) {
+                out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                continue;
+            }
+            while (data.hasRemaining()) {
+                int count = Math.min(copy.length, data.remaining());
+                data.get(copy, 0, count);
+                out.write(copy, 0, count);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void produceContent(ContentEncoder encoder, IOControl ioControl)
+        throws IOException {
+        while (true) {
+            if (current == null) {
+                if (producing == buffers.size()) {
+                    encoder.complete();
+                    return;
+                }
+                current = buffers.get(producing++).duplicate();
+            }
+            encoder.write(current);
+            if (current.hasRemaining()) {
+                // the connection is busy, called again once it can take more
+                return;
+            }
+            current = null;
+        }
+    }
+
+    /**
+     * Rewinds the async producer, e.g. before the request is sent again.
+     */
+    @Override
+    public synchronized void close() {
+        producing = 0;
+        current = null;
+    }
+
+    /**
+     * Returns the buffers to the pool, only the first call has an effect.
+     */
+    void release() {
+        if (released.compareAndSet(false, true)) {
+            for (ByteBuffer buffer : buffers) {
+                pool.release(buffer);
+            }
+        }
+    }
+}
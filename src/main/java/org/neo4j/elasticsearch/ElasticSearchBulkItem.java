@@ -0,0 +1,219 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.AbstractJestClient;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * A single bulk action rendered to its newline delimited bulk lines (action and meta data line
+ * plus optional source line), together with the target index and document id.
+ */
+class ElasticSearchBulkItem {
+
+    static final byte INDEX = 1;
+    static final byte UPDATE = 2;
+    static final byte DELETE = 3;
+
+    /**
+     * Transaction id of items that were not created from a committed transaction.
+     */
+    static final long NO_TRANSACTION = 0;
+
+    /**
+     * Parameters of actions that only apply while the document is still at the given sequence
+     * number and primary term, otherwise ElasticSearch rejects them with a conflict.
+     */
+    static final String IF_SEQ_NO = "if_seq_no";
+    static final String IF_PRIMARY_TERM = "if_primary_term";
+
+    private static final Gson gson = new GsonBuilder()
+        .setDateFormat(AbstractJestClient.ELASTIC_SEARCH_DATE_FORMAT)
+        .create();
+
+    private static final byte[] ID_FIELD = ElasticSearchDocumentWriter.encodeFieldName("_id");
+    private static final byte[] INDEX_FIELD =
+        ElasticSearchDocumentWriter.encodeFieldName("_index");
+    private static final byte[] TYPE_FIELD = ElasticSearchDocumentWriter.encodeFieldName("_type");
+    private static final byte[] IF_SEQ_NO_FIELD =
+        ElasticSearchDocumentWriter.encodeFieldName(IF_SEQ_NO);
+    private static final byte[] IF_PRIMARY_TERM_FIELD =
+        ElasticSearchDocumentWriter.encodeFieldName(IF_PRIMARY_TERM);
+
+    private final byte operation;
+    private final String indexName;
+    private final String id;
+    private final byte[] lines;
+    private final long createdMillis;
+    private final long transactionId;
+
+    ElasticSearchBulkItem(byte operation, String indexName, String id, byte[] lines) {
+        this(operation, indexName, id, lines, System.currentTimeMillis(), NO_TRANSACTION);
+    }
+
+    ElasticSearchBulkItem(byte operation, String indexName, String id, byte[] lines,
+        long createdMillis, long transactionId) {
+        this.operation = operation;
+        this.indexName = indexName;
+        this.id = id;
+        this.lines = lines;
+        this.createdMillis = createdMillis;
+        this.transactionId = transactionId;
+    }
+
+    /**
+     * Renders the action and its source straight into the bulk lines. Documents built by the
+     * {@link ElasticSearchHandler} are already encoded, see {@link ElasticSearchRenderedSource},
+     * and are copied as they are; other sources are encoded without re-parsing. An
+     * index action with the {@code op_type} {@code create} is sent as a {@code create}, and the
+     * {@link #IF_SEQ_NO} and {@link #IF_PRIMARY_TERM} parameters are passed on.
+     */
+    static ElasticSearchBulkItem of(BulkableAction<?> action) {
+        return of(action, NO_TRANSACTION);
+    }
+
+    static ElasticSearchBulkItem of(BulkableAction<?> action, long transactionId) {
+        ElasticSearchDocumentWriter writer = ElasticSearchDocumentWriter.acquire()
+            .beginObject()
+            .field(action.getBulkMethodName())
+            .beginObject();
+        if (action.getId() != null) {
+            writer.field(ID_FIELD).value(action.getId());
+        }
+        if (action.getIndex() != null) {
+            writer.field(INDEX_FIELD).value(action.getIndex());
+        }
+        if (action.getType() != null) {
+            writer.field(TYPE_FIELD).value(action.getType());
+        }
+        Object seqNo = parameter(action, IF_SEQ_NO);
+        if (seqNo != null) {
+            writer.field(IF_SEQ_NO_FIELD).value(((Number) seqNo).longValue());
+            writer.field(IF_PRIMARY_TERM_FIELD)
+                .value(((Number) parameter(action, IF_PRIMARY_TERM)).longValue());
+        }
+        writer.endObject().endObject().newLine();
+        byte[] rendered = ElasticSearchRenderedSource.of(action);
+        if (rendered != null) {
+            writer.raw(rendered).newLine();
+        } else {
+            String source = action.getData(gson);
+            if (source != null) {
+                writer.raw(source).newLine();
+            }
+        }
+        return new ElasticSearchBulkItem(operation(action.getBulkMethodName()),
+            action.getIndex(), action.getId(), writer.toByteArray(), System.currentTimeMillis(),
+            transactionId);
+    }
+
+    private static Object parameter(BulkableAction<?> action, String name) {
+        Collection<Object> values = action.getParameter(name);
+        return values == null || values.isEmpty() ? null : values.iterator().next();
+    }
+
+    private static byte operation(String bulkMethodName) {
+        switch (bulkMethodName) {
+            case "index":
+            case "create":
+                return INDEX;
+            case "update":
+                return UPDATE;
+            case "delete":
+                return DELETE;
+            default:
+                throw new IllegalArgumentException("Unsupported bulk operation " + bulkMethodName);
+        }
+    }
+
+    byte getOperation() {
+        return operation;
+    }
+
+    String getIndexName() {
+        return indexName;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    byte[] getLines() {
+        return lines;
+    }
+
+    /**
+     * When the item was created from a committed change, kept across restarts by the outbox.
+     */
+    long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * The id of the transaction the item was created from, or {@link #NO_TRANSACTION}.
+     */
+    long getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * The item as created from the given committed transaction, sharing the bulk lines.
+     */
+    ElasticSearchBulkItem withTransaction(long transactionId) {
+        return transactionId == this.transactionId ? this
+            : new ElasticSearchBulkItem(operation, indexName, id, lines, createdMillis,
+                transactionId);
+    }
+
+    int encodedLength() {
+        return 1 + 8 + 8 + 2 + utf8Length(indexName) + 2 + utf8Length(id) + 4 + lines.length;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.put(operation);
+        buffer.putLong(createdMillis);
+        buffer.putLong(transactionId);
+        putString(buffer, indexName);
+        putString(buffer, id);
+        buffer.putInt(lines.length);
+        buffer.put(lines);
+    }
+
+    static ElasticSearchBulkItem readFrom(ByteBuffer buffer) {
+        byte operation = buffer.get();
+        long createdMillis = buffer.getLong();
+        long transactionId = buffer.getLong();
+        String indexName = getString(buffer);
+        String id = getString(buffer);
+        byte[] lines = new byte[buffer.getInt()];
+        buffer.get(lines);
+        return new ElasticSearchBulkItem(operation, indexName, id, lines, createdMillis,
+            transactionId);
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(UTF_8).length;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "ElasticSearchBulkItem [operation=" + operation + ", indexName=" + indexName
+            + ", id=" + id + "]";
+    }
+}
@@ -0,0 +1,67 @@
+package org.neo4j.elasticsearch;
+
+import java.time.Duration;
+
+/**
+ * Target size of the next bulk, tuned by additive increase, multiplicative decrease from the
+ * responses of ElasticSearch. Every bulk that filled at least half of the target and was answered
+ * within the latency goal grows the target by {@code minBytes}, a slower bulk shrinks it by a
+ * quarter and a bulk ElasticSearch pushed back on (status 429 or a timeout) halves it. The target
+ * stays between {@code minBytes} and {@code maxBytes}, the action limit is scaled along with it.
+ * <p>
+ * With {@code minBytes} equal to {@code maxBytes} the size is fixed.
+ */
+class ElasticSearchBulkSizer {
+
+    static final double SLOW_DECREASE = 0.75;
+    static final double OVERLOAD_DECREASE = 0.5;
+
+    private final int maxActions;
+    private final long minBytes;
+    private final long maxBytes;
+    private final long latencyGoalMillis;
+    private volatile long targetBytes;
+
+    ElasticSearchBulkSizer(int maxActions, long minBytes, long maxBytes, Duration latencyGoal) {
+        this.maxActions = maxActions;
+        this.maxBytes = maxBytes;
+        this.minBytes = Math.min(minBytes, maxBytes);
+        this.latencyGoalMillis = latencyGoal.toMillis();
+        this.targetBytes = Math.max(this.minBytes, maxBytes / 4);
+    }
+
+    long targetBytes() {
+        return targetBytes;
+    }
+
+    int targetActions() {
+        return (int) Math.max(1, (long) maxActions * targetBytes / maxBytes);
+    }
+
+    /**
+     * A bulk of the given size that ElasticSearch accepted after the given time.
+     */
+    synchronized void accepted(long bytes, long latencyMillis) {
+        if (latencyMillis > latencyGoalMillis) {
+            resize(targetBytes * SLOW_DECREASE);
+        } else if (bytes * 2 >= targetBytes) {
+            resize(targetBytes + minBytes);
+        }
+    }
+
+    /**
+     * ElasticSearch pushed back on a bulk, it is too busy for bulks of the current size.
+     */
+    synchronized void overloaded() {
+        resize(targetBytes * OVERLOAD_DECREASE);
+    }
+
+    private void resize(double bytes) {
+        targetBytes = (long) Math.max(minBytes, Math.min(maxBytes, bytes));
+    }
+
+    void register(ElasticSearchMetrics metrics) {
+        metrics.gauge("bulk.targetBytes", this::targetBytes);
+        metrics.gauge("bulk.targetActions", this::targetActions);
+    }
+}
@@ -0,0 +1,239 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.DocumentResult;
+import io.searchbox.core.Index;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.elasticsearch.ElasticSearchHandler.IndexId;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.helpers.collection.Visitor;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.internal.recordstorage.Command;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.kernel.impl.transaction.CommittedTransactionRepresentation;
+import org.neo4j.kernel.impl.transaction.log.LogicalTransactionStore;
+import org.neo4j.kernel.impl.transaction.log.NoSuchTransactionException;
+import org.neo4j.kernel.impl.transaction.log.TransactionCursor;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.storageengine.api.StorageCommand;
+import org.neo4j.storageengine.api.TransactionIdStore;
+
+/**
+ * Replays the transactions committed after the {@link ElasticSearchTransactionCheckpoint} when a
+ * database is started, so changes that were committed but never accepted by ElasticSearch, e.g.
+ * because Neo4j crashed before the transaction listener ran, are indexed without a full reindex.
+ * <p>
+ * The transaction logs only tell which nodes and relationships were written, so their current
+ * documents are sent: nodes and relationships that exist are indexed again, the documents of
+ * deleted ones are removed from all indexes of their kind. Nodes whose labels may have changed
+ * are also removed from the indexes of the labels they do not have. The checkpoint is held at the
+ * last acknowledged transaction until all replayed documents have been accepted.
+ * <p>
+ * The documents of a batch are read and queued under the {@link ElasticSearchHandler#replay
+ * replay} lock, which the transaction listener takes to queue the changes of a committed
+ * transaction. A transaction committing while a batch is read is queued after the batch, so an
+ * older replayed document never overwrites the document of a newer commit.
+ */
+class ElasticSearchCatchUp implements Runnable {
+
+    private final static Logger logger = Logger.getLogger(ElasticSearchCatchUp.class.getName());
+
+    private static final int BATCH_SIZE = 1000;
+    private static final long AVAILABILITY_TIMEOUT_MS = 1000;
+    private static final long STOP_TIMEOUT_MS = 10000;
+
+    private final DatabaseManagementService dms;
+    private final String database;
+    private final ElasticSearchHandler handler;
+    private final ElasticSearchTransactionCheckpoint checkpoint;
+    private final long from;
+    private final AtomicLong replayed = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    ElasticSearchCatchUp(DatabaseManagementService dms, String database,
+        ElasticSearchHandler handler, ElasticSearchTransactionCheckpoint checkpoint) {
+        this.dms = dms;
+        this.database = database;
+        this.handler = handler;
+        this.checkpoint = checkpoint;
+        this.from = checkpoint.last() + 1;
+    }
+
+    /**
+     * Holds the checkpoint and starts replaying in the background once the database is
+     * available. Has to be called before the transaction listener is registered.
+     */
+    synchronized void start() {
+        checkpoint.hold(from);
+        running = true;
+        thread = new Thread(this, "neo4j-elasticsearch-catch-up-" + database);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join(STOP_TIMEOUT_MS);
+            thread = null;
+        }
+    }
+
+    void register(ElasticSearchMetrics metrics) {
+        metrics.gauge("catchUp.transactions", replayed::get);
+    }
+
+    @Override
+    public void run() {
+        try {
+            GraphDatabaseAPI db = null;
+            while (running && db == null) {
+                try {
+                    GraphDatabaseService candidate = dms.database(database);
+                    if (candidate.isAvailable(AVAILABILITY_TIMEOUT_MS)) {
+                        db = (GraphDatabaseAPI) candidate;
+                    }
+                } catch (RuntimeException e) {
+                    // not created yet
+                    Thread.sleep(AVAILABILITY_TIMEOUT_MS);
+                }
+            }
+            if (db != null) {
+                catchUp(db);
+                checkpoint.release(from);
+            }
+        } catch (InterruptedException e) {
+            // stopped, the checkpoint stays where it was so the next start replays again
+        } catch (NoSuchTransactionException e) {
+            logger.warning("ElasticSearch Integration: the transaction logs of " + database
+                + " since transaction " + from + " are gone, reindex to catch up");
+            checkpoint.release(from);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "ElasticSearch Integration: could not replay the "
+                + "transactions of " + database + " since transaction " + from, e);
+        }
+    }
+
+    private void catchUp(GraphDatabaseAPI db) throws IOException, InterruptedException {
+        long last = db.getDependencyResolver().resolveDependency(TransactionIdStore.class)
+            .getLastCommittedTransactionId();
+        if (from > last) {
+            return;
+        }
+        logger.info("ElasticSearch Integration: replaying transactions " + from + " to " + last
+            + " of " + database);
+        LogicalTransactionStore store = db.getDependencyResolver()
+            .resolveDependency(LogicalTransactionStore.class);
+        Batch batch = new Batch();
+        try (TransactionCursor transactions = store.getTransactions(from)) {
+            while (running && transactions.next()) {
+                CommittedTransactionRepresentation transaction = transactions.get();
+                long transactionId = transaction.getCommitEntry().getTxId();
+                if (transactionId > last) {
+                    break;
+                }
+                transaction.accept(batch);
+                replayed.incrementAndGet();
+                if (batch.size() >= BATCH_SIZE) {
+                    batch.ship(db, transactionId);
+                    batch = new Batch();
+                }
+            }
+            batch.ship(db, last);
+        }
+        if (!running) {
+            throw new InterruptedException();
+        }
+        logger.info("ElasticSearch Integration: replayed " + replayed.get()
+            + " transactions of " + database);
+    }
+
+    /**
+     * The nodes and relationships written by a run of transactions.
+     */
+    private class Batch implements Visitor<StorageCommand, IOException> {
+
+        private final LongHashSet nodes = new LongHashSet();
+        // nodes whose record changed, their labels may be different
+        private final LongHashSet nodeRecords = new LongHashSet();
+        private final LongHashSet relationships = new LongHashSet();
+
+        @Override
+        public boolean visit(StorageCommand command) {
+            if (command instanceof Command.NodeCommand) {
+                long id = ((Command.NodeCommand) command).getKey();
+                nodes.add(id);
+                nodeRecords.add(id);
+            } else if (command instanceof Command.RelationshipCommand) {
+                relationships.add(((Command.RelationshipCommand) command).getKey());
+            } else if (command instanceof Command.PropertyCommand) {
+                Command.PropertyCommand property = (Command.PropertyCommand) command;
+                if (property.getNodeId() != -1) {
+                    nodes.add(property.getNodeId());
+                } else if (property.getRelId() != -1) {
+                    relationships.add(property.getRelId());
+                }
+            }
+            return false;
+        }
+
+        int size() {
+            return nodes.size() + relationships.size();
+        }
+
+        /**
+         * Queues the current documents, checkpointed as part of the given transaction.
+         */
+        void ship(GraphDatabaseAPI db, long transactionId) throws IOException {
+            if (size() == 0) {
+                return;
+            }
+            handler.replay(() -> handler.execute(read(db), transactionId));
+        }
+
+        private List<BulkableAction<DocumentResult>> read(GraphDatabaseAPI db) {
+            List<BulkableAction<DocumentResult>> actions = new ArrayList<>();
+            try (Transaction tx = db.beginTx()) {
+                InternalTransaction internal = (InternalTransaction) tx;
+                Read read = internal.kernelTransaction().dataRead();
+                nodes.forEach(id -> {
+                    if (read.nodeExists(id)) {
+                        Node node = internal.newNodeEntity(id);
+                        Map<IndexId, Index> index = handler.indexRequests(node);
+                        actions.addAll(index.values());
+                        if (nodeRecords.contains(id)) {
+                            actions.addAll(handler.deleteRequests(id, index.keySet()).values());
+                        }
+                    } else {
+                        actions.addAll(handler.deleteRequests(id, Collections.emptySet())
+                            .values());
+                    }
+                });
+                relationships.forEach(id -> {
+                    if (read.relationshipExists(id)) {
+                        Relationship relationship = internal.newRelationshipEntity(id);
+                        actions.addAll(handler.indexRequests(relationship).values());
+                    } else {
+                        actions.addAll(handler.relationshipDeleteRequests(id).values());
+                    }
+                });
+            }
+            return actions;
+        }
+    }
+}
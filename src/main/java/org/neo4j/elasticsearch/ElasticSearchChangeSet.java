@@ -0,0 +1,211 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The bulk items of one transaction, built in {@code beforeCommit} and queued in
+ * {@code afterCommit}. Items are kept rendered to their bulk lines on the heap until they exceed
+ * the memory budget; then all of them, and every item added after, are written to a temporary
+ * file instead. The items of a spilled change set are streamed back in chunks of at most
+ * {@link #CHUNK_BYTES}, so huge transactions neither fill the heap nor end up in one bulk.
+ * <p>
+ * The file is deleted when the change set is closed, leftovers of a crash by {@link #clean(Path)}.
+ */
+class ElasticSearchChangeSet implements Closeable {
+
+    private final static Logger logger = Logger.getLogger(
+        ElasticSearchChangeSet.class.getName());
+
+    static final long CHUNK_BYTES = 16L * 1024 * 1024;
+    private static final String PREFIX = "transaction-";
+    private static final String SUFFIX = ".spill";
+
+    /**
+     * Consumes the items of a change set chunk by chunk.
+     */
+    interface ChunkConsumer {
+
+        void accept(List<ElasticSearchBulkItem> chunk) throws IOException;
+    }
+
+    private final long memoryBudget;
+    private final Path directory;
+    private final Set<String> indexNames = new HashSet<>();
+    private List<ElasticSearchBulkItem> items = new ArrayList<>();
+    private long bytes;
+    private int size;
+    private Path file;
+    private DataOutputStream out;
+    private ByteBuffer buffer;
+    private long held = ElasticSearchBulkItem.NO_TRANSACTION;
+
+    /**
+     * @param directory where to spill to, {@code null} keeps all items on the heap
+     */
+    ElasticSearchChangeSet(long memoryBudget, Path directory) {
+        this.memoryBudget = memoryBudget;
+        this.directory = directory;
+    }
+
+    void addAll(Collection<? extends BulkableAction<?>> actions) throws IOException {
+        for (BulkableAction<?> action : actions) {
+            add(ElasticSearchBulkItem.of(action));
+        }
+    }
+
+    void add(ElasticSearchBulkItem item) throws IOException {
+        indexNames.add(item.getIndexName());
+        size++;
+        bytes += item.getLines().length;
+        if (out == null && directory != null && bytes > memoryBudget) {
+            spill();
+        }
+        if (out != null) {
+            write(item);
+        } else {
+            items.add(item);
+        }
+    }
+
+    private void spill() throws IOException {
+        Files.createDirectories(directory);
+        file = Files.createTempFile(directory, PREFIX, SUFFIX);
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        for (ElasticSearchBulkItem item : items) {
+            write(item);
+        }
+        items = null;
+    }
+
+    private void write(ElasticSearchBulkItem item) throws IOException {
+        int length = item.encodedLength();
+        if (buffer == null || buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Math.max(length, 8192));
+        }
+        buffer.clear();
+        item.writeTo(buffer);
+        out.writeInt(length);
+        out.write(buffer.array(), 0, length);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Bytes of bulk lines, on the heap or spilled.
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * The transaction id the checkpoint is held at while the transaction commits.
+     */
+    long held() {
+        return held;
+    }
+
+    void held(long transactionId) {
+        this.held = transactionId;
+    }
+
+    boolean isSpilled() {
+        return file != null;
+    }
+
+    Set<String> indexNames() {
+        return indexNames;
+    }
+
+    /**
+     * Passes the items, tagged with the committed transaction, to the consumer in order: all at
+     * once if they are on the heap, otherwise in chunks read back from the file.
+     */
+    void forEachChunk(long transactionId, ChunkConsumer consumer) throws IOException {
+        if (file == null) {
+            List<ElasticSearchBulkItem> chunk = new ArrayList<>(items.size());
+            for (ElasticSearchBulkItem item : items) {
+                chunk.add(item.withTransaction(transactionId));
+            }
+            consumer.accept(chunk);
+            return;
+        }
+        out.close();
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(file)))) {
+            List<ElasticSearchBulkItem> chunk = new ArrayList<>();
+            long chunkBytes = 0;
+            for (int i = 0; i < size; i++) {
+                byte[] encoded = new byte[in.readInt()];
+                in.readFully(encoded);
+                ElasticSearchBulkItem item = ElasticSearchBulkItem
+                    .readFrom(ByteBuffer.wrap(encoded)).withTransaction(transactionId);
+                if (!chunk.isEmpty() && chunkBytes + item.getLines().length > CHUNK_BYTES) {
+                    consumer.accept(chunk);
+                    chunk = new ArrayList<>();
+                    chunkBytes = 0;
+                }
+                chunk.add(item);
+                chunkBytes += item.getLines().length;
+            }
+            if (!chunk.isEmpty()) {
+                consumer.accept(chunk);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated transaction spill file " + file, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (file == null) {
+            return;
+        }
+        try {
+            out.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not delete transaction spill file " + file, e);
+        }
+        file = null;
+        out = null;
+    }
+
+    /**
+     * Deletes the spill files left behind when the database stopped during a commit.
+     */
+    static void clean(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+            PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
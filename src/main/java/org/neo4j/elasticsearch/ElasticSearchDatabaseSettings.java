@@ -0,0 +1,64 @@
+package org.neo4j.elasticsearch;
+
+import static org.neo4j.configuration.SettingConstraints.min;
+import static org.neo4j.configuration.SettingValueParsers.BYTES;
+import static org.neo4j.configuration.SettingValueParsers.INT;
+import static org.neo4j.configuration.SettingValueParsers.LONG;
+
+import org.neo4j.annotations.service.ServiceProvider;
+import org.neo4j.configuration.Config;
+import org.neo4j.configuration.GroupSetting;
+import org.neo4j.graphdb.config.Setting;
+
+/**
+ * Limits of one indexed database, e.g. {@code elasticsearch.database.tenant-a.max_in_flight_bulks}.
+ * Limits that are not set fall back to the global setting of the same name.
+ */
+@ServiceProvider
+public class ElasticSearchDatabaseSettings extends GroupSetting {
+
+    private static final String PREFIX = "elasticsearch.database";
+
+    public final Setting<Long> maxPendingSize = getBuilder("max_pending_size", BYTES, null)
+        .addConstraint(min(1L)).build();
+    public final Setting<Integer> maxInFlightBulks = getBuilder("max_in_flight_bulks", INT, null)
+        .addConstraint(min(1)).build();
+    public final Setting<Long> liveMaxDocsPerSecond = getBuilder("live_max_docs_per_second",
+        LONG, null).addConstraint(min(0L)).build();
+    public final Setting<Long> liveMaxBytesPerSecond = getBuilder("live_max_bytes_per_second",
+        BYTES, null).build();
+    public final Setting<Long> backgroundMaxDocsPerSecond = getBuilder(
+        "background_max_docs_per_second", LONG, null).addConstraint(min(0L)).build();
+    public final Setting<Long> backgroundMaxBytesPerSecond = getBuilder(
+        "background_max_bytes_per_second", BYTES, null).build();
+
+    public static ElasticSearchDatabaseSettings of(String database) {
+        return new ElasticSearchDatabaseSettings(database);
+    }
+
+    private ElasticSearchDatabaseSettings(String database) {
+        super(database);
+    }
+
+    /**
+     * Used by the service loader, which only needs the prefix.
+     */
+    public ElasticSearchDatabaseSettings() {
+        this("default");
+    }
+
+    @Override
+    public String getPrefix() {
+        return PREFIX;
+    }
+
+    /**
+     * The value of this database's setting, or of the global one if it is not set. The config only
+     * knows the settings of databases that have at least one of them set.
+     */
+    <T> T get(Config config, Setting<T> setting, Setting<T> global) {
+        T value = config.getGroups(ElasticSearchDatabaseSettings.class).containsKey(name())
+            ? config.get(setting) : null;
+        return value != null ? value : config.get(global);
+    }
+}
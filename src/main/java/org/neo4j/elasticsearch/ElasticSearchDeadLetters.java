@@ -0,0 +1,75 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only file of bulk items ElasticSearch rejected for good. Every line is a JSON object with
+ * the target index and id, the status and error of the last attempt, and the original bulk lines
+ * of the item, so the item can be inspected and replayed once the cause has been fixed.
+ */
+class ElasticSearchDeadLetters implements Closeable {
+
+    private final static Logger logger = Logger.getLogger(
+        ElasticSearchDeadLetters.class.getName());
+
+    private static final String FILE_NAME = "dead-letters.json";
+
+    private final Gson gson = new Gson();
+    private final Path file;
+    private final AtomicLong count = new AtomicLong();
+    private BufferedWriter writer;
+
+    ElasticSearchDeadLetters(Path directory) {
+        this.file = directory.resolve(FILE_NAME);
+    }
+
+    synchronized void add(ElasticSearchBulkItem item, int status, String error) {
+        count.incrementAndGet();
+        logger.severe("ElasticSearch rejected " + item + " with status " + status + ": " + error);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("time", Instant.now().toString());
+        json.addProperty("index", item.getIndexName());
+        json.addProperty("id", item.getId());
+        json.addProperty("status", status);
+        json.addProperty("error", error);
+        json.addProperty("lines", new String(item.getLines(), UTF_8));
+        try {
+            if (writer == null) {
+                Files.createDirectories(file.getParent());
+                writer = Files.newBufferedWriter(file, UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+            }
+            writer.write(gson.toJson(json));
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not write ElasticSearch dead letter to " + file, e);
+        }
+    }
+
+    long count() {
+        return count.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
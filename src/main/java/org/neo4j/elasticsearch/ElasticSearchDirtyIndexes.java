@@ -0,0 +1,99 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Indexes that lost changes, e.g. dropped by the {@code DROP} backpressure policy, and need to be
+ * reindexed. As the transaction checkpoint moves past dropped changes, the names are kept in a
+ * file next to it, one per line, so they are still known after a restart.
+ */
+class ElasticSearchDirtyIndexes {
+
+    private final static Logger logger = Logger.getLogger(
+        ElasticSearchDirtyIndexes.class.getName());
+
+    private static final String FILE_NAME = "dirty-indexes";
+
+    private final Path file;
+    private final Set<String> names = new TreeSet<>();
+    private boolean written = true;
+
+    /**
+     * Keeps the names in memory only.
+     */
+    ElasticSearchDirtyIndexes() {
+        this.file = null;
+    }
+
+    ElasticSearchDirtyIndexes(Path directory) throws IOException {
+        this.file = directory.resolve(FILE_NAME);
+        try {
+            for (String name : Files.readAllLines(file, UTF_8)) {
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // nothing was dropped
+        }
+        if (!names.isEmpty()) {
+            logger.severe("ElasticSearch indexes " + names
+                + " lost changes before the last restart and need to be reindexed");
+        }
+    }
+
+    /**
+     * Marks the indexes dirty and returns whether this was recorded durably; if not, the dropped
+     * changes must not be passed by the checkpoint, so they are replayed after a restart.
+     */
+    synchronized boolean mark(Collection<String> indexNames) {
+        if (names.addAll(indexNames) || !written) {
+            return write();
+        }
+        return true;
+    }
+
+    synchronized void clear(String indexName) {
+        if (names.remove(indexName)) {
+            write();
+        }
+    }
+
+    synchronized Set<String> names() {
+        return Collections.unmodifiableSet(new TreeSet<>(names));
+    }
+
+    synchronized long count() {
+        return names.size();
+    }
+
+    private boolean write() {
+        if (file == null) {
+            return true;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+            Files.write(temp, names, UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            written = true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not write ElasticSearch dirty indexes " + file, e);
+            written = false;
+        }
+        return written;
+    }
+}
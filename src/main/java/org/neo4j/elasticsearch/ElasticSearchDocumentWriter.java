@@ -0,0 +1,497 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.lang.reflect.Array;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalAmount;
+import java.util.Arrays;
+import org.neo4j.graphdb.spatial.Point;
+
+/**
+ * Streaming JSON writer for ElasticSearch documents and bulk lines. Values are encoded straight
+ * into a growable byte buffer, without building maps or going through reflective serialization.
+ * <p>
+ * Every thread reuses one writer obtained from {@link #acquire()}, so the buffer is only
+ * allocated once per thread and grows to the largest document written. The writer is not
+ * reentrant: the result has to be copied out with {@link #toByteArray()} or {@link #toString()}
+ * before the next {@code acquire()} on the same thread.
+ * <p>
+ * After {@link #recordDigests()} the writer also records a digest of every field it writes to the
+ * current object, name and encoded value, which {@link #digests(byte[])} appends as an object of
+ * the same field names. The digests are small non-negative numbers, so ElasticSearch can sum them
+ * exactly, and as each field has its own, a partial update replaces the digests of just the
+ * fields it changes.
+ */
+final class ElasticSearchDocumentWriter {
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    /**
+     * Buffers that grew beyond this are dropped after use instead of being kept by the thread.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] HEX = "0123456789abcdef".getBytes(UTF_8);
+
+    private static final ThreadLocal<ElasticSearchDocumentWriter> writers =
+        ThreadLocal.withInitial(ElasticSearchDocumentWriter::new);
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+    private boolean first = true;
+    private int depth;
+
+    // digested fields by their start, the end of their name and their end in the buffer
+    private boolean recording;
+    private int recordingDepth;
+    private int[] fieldStarts = new int[16];
+    private int[] nameEnds = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fields;
+    private long digestSum;
+
+    private ElasticSearchDocumentWriter() {
+    }
+
+    static ElasticSearchDocumentWriter acquire() {
+        ElasticSearchDocumentWriter writer = writers.get();
+        if (writer.buffer.length > MAX_RETAINED_CAPACITY) {
+            writer.buffer = new byte[INITIAL_CAPACITY];
+        }
+        writer.size = 0;
+        writer.first = true;
+        writer.depth = 0;
+        writer.recording = false;
+        writer.fields = 0;
+        writer.digestSum = 0;
+        return writer;
+    }
+
+    /**
+     * The quoted and escaped field name followed by the colon, for {@link #field(byte[])}.
+     */
+    static byte[] encodeFieldName(String name) {
+        ElasticSearchDocumentWriter writer = new ElasticSearchDocumentWriter();
+        writer.string(name);
+        writer.put((byte) ':');
+        return writer.toByteArray();
+    }
+
+    ElasticSearchDocumentWriter beginObject() {
+        separator();
+        put((byte) '{');
+        first = true;
+        depth++;
+        return this;
+    }
+
+    ElasticSearchDocumentWriter endObject() {
+        put((byte) '}');
+        first = false;
+        depth--;
+        return this;
+    }
+
+    ElasticSearchDocumentWriter beginArray() {
+        separator();
+        put((byte) '[');
+        first = true;
+        depth++;
+        return this;
+    }
+
+    ElasticSearchDocumentWriter endArray() {
+        put((byte) ']');
+        first = false;
+        depth--;
+        return this;
+    }
+
+    /**
+     * Records the digests of the fields written to the current object from now on.
+     */
+    ElasticSearchDocumentWriter recordDigests() {
+        recording = true;
+        recordingDepth = depth;
+        fields = 0;
+        digestSum = 0;
+        return this;
+    }
+
+    /**
+     * Appends the recorded digests as a field of the current object, {@code null} for fields with
+     * a {@code null} value, and stops recording.
+     */
+    ElasticSearchDocumentWriter digests(byte[] encodedName) {
+        endField();
+        recording = false;
+        int count = fields;
+        field(encodedName).beginObject();
+        for (int i = 0; i < count; i++) {
+            separator();
+            put(buffer, fieldStarts[i], nameEnds[i] - fieldStarts[i]);
+            first = true;
+            if (isNull(nameEnds[i], fieldEnds[i])) {
+                value((String) null);
+            } else {
+                long digest = digest(fieldStarts[i], fieldEnds[i]);
+                digestSum += digest;
+                value(digest);
+            }
+        }
+        return endObject();
+    }
+
+    /**
+     * The sum of the digests appended by {@link #digests(byte[])}.
+     */
+    long digestSum() {
+        return digestSum;
+    }
+
+    private void startField(int start, int nameEnd) {
+        if (fields == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fields * 2);
+            nameEnds = Arrays.copyOf(nameEnds, fields * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fields * 2);
+        }
+        fieldStarts[fields] = start;
+        nameEnds[fields] = nameEnd;
+        fieldEnds[fields++] = -1;
+    }
+
+    private void endField() {
+        if (fields > 0 && fieldEnds[fields - 1] == -1) {
+            fieldEnds[fields - 1] = size;
+        }
+    }
+
+    private boolean isNull(int start, int end) {
+        return end - start == NULL.length && buffer[start] == 'n'
+            && Arrays.equals(buffer, start, end, NULL, 0, NULL.length);
+    }
+
+    /**
+     * FNV-1a of the field, finished with the murmur3 mixer and cut to 31 bits.
+     */
+    private long digest(int start, int end) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= buffer[i];
+            hash *= 0x100000001B3L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return (hash ^ (hash >>> 33)) & 0x7FFFFFFFL;
+    }
+
+    /**
+     * Starts a field with a name encoded by {@link #encodeFieldName(String)}, the next value
+     * written is its value.
+     */
+    ElasticSearchDocumentWriter field(byte[] encodedName) {
+        boolean digested = recording && depth == recordingDepth;
+        if (digested) {
+            endField();
+        }
+        separator();
+        int start = size;
+        put(encodedName, 0, encodedName.length);
+        if (digested) {
+            startField(start, size);
+        }
+        first = true;
+        return this;
+    }
+
+    ElasticSearchDocumentWriter field(String name) {
+        boolean digested = recording && depth == recordingDepth;
+        if (digested) {
+            endField();
+        }
+        separator();
+        int start = size;
+        string(name);
+        put((byte) ':');
+        if (digested) {
+            startField(start, size);
+        }
+        first = true;
+        return this;
+    }
+
+    ElasticSearchDocumentWriter newLine() {
+        put((byte) '\n');
+        first = true;
+        return this;
+    }
+
+    /**
+     * Appends already encoded JSON, e.g. a document rendered before, as the next value.
+     */
+    ElasticSearchDocumentWriter raw(String json) {
+        separator();
+        first = false;
+        // the document is mostly ASCII, so encode it without an intermediate byte array
+        string(json, false);
+        return this;
+    }
+
+    /**
+     * Appends already encoded JSON bytes as the next value.
+     */
+    ElasticSearchDocumentWriter raw(byte[] json) {
+        separator();
+        first = false;
+        put(json, 0, json.length);
+        return this;
+    }
+
+    ElasticSearchDocumentWriter value(String value) {
+        separator();
+        if (value == null) {
+            put(NULL, 0, NULL.length);
+        } else {
+            string(value);
+        }
+        first = false;
+        return this;
+    }
+
+    ElasticSearchDocumentWriter value(long value) {
+        separator();
+        ensureCapacity(20);
+        if (value == Long.MIN_VALUE) {
+            ascii(Long.toString(value));
+        } else {
+            if (value < 0) {
+                buffer[size++] = '-';
+                value = -value;
+            }
+            int start = size;
+            do {
+                buffer[size++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            for (int i = start, j = size - 1; i < j; i++, j--) {
+                byte b = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = b;
+            }
+        }
+        first = false;
+        return this;
+    }
+
+    ElasticSearchDocumentWriter value(double value) {
+        separator();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            put(NULL, 0, NULL.length);
+        } else if (value == (long) value && Math.abs(value) < 1e15) {
+            ascii(Long.toString((long) value));
+            ascii(".0");
+        } else {
+            ascii(Double.toString(value));
+        }
+        first = false;
+        return this;
+    }
+
+    ElasticSearchDocumentWriter value(boolean value) {
+        separator();
+        byte[] literal = value ? TRUE : FALSE;
+        put(literal, 0, literal.length);
+        first = false;
+        return this;
+    }
+
+    /**
+     * Writes any Neo4j property value: numbers, booleans, strings and chars, their arrays,
+     * temporal values as ISO-8601 strings and points as coordinate arrays.
+     */
+    ElasticSearchDocumentWriter value(Object value) {
+        if (value == null) {
+            return value((String) null);
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+            || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            return value(((Double) value).doubleValue());
+        } else if (value instanceof Float) {
+            return value(Double.parseDouble(value.toString()));
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof Character) {
+            return value(value.toString());
+        } else if (value instanceof TemporalAccessor || value instanceof TemporalAmount) {
+            return value(value.toString());
+        } else if (value instanceof Point) {
+            return array(((Point) value).getCoordinate().getCoordinate().toArray(new Double[0]));
+        } else if (value instanceof long[]) {
+            beginArray();
+            for (long element : (long[]) value) {
+                value(element);
+            }
+            return endArray();
+        } else if (value instanceof int[]) {
+            beginArray();
+            for (int element : (int[]) value) {
+                value(element);
+            }
+            return endArray();
+        } else if (value instanceof double[]) {
+            beginArray();
+            for (double element : (double[]) value) {
+                value(element);
+            }
+            return endArray();
+        } else if (value instanceof String[]) {
+            beginArray();
+            for (String element : (String[]) value) {
+                value(element);
+            }
+            return endArray();
+        } else if (value instanceof Object[]) {
+            return array((Object[]) value);
+        } else if (value instanceof Iterable) {
+            beginArray();
+            for (Object element : (Iterable<?>) value) {
+                value(element);
+            }
+            return endArray();
+        } else if (value.getClass().isArray()) {
+            // short[], byte[], float[], boolean[] and char[]
+            beginArray();
+            for (int i = 0, length = Array.getLength(value); i < length; i++) {
+                value(Array.get(value, i));
+            }
+            return endArray();
+        }
+        return value(value.toString());
+    }
+
+    private ElasticSearchDocumentWriter array(Object[] values) {
+        beginArray();
+        for (Object element : values) {
+            value(element);
+        }
+        return endArray();
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, size, UTF_8);
+    }
+
+    private void separator() {
+        if (!first) {
+            put((byte) ',');
+        }
+    }
+
+    private void string(String value) {
+        string(value, true);
+    }
+
+    /**
+     * Encodes the string as UTF-8, quoted and escaped or verbatim.
+     */
+    private void string(String value, boolean quote) {
+        int length = value.length();
+        // worst case is a \\u escape for every char plus the quotes
+        ensureCapacity(length * 6 + 2);
+        byte[] b = buffer;
+        int pos = size;
+        if (quote) {
+            b[pos++] = '"';
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (!quote) {
+                    b[pos++] = (byte) c;
+                } else if (c == '"' || c == '\\') {
+                    b[pos++] = '\\';
+                    b[pos++] = (byte) c;
+                } else if (c >= 0x20) {
+                    b[pos++] = (byte) c;
+                } else if (c == '\n') {
+                    b[pos++] = '\\';
+                    b[pos++] = 'n';
+                } else if (c == '\r') {
+                    b[pos++] = '\\';
+                    b[pos++] = 'r';
+                } else if (c == '\t') {
+                    b[pos++] = '\\';
+                    b[pos++] = 't';
+                } else {
+                    b[pos++] = '\\';
+                    b[pos++] = 'u';
+                    b[pos++] = '0';
+                    b[pos++] = '0';
+                    b[pos++] = HEX[c >> 4];
+                    b[pos++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x800) {
+                b[pos++] = (byte) (0xC0 | (c >> 6));
+                b[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                b[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                b[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                b[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                b[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                b[pos++] = '?';
+            } else {
+                b[pos++] = (byte) (0xE0 | (c >> 12));
+                b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        if (quote) {
+            b[pos++] = '"';
+        }
+        size = pos;
+    }
+
+    private void ascii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void put(byte b) {
+        ensureCapacity(1);
+        buffer[size++] = b;
+    }
+
+    private void put(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+}
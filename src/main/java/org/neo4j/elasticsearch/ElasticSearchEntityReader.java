@@ -0,0 +1,69 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.internal.kernel.api.EntityCursor;
+import org.neo4j.internal.kernel.api.PropertyCursor;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.storageengine.api.PropertySelection;
+
+/**
+ * Reads an entity and its properties through kernel cursors of the entity's transaction, as token
+ * ids and values instead of resolving names. Cursors are pooled by the transaction, so a reader is
+ * cheap to open for every entity.
+ */
+abstract class ElasticSearchEntityReader<C extends EntityCursor> implements AutoCloseable {
+
+    final KernelTransaction ktx;
+    final C cursor;
+    final boolean exists;
+    private PropertyCursor propertyCursor;
+
+    ElasticSearchEntityReader(KernelTransaction ktx, C cursor, boolean exists) {
+        this.ktx = ktx;
+        this.cursor = cursor;
+        this.exists = exists;
+    }
+
+    TokenRead tokenRead() {
+        return ktx.tokenRead();
+    }
+
+    /**
+     * Whether the entity is visible, i.e. was not deleted in this transaction.
+     */
+    boolean exists() {
+        return exists;
+    }
+
+    /**
+     * Positions the property cursor on the selected properties of the entity, iterate them with
+     * {@link #nextProperty()}.
+     */
+    void properties(PropertySelection selection) {
+        if (propertyCursor == null) {
+            propertyCursor = ktx.cursors().allocatePropertyCursor(ktx.cursorContext(),
+                ktx.memoryTracker());
+        }
+        cursor.properties(propertyCursor, selection);
+    }
+
+    boolean nextProperty() {
+        return propertyCursor.next();
+    }
+
+    int propertyKey() {
+        return propertyCursor.propertyKey();
+    }
+
+    Object propertyValue() {
+        return propertyCursor.propertyValue().asObjectCopy();
+    }
+
+    @Override
+    public void close() {
+        if (propertyCursor != null) {
+            propertyCursor.close();
+        }
+        cursor.close();
+    }
+}
@@ -2,100 +2,313 @@ package org.neo4j.elasticsearch;
 
 import io.searchbox.action.BulkableAction;
 import io.searchbox.core.DocumentResult;
-import java.util.Collection;
-import java.util.Collections;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
 import org.neo4j.elasticsearch.ElasticSearchHandler.IndexId;
+import org.neo4j.graphdb.Entity;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.event.LabelEntry;
 import org.neo4j.graphdb.event.PropertyEntry;
 import org.neo4j.graphdb.event.TransactionData;
 import org.neo4j.graphdb.event.TransactionEventListener;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.storageengine.api.TransactionIdStore;
+import org.neo4j.values.storable.Values;
 
 /**
+ * Renders the changes of a transaction into an {@link ElasticSearchChangeSet} before it commits
+ * and queues them once it committed. Change sets larger than the memory budget are spilled to the
+ * spill directory.
+ * <p>
+ * The changes are first folded into one entry per touched node and relationship, holding its id,
+ * a few flags and the keys of its changed indexed properties but no values, so that every
+ * document is rendered once. Only the rendered documents count against the memory budget; the
+ * entries cost a few dozen bytes per touched entity on top of what Neo4j keeps for the
+ * transaction anyway.
+ *
  * @author mh
  * @since 25.04.15
  */
-class ElasticSearchEventListener implements
-    TransactionEventListener<Collection<BulkableAction<DocumentResult>>> {
+class ElasticSearchEventListener implements TransactionEventListener<ElasticSearchChangeSet> {
 
     private final static Logger logger = Logger.getLogger(
         ElasticSearchEventListener.class.getName());
 
     private final ElasticSearchHandler handler;
+    private final long memoryBudget;
+    private final Path spillDirectory;
+    private final LongAdder spilledTransactions = new LongAdder();
+    private final LongAdder spilledBytes = new LongAdder();
+    private volatile TransactionIdStore transactionIds;
 
     public ElasticSearchEventListener(ElasticSearchHandler handler) {
+        this(handler, Long.MAX_VALUE, null);
+    }
+
+    ElasticSearchEventListener(ElasticSearchHandler handler, long memoryBudget,
+        Path spillDirectory) {
         this.handler = handler;
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+    }
+
+    void register(ElasticSearchMetrics metrics) {
+        metrics.gauge("transactions.spilled", spilledTransactions::sum);
+        metrics.gauge("transactions.spilledBytes", spilledBytes::sum);
     }
 
     @Override
-    public Collection<BulkableAction<DocumentResult>> beforeCommit(
+    public ElasticSearchChangeSet beforeCommit(
         TransactionData data,
         Transaction transaction,
         GraphDatabaseService databaseService
     ) throws Exception {
-        Map<IndexId, BulkableAction<DocumentResult>> actions = new HashMap<>(1000);
+        ElasticSearchChangeSet changeSet = new ElasticSearchChangeSet(memoryBudget,
+            spillDirectory);
+        try {
+            collect(data, transaction, changeSet);
+        } catch (Exception | Error e) {
+            changeSet.close();
+            throw e;
+        }
+        if (changeSet.isSpilled()) {
+            spilledTransactions.increment();
+            spilledBytes.add(changeSet.bytes());
+        }
+        if (!changeSet.isEmpty()) {
+            handler.invalidateSearches(changeSet.indexNames());
+        }
+        // the transaction gets an id after the last committed one
+        changeSet.held(transactionIds(databaseService).getLastCommittedTransactionId() + 1);
+        handler.hold(changeSet.held());
+        return changeSet;
+    }
 
-        for (Node node : data.createdNodes()) {
-            if (handler.hasLabel(node)) {
-                actions.putAll(handler.indexRequests(node));
+    private TransactionIdStore transactionIds(GraphDatabaseService databaseService) {
+        if (transactionIds == null) {
+            transactionIds = ((GraphDatabaseAPI) databaseService).getDependencyResolver()
+                .resolveDependency(TransactionIdStore.class);
+        }
+        return transactionIds;
+    }
+
+    private void collect(TransactionData data, Transaction transaction,
+        ElasticSearchChangeSet changeSet) throws IOException {
+        LongObjectHashMap<NodeChange> changes = collectChanges(data);
+        LongObjectHashMap<RelationshipChange> relationshipChanges =
+            handler.hasRelationshipIndexes() ? collectRelationshipChanges(data)
+                : new LongObjectHashMap<>();
+
+        // the actions of one node or relationship, a later one replaces an earlier one
+        Map<IndexId, BulkableAction<DocumentResult>> actions = new HashMap<>();
+        for (NodeChange change : changes) {
+            actions.clear();
+            for (Label label : change.removedLabels) {
+                actions.putAll(handler.deleteRequests(change.id, label));
             }
+            Node node = !change.deleted && change.touchesDocument()
+                ? transaction.getNodeById(change.id) : null;
+            if (node != null && handler.hasLabel(node)) {
+                if (change.created || change.labelsAdded) {
+                    actions.putAll(handler.indexRequests(node));
+                } else if (!handler.isPartialUpdates()) {
+                    actions.putAll(handler.indexRequests(node, change.keys));
+                } else {
+                    actions.putAll(handler.partialUpdateRequests(node, values(node, change.keys)));
+                }
+            }
+            changeSet.addAll(actions.values());
+        }
+        for (RelationshipChange change : relationshipChanges) {
+            if (change.deleted) {
+                changeSet.addAll(handler.deleteRequests(change.id, change.type).values());
+                continue;
+            }
+            Relationship relationship = transaction.getRelationshipById(change.id);
+            if (change.created) {
+                changeSet.addAll(handler.indexRequests(relationship).values());
+            } else if (!handler.isPartialUpdates()) {
+                changeSet.addAll(handler.indexRequests(relationship, change.keys).values());
+            } else {
+                changeSet.addAll(handler.partialUpdateRequests(relationship,
+                    values(relationship, change.keys)).values());
+            }
+        }
+    }
+
+    /**
+     * The values of the changed properties as they are committed, {@code null} for removed ones.
+     */
+    private static Map<String, Object> values(Entity entity, Set<String> keys) {
+        Map<String, Object> values = new HashMap<>();
+        for (String key : keys) {
+            values.put(key, entity.getProperty(key, null));
+        }
+        return values;
+    }
+
+    /**
+     * Folds the entries of the transaction into one net change per node, so that every document
+     * is built at most once no matter how many of its properties and labels changed. Only ids,
+     * flags and the keys of changed properties are kept, the documents are rendered from the
+     * transaction afterwards.
+     */
+    private LongObjectHashMap<NodeChange> collectChanges(TransactionData data) {
+        LongObjectHashMap<NodeChange> changes = new LongObjectHashMap<>();
+        for (Node node : data.createdNodes()) {
+            change(changes, node).created = true;
+        }
+        for (Node node : data.deletedNodes()) {
+            change(changes, node).deleted = true;
         }
         for (LabelEntry labelEntry : data.assignedLabels()) {
             if (handler.hasLabel(labelEntry)) {
-                if (data.isDeleted(labelEntry.node())) {
-                    actions.putAll(handler.deleteRequests(labelEntry.node()));
-                } else {
-                    actions.putAll(handler.indexRequests(labelEntry.node()));
-                }
+                change(changes, labelEntry.node()).labelsAdded = true;
             }
         }
         for (LabelEntry labelEntry : data.removedLabels()) {
             if (handler.hasLabel(labelEntry)) {
-                actions.putAll(handler.deleteRequests(labelEntry.node(), labelEntry.label()));
+                change(changes, labelEntry.node()).removedLabels.add(labelEntry.label());
             }
         }
         for (PropertyEntry<Node> propEntry : data.assignedNodeProperties()) {
-            if (handler.hasLabel(propEntry)) {
-                actions.putAll(handler.indexRequests(propEntry.entity()));
+            if (handler.isIndexedProperty(propEntry.key()) && isChanged(propEntry)) {
+                change(changes, propEntry.entity()).keys.add(propEntry.key());
             }
         }
         for (PropertyEntry<Node> propEntry : data.removedNodeProperties()) {
-            if (!data.isDeleted(propEntry.entity()) && handler.hasLabel(propEntry)) {
-                actions.putAll(handler.updateRequests(propEntry.entity()));
+            if (handler.isIndexedProperty(propEntry.key())) {
+                change(changes, propEntry.entity()).keys.add(propEntry.key());
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Whether the assigned value differs from the committed one. Values are compared like Neo4j
+     * compares them, so {@code 1} and {@code 1L} or equal arrays count as unchanged.
+     */
+    private static boolean isChanged(PropertyEntry<?> propEntry) {
+        Object previous = propEntry.previouslyCommittedValue();
+        return previous == null
+            || !Values.of(previous).equals(Values.of(propEntry.value()));
+    }
+
+    private static NodeChange change(LongObjectHashMap<NodeChange> changes, Node node) {
+        return changes.getIfAbsentPutWithKey(node.getId(), NodeChange::new);
+    }
+
+    private LongObjectHashMap<RelationshipChange> collectRelationshipChanges(
+        TransactionData data) {
+        LongObjectHashMap<RelationshipChange> changes = new LongObjectHashMap<>();
+        for (Relationship relationship : data.createdRelationships()) {
+            change(changes, relationship).created = true;
+        }
+        for (Relationship relationship : data.deletedRelationships()) {
+            RelationshipChange change = change(changes, relationship);
+            change.deleted = true;
+            change.type = relationship.getType().name();
+        }
+        for (PropertyEntry<Relationship> propEntry : data.assignedRelationshipProperties()) {
+            if (handler.isIndexedRelationshipProperty(propEntry.key())
+                && isChanged(propEntry)) {
+                change(changes, propEntry.entity()).keys.add(propEntry.key());
             }
         }
-        return actions.isEmpty() ? Collections.emptyList() : actions.values();
+        for (PropertyEntry<Relationship> propEntry : data.removedRelationshipProperties()) {
+            if (handler.isIndexedRelationshipProperty(propEntry.key())) {
+                change(changes, propEntry.entity()).keys.add(propEntry.key());
+            }
+        }
+        return changes;
+    }
+
+    private static RelationshipChange change(LongObjectHashMap<RelationshipChange> changes,
+        Relationship relationship) {
+        return changes.getIfAbsentPutWithKey(relationship.getId(), RelationshipChange::new);
     }
 
     @Override
     public void afterCommit(
         TransactionData data,
-        Collection<BulkableAction<DocumentResult>> actions,
+        ElasticSearchChangeSet changeSet,
         GraphDatabaseService databaseService
     ) {
-        if (actions.isEmpty()) {
-            return;
-        }
         try {
-            handler.execute(actions);
+            if (changeSet.isEmpty()) {
+                handler.committed(data.getTransactionId(), 0);
+            } else {
+                handler.execute(changeSet, data.getTransactionId());
+            }
         } catch (Exception e) {
             logger.log(Level.WARNING, "Error updating ElasticSearch ", e);
+        } finally {
+            handler.release(changeSet.held());
+            changeSet.close();
         }
     }
 
     @Override
     public void afterRollback(
         TransactionData data,
-        Collection<BulkableAction<DocumentResult>> actions,
+        ElasticSearchChangeSet changeSet,
         GraphDatabaseService databaseService
     ) {
+        if (changeSet != null) {
+            handler.release(changeSet.held());
+            changeSet.close();
+        }
+    }
+
+    /**
+     * The net change of one node in a transaction. Created nodes and nodes that gained an
+     * indexed label are indexed completely, otherwise only the changed indexed properties
+     * matter.
+     */
+    private static class NodeChange {
+
+        final long id;
+        boolean created, deleted, labelsAdded;
+        final List<Label> removedLabels = new ArrayList<>(0);
+        final Set<String> keys = new HashSet<>(4);
 
+        NodeChange(long id) {
+            this.id = id;
+        }
+
+        boolean touchesDocument() {
+            return created || labelsAdded || !keys.isEmpty();
+        }
     }
 
+    /**
+     * The net change of one relationship in a transaction. The type of a relationship never
+     * changes, so it is either created, deleted or has changed properties. The type of deleted
+     * relationships is kept, as they cannot be read from the transaction any more.
+     */
+    private static class RelationshipChange {
+
+        final long id;
+        boolean created, deleted;
+        String type;
+        final Set<String> keys = new HashSet<>(4);
+
+        RelationshipChange(long id) {
+            this.id = id;
+        }
+    }
 }
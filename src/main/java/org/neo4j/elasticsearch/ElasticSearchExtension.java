@@ -2,11 +2,22 @@ package org.neo4j.elasticsearch;
 
 import io.searchbox.client.JestClient;
 import io.searchbox.client.JestClientFactory;
+import io.searchbox.client.config.HttpClientConfig;
+import io.searchbox.client.config.discovery.NodeChecker;
+import io.searchbox.client.http.JestHttpClient;
+import java.nio.file.Path;
 import java.text.ParseException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
+import org.neo4j.configuration.Config;
+import org.neo4j.configuration.GraphDatabaseSettings;
 import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.elasticsearch.ElasticSearchSettings.BackpressurePolicy;
+import org.neo4j.graphdb.config.Setting;
 import org.neo4j.kernel.lifecycle.LifecycleAdapter;
 
 /**
@@ -16,43 +27,105 @@ import org.neo4j.kernel.lifecycle.LifecycleAdapter;
 public class ElasticSearchExtension extends LifecycleAdapter {
 
     private final DatabaseManagementService dms;
+    private final Config config;
     private final static Logger logger = Logger.getLogger(ElasticSearchExtension.class.getName());
     private final String hostName;
     private boolean enabled = true;
     private boolean enableAutoIndex = true;
     private final boolean discovery;
-    private ElasticSearchHandler handler;
-    private ElasticSearchEventListener listener;
+    private final boolean outboxEnabled;
+    private final Path outboxDir;
+    private final long outboxSegmentSize;
+    private final boolean outboxForce;
+    private final int bulkMaxActions;
+    private final long bulkMaxSize;
+    private final Duration bulkLinger;
+    private final long bulkMinSize;
+    private final Duration bulkLatencyGoal;
+    private final long transactionMemoryBudget;
+    private final BackpressurePolicy backpressurePolicy;
+    private final ElasticSearchRetryPolicy retryPolicy;
+    private final ElasticSearchRequestCompression compression;
+    private final ElasticSearchBufferPool bufferPool;
+    private final int hostFailureThreshold;
+    private final Duration hostOpenTime;
+    private final boolean catchUpEnabled;
+    private final boolean reconcileEnabled;
+    private final int reconcileRate;
+    private final Duration reconcileInterval;
+    private final Map<String, ElasticSearchIndexSettings> indexSettings = new LinkedHashMap<>();
+    private final List<DatabasePipeline> pipelines = new ArrayList<>();
+    private ElasticSearchHostSelector hostSelector;
     private JestClient client;
-    private ElasticSearchIndexSettings indexSettings;
 
-    public ElasticSearchExtension(
-        DatabaseManagementService dms,
-        String hostName,
-        String indexSpec,
-        Boolean discovery,
-        Boolean includeIDField,
-        Boolean includeLabelsField,
-        Boolean enabledAutoIndex
-    ) {
+    public ElasticSearchExtension(DatabaseManagementService dms, Config config) {
+        String indexSpec = config.get(ElasticSearchSettings.indexSpec);
+        String defaultDatabase = config.get(GraphDatabaseSettings.default_database);
         try {
-            Map<String, List<ElasticSearchIndexSpec>> iSpec = ElasticSearchIndexSpecParser.parseIndexSpec(
-                indexSpec);
-            if (iSpec.size() == 0) {
+            for (String database : ElasticSearchIndexSpecParser.parseDatabases(indexSpec,
+                defaultDatabase)) {
+                ElasticSearchIndexSettings settings = new ElasticSearchIndexSettings(
+                    ElasticSearchIndexSpecParser.parseIndexSpec(indexSpec, database,
+                        defaultDatabase),
+                    config.get(ElasticSearchSettings.includeIDField),
+                    config.get(ElasticSearchSettings.includeLabelsField));
+                settings.setRelationshipIndexSpec(ElasticSearchIndexSpecParser
+                    .parseRelationshipIndexSpec(indexSpec, database, defaultDatabase));
+                settings.setPartialUpdates(config.get(ElasticSearchSettings.partialUpdates));
+                // the reconciler compares the digests stored with the documents
+                settings.setDigests(config.get(ElasticSearchSettings.reconcileEnabled));
+                settings.setSearchCacheSize(config.get(ElasticSearchSettings.searchCacheSize));
+                settings.setSearchCacheTtl(config.get(ElasticSearchSettings.searchCacheTtl));
+                indexSettings.put(database, settings);
+            }
+            if (indexSettings.isEmpty()) {
                 logger.severe("ElasticSearch Integration: syntax error in index_spec");
                 enabled = false;
             }
-            this.indexSettings = new ElasticSearchIndexSettings(iSpec, includeIDField,
-                includeLabelsField);
         } catch (ParseException e) {
             logger.severe("ElasticSearch Integration: Can't define index twice");
             enabled = false;
         }
-        logger.info("Elasticsearch Integration: Running " + hostName + " - " + indexSpec);
         this.dms = dms;
-        this.hostName = hostName;
-        this.discovery = discovery;
-        this.enableAutoIndex = enabledAutoIndex;
+        this.config = config;
+        this.hostName = config.get(ElasticSearchSettings.hostName);
+        this.discovery = config.get(ElasticSearchSettings.discovery);
+        this.enableAutoIndex = config.get(ElasticSearchSettings.enableAutoIndex);
+        this.outboxEnabled = config.get(ElasticSearchSettings.outboxEnabled);
+        this.outboxDir = config.get(ElasticSearchSettings.outboxDir);
+        this.outboxSegmentSize = config.get(ElasticSearchSettings.outboxSegmentSize);
+        this.outboxForce = config.get(ElasticSearchSettings.outboxForce);
+        this.bulkMaxActions = config.get(ElasticSearchSettings.bulkMaxActions);
+        this.bulkMaxSize = config.get(ElasticSearchSettings.bulkMaxSize);
+        this.bulkLinger = config.get(ElasticSearchSettings.bulkLinger);
+        this.bulkMinSize = config.get(ElasticSearchSettings.bulkAdaptive)
+            ? config.get(ElasticSearchSettings.bulkMinSize) : bulkMaxSize;
+        this.bulkLatencyGoal = config.get(ElasticSearchSettings.bulkLatencyGoal);
+        this.transactionMemoryBudget =
+            config.get(ElasticSearchSettings.transactionMemoryBudget);
+        this.backpressurePolicy = config.get(ElasticSearchSettings.backpressurePolicy);
+        this.retryPolicy = new ElasticSearchRetryPolicy(
+            config.get(ElasticSearchSettings.retryInitialBackoff),
+            config.get(ElasticSearchSettings.retryMaxBackoff),
+            config.get(ElasticSearchSettings.retryMaxAttempts));
+        this.hostFailureThreshold = config.get(ElasticSearchSettings.hostFailureThreshold);
+        this.hostOpenTime = config.get(ElasticSearchSettings.hostOpenTime);
+        int bufferSize = config.get(ElasticSearchSettings.bulkBufferSize).intValue();
+        int bufferPoolSize = config.get(ElasticSearchSettings.bulkBufferPoolSize);
+        this.bufferPool = bufferPoolSize > 0
+            ? new ElasticSearchBufferPool(bufferSize, bufferPoolSize) : null;
+        // without a pool compressed bodies still go into buffers, allocated per request
+        this.compression = config.get(ElasticSearchSettings.bulkCompression)
+            ? new ElasticSearchRequestCompression(
+                config.get(ElasticSearchSettings.bulkCompressionLevel),
+                config.get(ElasticSearchSettings.bulkCompressionThreshold),
+                bufferPool != null ? bufferPool : new ElasticSearchBufferPool(bufferSize, 0))
+            : null;
+        this.catchUpEnabled = config.get(ElasticSearchSettings.catchUpEnabled);
+        this.reconcileEnabled = config.get(ElasticSearchSettings.reconcileEnabled);
+        this.reconcileRate = config.get(ElasticSearchSettings.reconcileRate);
+        this.reconcileInterval = config.get(ElasticSearchSettings.reconcileInterval);
+        logger.info("Elasticsearch Integration: Running " + hostName + " - " + indexSpec);
     }
 
     @Override
@@ -62,10 +135,10 @@ public class ElasticSearchExtension extends LifecycleAdapter {
         }
 
         client = getJestClient(hostName, discovery);
-        handler = ElasticSearchHandler.newInstance(client, indexSettings);
-        if (enableAutoIndex) {
-            listener = new ElasticSearchEventListener(handler);
-            dms.registerTransactionEventListener("neo4j", listener);
+        for (Map.Entry<String, ElasticSearchIndexSettings> entry : indexSettings.entrySet()) {
+            DatabasePipeline pipeline = new DatabasePipeline(entry.getKey(), entry.getValue());
+            pipelines.add(pipeline);
+            pipeline.start();
         }
         logger.info("Connecting to ElasticSearch");
     }
@@ -75,17 +148,189 @@ public class ElasticSearchExtension extends LifecycleAdapter {
         if (!enabled) {
             return;
         }
-        if (enableAutoIndex) {
-            dms.unregisterTransactionEventListener("neo4j", listener);
+        for (DatabasePipeline pipeline : pipelines) {
+            pipeline.stop();
         }
+        pipelines.clear();
         client.close();
         logger.info("Disconnected from ElasticSearch");
     }
 
+    /**
+     * The factory builds the HTTP clients, the returned client balances over the configured and
+     * discovered nodes using them.
+     */
     private JestClient getJestClient(final String hostName, final Boolean discovery)
         throws Exception {
-        JestClientFactory factory = new JestClientFactory();
-        factory.setHttpClientConfig(JestDefaultHttpConfigFactory.getConfigFor(hostName, discovery));
-        return factory.getObject();
+        HttpClientConfig config = JestDefaultHttpConfigFactory.getConfigFor(hostName, discovery);
+        hostSelector = new ElasticSearchHostSelector(config.getServerList(),
+            hostFailureThreshold, hostOpenTime);
+        ElasticSearchBalancedClient balanced = new ElasticSearchBalancedClient(hostSelector,
+            bufferPool, compression);
+        JestClientFactory factory = new JestClientFactory() {
+            @Override
+            protected NodeChecker createNodeChecker(JestHttpClient client,
+                HttpClientConfig config) {
+                balanced.adopt(client, config);
+                return super.createNodeChecker(balanced, config);
+            }
+        };
+        factory.setHttpClientConfig(config);
+        balanced.adopt((JestHttpClient) factory.getObject(), config);
+        return balanced;
+    }
+
+    /**
+     * The listener, queue, shipper and reconciler of one database. Every database has its own
+     * queue, outbox directory, in-flight limit and throttle, so a burst of writes to one database
+     * does not hold back indexing of the others. The limits can be set per database with
+     * {@link ElasticSearchDatabaseSettings}.
+     */
+    private class DatabasePipeline {
+
+        private final String database;
+        private final ElasticSearchIndexSettings settings;
+        private final Path directory;
+        private final ElasticSearchDatabaseSettings limits;
+        private ElasticSearchQueue queue;
+        private ElasticSearchQueue backgroundQueue;
+        private ElasticSearchShipper shipper;
+        private ElasticSearchReconciler reconciler;
+        private ElasticSearchTransactionCheckpoint checkpoint;
+        private ElasticSearchCatchUp catchUp;
+        private ElasticSearchDeadLetters deadLetters;
+        private ElasticSearchMetricsMBean metricsBean;
+        private ElasticSearchHandler handler;
+        private ElasticSearchEventListener listener;
+
+        DatabasePipeline(String database, ElasticSearchIndexSettings settings) {
+            this.database = database;
+            this.settings = settings;
+            this.directory = outboxDir.resolve(database);
+            this.limits = ElasticSearchDatabaseSettings.of(database);
+        }
+
+        private <T> T limit(Setting<T> override, Setting<T> global) {
+            return limits.get(config, override, global);
+        }
+
+        void start() throws Exception {
+            long maxPendingSize = limit(limits.maxPendingSize,
+                ElasticSearchSettings.maxPendingSize);
+            int maxInFlightBulks = limit(limits.maxInFlightBulks,
+                ElasticSearchSettings.maxInFlightBulks);
+            ElasticSearchMetrics metrics = new ElasticSearchMetrics();
+            if (catchUpEnabled) {
+                checkpoint = new ElasticSearchTransactionCheckpoint(directory);
+                metrics.gauge("checkpoint.transactionId", checkpoint::checkpoint);
+                metrics.gauge("checkpoint.pendingTransactions", checkpoint::pendingTransactions);
+            }
+            ElasticSearchDirtyIndexes dirtyIndexes = new ElasticSearchDirtyIndexes(directory);
+            metrics.gauge("queue.dirtyIndexes", dirtyIndexes::count);
+            queue = new ElasticSearchBoundedQueue(
+                outboxEnabled
+                    ? ElasticSearchOutbox.open(directory, outboxSegmentSize, outboxForce)
+                    : new ElasticSearchMemoryQueue(),
+                backpressurePolicy == BackpressurePolicy.SPILL && !outboxEnabled
+                    ? ElasticSearchOutbox.open(directory.resolve("spill"), outboxSegmentSize)
+                    : null,
+                maxPendingSize, backpressurePolicy, dirtyIndexes, items -> {
+                    if (checkpoint != null) {
+                        checkpoint.dropped(items);
+                    }
+                });
+            // reindex and repair bulks can be redone, so they are kept on the heap only
+            backgroundQueue = new ElasticSearchBoundedQueue(new ElasticSearchMemoryQueue(), null,
+                maxPendingSize, BackpressurePolicy.BLOCK);
+            deadLetters = new ElasticSearchDeadLetters(directory);
+            // background work yields while more than a full bulk of live changes is waiting
+            ElasticSearchThrottle throttle = new ElasticSearchThrottle(
+                limit(limits.liveMaxDocsPerSecond, ElasticSearchSettings.liveMaxDocsPerSecond),
+                limit(limits.liveMaxBytesPerSecond, ElasticSearchSettings.liveMaxBytesPerSecond),
+                limit(limits.backgroundMaxDocsPerSecond,
+                    ElasticSearchSettings.backgroundMaxDocsPerSecond),
+                limit(limits.backgroundMaxBytesPerSecond,
+                    ElasticSearchSettings.backgroundMaxBytesPerSecond),
+                queue::pendingBytes, bulkMaxSize);
+            throttle.register(metrics);
+            handler = ElasticSearchHandler.builder(settings)
+                .database(database)
+                .jestClient(client)
+                .queue(queue)
+                .backgroundQueue(backgroundQueue)
+                .retryPolicy(retryPolicy)
+                .deadLetters(deadLetters)
+                .metrics(metrics)
+                .checkpoint(checkpoint)
+                .throttle(throttle)
+                .build();
+            ElasticSearchBulkSizer sizer = new ElasticSearchBulkSizer(bulkMaxActions, bulkMinSize,
+                bulkMaxSize, bulkLatencyGoal);
+            sizer.register(metrics);
+            shipper = new ElasticSearchShipper(client, queue, backgroundQueue, bulkMaxSize,
+                new ElasticSearchBulkCoalescer(bulkMaxActions, bulkMaxSize, bulkLinger.toNanos()),
+                sizer, maxInFlightBulks, retryPolicy, deadLetters, metrics,
+                handler::acknowledgedSearches, checkpoint, throttle,
+                missing -> handler.indexItems(dms.database(database), missing));
+            if (checkpoint != null
+                && checkpoint.last() != ElasticSearchTransactionCheckpoint.NONE) {
+                catchUp = new ElasticSearchCatchUp(dms, database, handler, checkpoint);
+                catchUp.register(metrics);
+            }
+            metrics.gauge("queue.pendingBytes", queue::pendingBytes);
+            metrics.gauge("queue.background.pendingBytes", backgroundQueue::pendingBytes);
+            metrics.gauge("bulk.inFlight", shipper::inFlightBulks);
+            metrics.gauge("deadLetters", deadLetters::count);
+            hostSelector.register(metrics);
+            if (compression != null) {
+                compression.register(metrics);
+            }
+            if (bufferPool != null) {
+                bufferPool.register(metrics);
+            }
+            if (reconcileEnabled) {
+                reconciler = new ElasticSearchReconciler(dms, database, handler, client,
+                    settings.getIndexSpec(), reconcileRate, reconcileInterval);
+                reconciler.register(metrics);
+            }
+            metricsBean = new ElasticSearchMetricsMBean(metrics);
+            metricsBean.register(database);
+            shipper.start();
+            if (catchUp != null) {
+                catchUp.start();
+            }
+            if (reconciler != null) {
+                reconciler.start();
+            }
+            if (enableAutoIndex) {
+                Path spillDirectory = directory.resolve("transactions");
+                ElasticSearchChangeSet.clean(spillDirectory);
+                listener = new ElasticSearchEventListener(handler, transactionMemoryBudget,
+                    spillDirectory);
+                listener.register(metrics);
+                dms.registerTransactionEventListener(database, listener);
+            }
+        }
+
+        void stop() throws Exception {
+            if (listener != null) {
+                dms.unregisterTransactionEventListener(database, listener);
+            }
+            if (catchUp != null) {
+                catchUp.stop();
+            }
+            if (reconciler != null) {
+                reconciler.stop();
+            }
+            ElasticSearchHandler.removeInstance(database, handler);
+            shipper.stop();
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+            metricsBean.unregister();
+            queue.close();
+            backgroundQueue.close();
+            deadLetters.close();
+        }
     }
 }
@@ -4,110 +4,539 @@ import io.searchbox.action.BulkableAction;
 import io.searchbox.client.JestClient;
 import io.searchbox.client.JestResult;
 import io.searchbox.client.JestResultHandler;
-import io.searchbox.core.Bulk;
 import io.searchbox.core.Delete;
 import io.searchbox.core.DocumentResult;
 import io.searchbox.core.Index;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
 import io.searchbox.core.Update;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.eclipse.collections.api.set.primitive.IntSet;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
+import org.neo4j.elasticsearch.ElasticSearchSpecTokens.CompiledSpec;
+import org.neo4j.elasticsearch.ElasticSearchSpecTokens.Tables;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.event.LabelEntry;
 import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.internal.kernel.api.TokenSet;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
 
 public class ElasticSearchHandler implements JestResultHandler<JestResult> {
 
     private final static Logger logger = Logger.getLogger(
         ElasticSearchHandler.class.getName());
 
-    private static ElasticSearchHandler instance;
+    private static final byte[] ID_FIELD = ElasticSearchDocumentWriter.encodeFieldName("id");
+    private static final byte[] LABELS_FIELD =
+        ElasticSearchDocumentWriter.encodeFieldName("labels");
+    private static final byte[] TYPE_FIELD = ElasticSearchDocumentWriter.encodeFieldName("type");
+    private static final byte[] START_FIELD = ElasticSearchDocumentWriter.encodeFieldName("start");
+    private static final byte[] END_FIELD = ElasticSearchDocumentWriter.encodeFieldName("end");
+    private static final byte[] DOC_FIELD = ElasticSearchDocumentWriter.encodeFieldName("doc");
+
+    /**
+     * The field holding the digests of the other fields of a document, see
+     * {@link ElasticSearchDocumentWriter#recordDigests()}.
+     */
+    static final String DIGEST = "neo4j_digest";
+    private static final byte[] DIGEST_FIELD = ElasticSearchDocumentWriter.encodeFieldName(DIGEST);
+
+    /**
+     * The database handlers are registered for when no database is given.
+     */
+    public static final String DEFAULT_DATABASE = "neo4j";
+
+    private static final Map<String, ElasticSearchHandler> instances = new ConcurrentHashMap<>();
 
     public static ElasticSearchHandler getInstance() {
-        return instance;
+        return instances.get(DEFAULT_DATABASE);
+    }
+
+    /**
+     * The handler of the database, or {@code null} if the database is not indexed.
+     */
+    public static ElasticSearchHandler getInstance(String database) {
+        return instances.get(database);
     }
 
     public static ElasticSearchHandler newInstance(
         JestClient jestClient,
         ElasticSearchIndexSettings indexSettings) {
-        instance = new ElasticSearchHandler(jestClient, indexSettings);
-        return instance;
+        return builder(indexSettings).jestClient(jestClient).build();
+    }
+
+    static Builder builder(ElasticSearchIndexSettings indexSettings) {
+        return new Builder(indexSettings);
+    }
+
+    /**
+     * Creates a handler and registers it for its database. Everything but the index settings is
+     * optional: without a queue changes are sent right away, without a checkpoint nothing is
+     * checkpointed, and so on.
+     */
+    static class Builder {
+
+        private final ElasticSearchIndexSettings indexSettings;
+        private String database = DEFAULT_DATABASE;
+        private JestClient jestClient;
+        private ElasticSearchQueue queue;
+        private ElasticSearchQueue backgroundQueue;
+        private ElasticSearchRetryPolicy retryPolicy = new ElasticSearchRetryPolicy(
+            ElasticSearchSettings.retryInitialBackoff.defaultValue(),
+            ElasticSearchSettings.retryMaxBackoff.defaultValue(),
+            ElasticSearchSettings.retryMaxAttempts.defaultValue());
+        private ElasticSearchDeadLetters deadLetters;
+        private ElasticSearchMetrics metrics = new ElasticSearchMetrics();
+        private ElasticSearchTransactionCheckpoint checkpoint;
+        private ElasticSearchThrottle throttle;
+
+        private Builder(ElasticSearchIndexSettings indexSettings) {
+            this.indexSettings = indexSettings;
+        }
+
+        Builder database(String database) {
+            this.database = database;
+            return this;
+        }
+
+        Builder jestClient(JestClient jestClient) {
+            this.jestClient = jestClient;
+            return this;
+        }
+
+        Builder queue(ElasticSearchQueue queue) {
+            this.queue = queue;
+            return this;
+        }
+
+        Builder backgroundQueue(ElasticSearchQueue backgroundQueue) {
+            this.backgroundQueue = backgroundQueue;
+            return this;
+        }
+
+        Builder retryPolicy(ElasticSearchRetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        Builder deadLetters(ElasticSearchDeadLetters deadLetters) {
+            this.deadLetters = deadLetters;
+            return this;
+        }
+
+        Builder metrics(ElasticSearchMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        Builder checkpoint(ElasticSearchTransactionCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        Builder throttle(ElasticSearchThrottle throttle) {
+            this.throttle = throttle;
+            return this;
+        }
+
+        ElasticSearchHandler build() {
+            ElasticSearchHandler instance = new ElasticSearchHandler(jestClient, indexSettings,
+                queue, backgroundQueue, retryPolicy, deadLetters, metrics, checkpoint, throttle);
+            instances.put(database, instance);
+            return instance;
+        }
+    }
+
+    static void removeInstance(String database, ElasticSearchHandler instance) {
+        instances.remove(database, instance);
     }
 
     private final JestClient jestClient;
     private final ElasticSearchIndexSettings indexSettings;
     private final Set<String> indexLabels;
+    private final Set<String> indexTypes;
+    private final Set<String> nodeIndexNames = new HashSet<>();
+    private final Set<String> nodeProperties = new HashSet<>();
+    private final Set<String> relationshipProperties = new HashSet<>();
+    private final ElasticSearchSpecTokens specTokens;
+    private final ElasticSearchQueue queue;
+    private final ElasticSearchQueue backgroundQueue;
+    private final ElasticSearchRetryPolicy retryPolicy;
+    // change sets of committed transactions are queued under the read lock, replays under the
+    // write lock
+    private final ReadWriteLock appendLock = new ReentrantReadWriteLock();
+    private final ElasticSearchDeadLetters deadLetters;
+    private final ElasticSearchMetrics metrics;
+    private final ElasticSearchSearchCache searchCache;
+    private final ElasticSearchTransactionCheckpoint checkpoint;
+    private final ElasticSearchThrottle throttle;
 
     private boolean useAsyncJest = true;
 
     private ElasticSearchHandler(
         JestClient jestClient,
-        ElasticSearchIndexSettings indexSettings
+        ElasticSearchIndexSettings indexSettings,
+        ElasticSearchQueue queue,
+        ElasticSearchQueue backgroundQueue,
+        ElasticSearchRetryPolicy retryPolicy,
+        ElasticSearchDeadLetters deadLetters,
+        ElasticSearchMetrics metrics,
+        ElasticSearchTransactionCheckpoint checkpoint,
+        ElasticSearchThrottle throttle
     ) {
         this.jestClient = jestClient;
         this.indexSettings = indexSettings;
         this.indexLabels = indexSettings.getIndexSpec().keySet();
+        this.indexTypes = indexSettings.getRelationshipIndexSpec().keySet();
+        for (List<ElasticSearchIndexSpec> specs : indexSettings.getIndexSpec().values()) {
+            for (ElasticSearchIndexSpec spec : specs) {
+                nodeIndexNames.add(spec.getIndexName());
+                nodeProperties.addAll(spec.getProperties());
+            }
+        }
+        for (List<ElasticSearchIndexSpec> specs
+            : indexSettings.getRelationshipIndexSpec().values()) {
+            for (ElasticSearchIndexSpec spec : specs) {
+                relationshipProperties.addAll(spec.getProperties());
+            }
+        }
+        this.specTokens = new ElasticSearchSpecTokens(indexSettings.getIndexSpec(),
+            indexSettings.getRelationshipIndexSpec());
+        this.queue = queue;
+        // without a queue of their own background items are queued with the live ones
+        this.backgroundQueue = backgroundQueue != null ? backgroundQueue : queue;
+        this.retryPolicy = retryPolicy;
+        this.deadLetters = deadLetters;
+        this.metrics = metrics;
+        this.checkpoint = checkpoint;
+        this.throttle = throttle;
+        if (indexSettings.getSearchCacheSize() > 0
+            && !indexSettings.getSearchCacheTtl().isZero()) {
+            this.searchCache = new ElasticSearchSearchCache(indexSettings.getSearchCacheSize(),
+                indexSettings.getSearchCacheTtl());
+            searchCache.register(metrics);
+        } else {
+            this.searchCache = null;
+        }
+    }
+
+    public ElasticSearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Runs the query against a node index of this database, returning the node ids and scores of
+     * the hits in ranking order.
+     */
+    public List<ElasticSearchHit> search(String index, Object query, int from, int size)
+        throws IOException {
+        if (!nodeIndexNames.contains(index)) {
+            throw new IllegalArgumentException("No elasticsearch node index " + index
+                + " is defined");
+        }
+        String body = ElasticSearchQuery.body(query, from, size);
+        if (searchCache == null) {
+            return search(index, body);
+        }
+        return searchCache.get(index, body, () -> search(index, body));
+    }
+
+    private List<ElasticSearchHit> search(String index, String body) throws IOException {
+        SearchResult result = jestClient.execute(new Search.Builder(body).addIndex(index).build());
+        if (!result.isSucceeded()) {
+            throw new IOException("ElasticSearch search failed: " + result.getErrorMessage());
+        }
+        return ElasticSearchQuery.hits(result);
     }
 
+    /**
+     * Drops cached search results of indexes a committing transaction writes to.
+     */
+    void invalidateSearches(Collection<String> indexes) {
+        if (searchCache != null) {
+            searchCache.invalidate(indexes);
+        }
+    }
+
+    /**
+     * Drops cached search results of indexes ElasticSearch accepted changes for.
+     */
+    void acknowledgedSearches(Collection<String> indexes) {
+        if (searchCache != null) {
+            searchCache.acknowledged(indexes);
+        }
+    }
+
+    /**
+     * Streams the hits whose nodes exist in the transaction, resolving {@code batchSize} nodes
+     * at a time as the stream is consumed.
+     */
+    public <T> Stream<T> hydrate(Transaction tx, List<ElasticSearchHit> hits, int batchSize,
+        BiFunction<Node, ElasticSearchHit, T> result) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+            new ElasticSearchNodeHydrator<>((InternalTransaction) tx, hits, batchSize, result),
+            Spliterator.ORDERED), false);
+    }
+
+    public boolean isPartialUpdates() {
+        return indexSettings.getPartialUpdates();
+    }
+
+    public Set<String> getIndexLabels() {
+        return indexLabels;
+    }
+
+    /**
+     * Indexes that lost changes and need to be reindexed, see {@link ElasticSearchDirtyIndexes}.
+     */
+    public Set<String> getDirtyIndexes() {
+        return queue instanceof ElasticSearchBoundedQueue
+            ? ((ElasticSearchBoundedQueue) queue).getDirtyIndexes() : Collections.emptySet();
+    }
+
+    /**
+     * Sends the documents of all nodes with the given label to ElasticSearch, bypassing the queue
+     * of the transaction listener as conditional writes that never override a newer document.
+     * Blocks until all nodes have been shipped.
+     */
+    public ElasticSearchReindexStats reindex(GraphDatabaseService db, String label,
+        int batchSize, int concurrency) throws InterruptedException {
+        ElasticSearchReindexStats stats = new ElasticSearchReindexer(this, jestClient,
+            retryPolicy, deadLetters, throttle).reindex(db, label, batchSize, concurrency);
+        if (queue instanceof ElasticSearchBoundedQueue) {
+            for (ElasticSearchIndexSpec spec : indexSettings.getIndexSpec().get(label)) {
+                ((ElasticSearchBoundedQueue) queue).clearDirty(spec.getIndexName());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Sends the documents of the given nodes or node ids in concurrent bulks, in the background
+     * lane of the throttle, or queues them if {@code async}. Blocks until all nodes have been
+     * shipped or queued.
+     */
+    public ElasticSearchReindexStats index(GraphDatabaseService db, Iterator<?> nodes,
+        int batchSize, int concurrency, boolean async) throws InterruptedException {
+        return new ElasticSearchReindexer(this, jestClient, retryPolicy, deadLetters, throttle)
+            .index(db, nodes, batchSize, concurrency, async);
+    }
+
+    /**
+     * Renders the full documents of the given items again, e.g. of partial updates whose
+     * documents ElasticSearch does not have. Items of nodes and relationships that no longer
+     * exist are left out, their deletes follow in the queue.
+     */
+    List<ElasticSearchBulkItem> indexItems(GraphDatabaseService db,
+        Collection<ElasticSearchBulkItem> items) {
+        List<ElasticSearchBulkItem> indexItems = new ArrayList<>(items.size());
+        try (Transaction tx = db.beginTx()) {
+            for (ElasticSearchBulkItem item : items) {
+                long id = Long.parseLong(item.getId());
+                Map<IndexId, Index> requests;
+                try {
+                    requests = nodeIndexNames.contains(item.getIndexName())
+                        ? indexRequests(tx.getNodeById(id))
+                        : indexRequests(tx.getRelationshipById(id));
+                } catch (NotFoundException e) {
+                    continue;
+                }
+                Index request = requests.get(new IndexId(item.getIndexName(), item.getId()));
+                if (request != null) {
+                    indexItems.add(ElasticSearchBulkItem.of(request, item.getTransactionId()));
+                }
+            }
+        }
+        return indexItems;
+    }
+
+    /**
+     * The node indexes of the label, of all labels if {@code label} is {@code null}.
+     */
+    Set<String> nodeIndexNames(String label) {
+        if (label == null) {
+            return nodeIndexNames;
+        }
+        Set<String> indexNames = new HashSet<>();
+        for (ElasticSearchIndexSpec spec : indexSettings.getIndexSpec().get(label)) {
+            indexNames.add(spec.getIndexName());
+        }
+        return indexNames;
+    }
+
+    boolean hasQueue() {
+        return queue != null;
+    }
+
+    /**
+     * Queues background items that are not part of a transaction, like those of an asynchronous
+     * batch, which the caller charged to the background lane of the throttle already.
+     */
+    void enqueue(List<ElasticSearchBulkItem> items) throws IOException {
+        metrics.transaction(items.size());
+        backgroundQueue.append(items);
+    }
+
+    /**
+     * Sends the documents of the node right away, in the live lane of the throttle.
+     */
     public void index(Node node) throws IOException {
         if (hasLabel(node)) {
             Map<IndexId, BulkableAction<DocumentResult>> actions =
                 new HashMap<>(indexRequests(node));
-            execute(actions.values(), false);
+            if (throttle != null) {
+                List<ElasticSearchBulkItem> items = items(actions.values(),
+                    ElasticSearchBulkItem.NO_TRANSACTION);
+                throttle(ElasticSearchThrottle.Lane.LIVE, items);
+                jestClient.execute(JestRawBulk.of(items));
+            } else {
+                execute(actions.values(), false);
+            }
         }
     }
 
     public Map<IndexId, Index> indexRequests(Node node) {
+        return indexRequests(node, (Set<String>) null);
+    }
+
+    /**
+     * The documents of the node in the indexes of specs that index any of the changed
+     * properties, or in all indexes of its labels if {@code changedKeys} is {@code null}.
+     */
+    Map<IndexId, Index> indexRequests(Node node, Set<String> changedKeys) {
         HashMap<IndexId, Index> reqs = new HashMap<>();
 
-        for (Label l : node.getLabels()) {
-            if (!indexLabels.contains(l.name())) {
-                continue;
+        try (ElasticSearchNodeReader reader = ElasticSearchNodeReader.open(node)) {
+            Tables tables = specTokens.resolve(reader.tokenRead());
+            IntSet changedKeyIds = propertyKeyIds(reader.tokenRead(), changedKeys);
+            TokenSet labels = reader.labels();
+            for (int i = 0; i < labels.numberOfTokens(); i++) {
+                CompiledSpec[] specs = tables.specs(labels.token(i));
+                if (specs != null) {
+                    indexRequests(reqs, reader, id(node), specs, changedKeyIds);
+                }
             }
+        }
+        return reqs;
+    }
 
-            for (ElasticSearchIndexSpec spec : indexSettings.getIndexSpec().get(l.name())) {
-                String id = id(node), indexName = spec.getIndexName();
-                reqs.put(new IndexId(indexName, id),
-                    new Index.Builder(nodeToJson(node, spec.getProperties()))
-                        .type(l.name())
-                        .index(indexName)
-                        .id(id)
-                        .build());
+    public Map<IndexId, Index> indexRequests(Node node, String label) {
+        HashMap<IndexId, Index> reqs = new HashMap<>();
+
+        if (indexLabels.contains(label)) {
+            try (ElasticSearchNodeReader reader = ElasticSearchNodeReader.open(node)) {
+                indexRequests(reqs, reader, id(node),
+                    specTokens.resolve(reader.tokenRead()).specs(label), null);
             }
         }
         return reqs;
     }
 
+    private void indexRequests(Map<IndexId, Index> reqs, ElasticSearchNodeReader reader,
+        String id, CompiledSpec[] specs, IntSet changedKeyIds) {
+        for (CompiledSpec spec : specs) {
+            if (!spec.indexesAny(changedKeyIds)) {
+                continue;
+            }
+            String indexName = spec.spec.getIndexName();
+            reqs.put(new IndexId(indexName, id),
+                ElasticSearchRenderedSource.index(nodeToJson(reader, id, spec))
+                    .type(spec.label)
+                    .index(indexName)
+                    .id(id)
+                    .build());
+        }
+    }
+
+    /**
+     * The token ids of the property keys, {@code null} for all properties if {@code keys} is
+     * {@code null}. Keys without a token are left out, no spec indexes them.
+     */
+    private static IntSet propertyKeyIds(TokenRead tokenRead, Set<String> keys) {
+        if (keys == null) {
+            return null;
+        }
+        IntHashSet ids = new IntHashSet(keys.size());
+        for (String key : keys) {
+            int id = tokenRead.propertyKey(key);
+            if (id != TokenRead.NO_TOKEN) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Whether any node index spec indexes the property, changes of other properties never
+     * change a document.
+     */
+    boolean isIndexedProperty(String key) {
+        return nodeProperties.contains(key);
+    }
+
+    boolean isIndexedRelationshipProperty(String key) {
+        return relationshipProperties.contains(key);
+    }
+
     public Map<IndexId, Delete> deleteRequests(Node node) {
         HashMap<IndexId, Delete> reqs = new HashMap<>();
 
-        for (Label l : node.getLabels()) {
-            if (!indexLabels.contains(l.name())) {
-                continue;
-            }
-            for (ElasticSearchIndexSpec spec : indexSettings.getIndexSpec().get(l.name())) {
-                String id = id(node), indexName = spec.getIndexName();
-                reqs.put(new IndexId(indexName, id),
-                    new Delete.Builder(id).index(indexName).build());
+        try (ElasticSearchNodeReader reader = ElasticSearchNodeReader.open(node)) {
+            Tables tables = specTokens.resolve(reader.tokenRead());
+            TokenSet labels = reader.labels();
+            for (int i = 0; i < labels.numberOfTokens(); i++) {
+                CompiledSpec[] specs = tables.specs(labels.token(i));
+                if (specs == null) {
+                    continue;
+                }
+                for (CompiledSpec spec : specs) {
+                    String id = id(node), indexName = spec.spec.getIndexName();
+                    reqs.put(new IndexId(indexName, id),
+                        new Delete.Builder(id).index(indexName).build());
+                }
             }
         }
         return reqs;
     }
 
     public Map<IndexId, Delete> deleteRequests(Node node, Label label) {
+        return deleteRequests(node.getId(), label);
+    }
+
+    /**
+     * Deletes the documents of a node that lost the label, by id as the node may be deleted.
+     */
+    Map<IndexId, Delete> deleteRequests(long nodeId, Label label) {
         HashMap<IndexId, Delete> reqs = new HashMap<>();
 
         if (indexLabels.contains(label.name())) {
             for (ElasticSearchIndexSpec spec : indexSettings.getIndexSpec().get(label.name())) {
-                String id = id(node), indexName = spec.getIndexName();
+                String id = String.valueOf(nodeId), indexName = spec.getIndexName();
                 reqs.put(new IndexId(indexName, id),
                     new Delete.Builder(id)
                         .index(indexName)
@@ -118,30 +547,93 @@ public class ElasticSearchHandler implements JestResultHandler<JestResult> {
         return reqs;
     }
 
+    /**
+     * Deletes the documents of the node id from all node indexes except the given ones, for
+     * nodes whose labels are not known any more.
+     */
+    Map<IndexId, Delete> deleteRequests(long nodeId, Set<IndexId> except) {
+        HashMap<IndexId, Delete> reqs = new HashMap<>();
+        String id = String.valueOf(nodeId);
+        for (String indexName : nodeIndexNames) {
+            IndexId key = new IndexId(indexName, id);
+            if (!except.contains(key)) {
+                reqs.put(key, new Delete.Builder(id).index(indexName).build());
+            }
+        }
+        return reqs;
+    }
+
     public Map<IndexId, Update> updateRequests(Node node) {
         HashMap<IndexId, Update> reqs = new HashMap<>();
-        for (Label l : node.getLabels()) {
-            if (!indexLabels.contains(l.name())) {
-                continue;
+        try (ElasticSearchNodeReader reader = ElasticSearchNodeReader.open(node)) {
+            Tables tables = specTokens.resolve(reader.tokenRead());
+            TokenSet labels = reader.labels();
+            for (int i = 0; i < labels.numberOfTokens(); i++) {
+                CompiledSpec[] specs = tables.specs(labels.token(i));
+                if (specs == null) {
+                    continue;
+                }
+
+                for (CompiledSpec spec : specs) {
+                    String id = id(node), indexName = spec.spec.getIndexName();
+                    reqs.put(new IndexId(indexName, id),
+                        ElasticSearchRenderedSource.update(nodeToJson(reader, id, spec))
+                            .type(spec.label)
+                            .index(indexName)
+                            .id(id)
+                            .build());
+                }
             }
+        }
+        return reqs;
+    }
 
-            for (ElasticSearchIndexSpec spec : indexSettings.getIndexSpec().get(l.name())) {
-                String id = id(node), indexName = spec.getIndexName();
-                reqs.put(new IndexId(indexName, id),
-                    new Update.Builder(nodeToJson(node, spec.getProperties()))
-                        .type(l.name())
-                        .index(spec.getIndexName())
-                        .id(id(node))
-                        .build());
+    /**
+     * Partial updates carrying only the changed properties of the node, a {@code null} value
+     * removes the property from the document. Specs that index none of the changed properties
+     * are skipped. If ElasticSearch does not have the document, e.g. after changes were dropped
+     * or during a reindex, the shipper sends it in full, see {@link #indexItems}.
+     */
+    public Map<IndexId, Update> partialUpdateRequests(Node node, Map<String, Object> changes) {
+        HashMap<IndexId, Update> reqs = new HashMap<>();
+        try (ElasticSearchNodeReader reader = ElasticSearchNodeReader.open(node)) {
+            Tables tables = specTokens.resolve(reader.tokenRead());
+            PropertyChanges propertyChanges = new PropertyChanges(reader.tokenRead(), changes);
+            TokenSet labels = reader.labels();
+            for (int i = 0; i < labels.numberOfTokens(); i++) {
+                CompiledSpec[] specs = tables.specs(labels.token(i));
+                if (specs != null) {
+                    partialUpdateRequests(reqs, id(node), specs, propertyChanges);
+                }
             }
         }
         return reqs;
     }
 
+    private void partialUpdateRequests(Map<IndexId, Update> reqs, String id,
+        CompiledSpec[] specs, PropertyChanges changes) {
+        for (CompiledSpec spec : specs) {
+            if (!changes.touches(spec)) {
+                continue;
+            }
+            String indexName = spec.spec.getIndexName();
+            reqs.put(new IndexId(indexName, id),
+                ElasticSearchRenderedSource.update(partialDoc(spec, changes))
+                    .type(spec.label)
+                    .index(indexName)
+                    .id(id)
+                    .build());
+        }
+    }
+
     public boolean hasLabel(Node node) {
-        for (Label l : node.getLabels()) {
-            if (indexLabels.contains(l.name())) {
-                return true;
+        try (ElasticSearchNodeReader reader = ElasticSearchNodeReader.open(node)) {
+            Tables tables = specTokens.resolve(reader.tokenRead());
+            TokenSet labels = reader.labels();
+            for (int i = 0; i < labels.numberOfTokens(); i++) {
+                if (tables.isIndexed(labels.token(i))) {
+                    return true;
+                }
             }
         }
         return false;
@@ -155,36 +647,236 @@ public class ElasticSearchHandler implements JestResultHandler<JestResult> {
         return hasLabel(propEntry.entity());
     }
 
+    public boolean hasRelationshipIndexes() {
+        return !indexTypes.isEmpty();
+    }
+
+    public Map<IndexId, Index> indexRequests(Relationship relationship) {
+        return indexRequests(relationship, null);
+    }
+
+    /**
+     * The documents of the relationship in the indexes of specs that index any of the changed
+     * properties, or in all indexes of its type if {@code changedKeys} is {@code null}.
+     */
+    Map<IndexId, Index> indexRequests(Relationship relationship, Set<String> changedKeys) {
+        HashMap<IndexId, Index> reqs = new HashMap<>();
+
+        try (ElasticSearchRelationshipReader reader =
+            ElasticSearchRelationshipReader.open(relationship)) {
+            CompiledSpec[] specs =
+                specTokens.resolve(reader.tokenRead()).relationshipSpecs(reader.type());
+            if (specs == null) {
+                return reqs;
+            }
+            String id = id(relationship);
+            IntSet changedKeyIds = propertyKeyIds(reader.tokenRead(), changedKeys);
+            for (CompiledSpec spec : specs) {
+                if (!spec.indexesAny(changedKeyIds)) {
+                    continue;
+                }
+                String indexName = spec.spec.getIndexName();
+                reqs.put(new IndexId(indexName, id),
+                    ElasticSearchRenderedSource.index(relationshipToJson(reader, id, spec))
+                        .type(spec.label)
+                        .index(indexName)
+                        .id(id)
+                        .build());
+            }
+        }
+        return reqs;
+    }
+
+    /**
+     * Deletes the documents of a relationship, which may already be deleted in the current
+     * transaction. The type of deleted relationships is still known to the transaction data.
+     */
+    public Map<IndexId, Delete> deleteRequests(Relationship relationship) {
+        return deleteRequests(relationship.getId(), relationship.getType().name());
+    }
+
+    Map<IndexId, Delete> deleteRequests(long relationshipId, String type) {
+        HashMap<IndexId, Delete> reqs = new HashMap<>();
+
+        if (indexTypes.contains(type)) {
+            String id = String.valueOf(relationshipId);
+            for (ElasticSearchIndexSpec spec : indexSettings.getRelationshipIndexSpec().get(type)) {
+                reqs.put(new IndexId(spec.getIndexName(), id),
+                    new Delete.Builder(id)
+                        .index(spec.getIndexName())
+                        .type(type)
+                        .build());
+            }
+        }
+        return reqs;
+    }
+
+    /**
+     * Deletes the documents of the relationship id from all relationship indexes, for
+     * relationships whose type is not known any more.
+     */
+    Map<IndexId, Delete> relationshipDeleteRequests(long relationshipId) {
+        HashMap<IndexId, Delete> reqs = new HashMap<>();
+        String id = String.valueOf(relationshipId);
+        for (List<ElasticSearchIndexSpec> specs
+            : indexSettings.getRelationshipIndexSpec().values()) {
+            for (ElasticSearchIndexSpec spec : specs) {
+                reqs.put(new IndexId(spec.getIndexName(), id),
+                    new Delete.Builder(id).index(spec.getIndexName()).build());
+            }
+        }
+        return reqs;
+    }
+
+    public Map<IndexId, Update> partialUpdateRequests(Relationship relationship,
+        Map<String, Object> changes) {
+        HashMap<IndexId, Update> reqs = new HashMap<>();
+        try (ElasticSearchRelationshipReader reader =
+            ElasticSearchRelationshipReader.open(relationship)) {
+            CompiledSpec[] specs =
+                specTokens.resolve(reader.tokenRead()).relationshipSpecs(reader.type());
+            if (specs != null) {
+                partialUpdateRequests(reqs, id(relationship), specs,
+                    new PropertyChanges(reader.tokenRead(), changes));
+            }
+        }
+        return reqs;
+    }
+
     private String id(Node node) {
         return String.valueOf(node.getId());
     }
 
-    private List<String> labels(Node node) {
-        List<String> result = new ArrayList<>();
-        for (Label label : node.getLabels()) {
-            result.add(label.name());
+    private String id(Relationship relationship) {
+        return String.valueOf(relationship.getId());
+    }
+
+    /**
+     * Renders the document of the node for the spec with the streaming writer, the encoded bytes
+     * are copied into the bulk lines as they are. Only the indexed properties are read from the
+     * store, by token id.
+     */
+    private ElasticSearchDocumentWriter nodeToJson(ElasticSearchNodeReader reader, String id,
+        CompiledSpec spec) {
+        ElasticSearchDocumentWriter writer = beginDocument(ElasticSearchDocumentWriter.acquire());
+
+        if (indexSettings.getIncludeIDField()) {
+            writer.field(ID_FIELD).value(id);
+        }
+
+        if (indexSettings.getIncludeLabelsField()) {
+            writer.field(LABELS_FIELD).beginArray();
+            TokenSet labels = reader.labels();
+            for (int i = 0; i < labels.numberOfTokens(); i++) {
+                writer.value(reader.labelName(labels.token(i)));
+            }
+            writer.endArray();
         }
-        return result;
+
+        writeProperties(writer, reader, spec);
+        return endDocument(writer);
     }
 
-    private Map<String, Object> nodeToJson(Node node, Set<String> properties) {
-        Map<String, Object> json = new LinkedHashMap<>();
+    /**
+     * Renders the document of the relationship for the spec. Besides the indexed properties it
+     * holds the ids of the start and end node, so edges can be joined back to their nodes.
+     */
+    private ElasticSearchDocumentWriter relationshipToJson(ElasticSearchRelationshipReader reader,
+        String id, CompiledSpec spec) {
+        ElasticSearchDocumentWriter writer = beginDocument(ElasticSearchDocumentWriter.acquire());
 
         if (indexSettings.getIncludeIDField()) {
-            json.put("id", id(node));
+            writer.field(ID_FIELD).value(id);
+        }
+        if (indexSettings.getIncludeLabelsField()) {
+            writer.field(TYPE_FIELD).value(spec.label);
         }
+        writer.field(START_FIELD).value(String.valueOf(reader.startNode()));
+        writer.field(END_FIELD).value(String.valueOf(reader.endNode()));
 
+        writeProperties(writer, reader, spec);
+        return endDocument(writer);
+    }
+
+    private ElasticSearchDocumentWriter beginDocument(ElasticSearchDocumentWriter writer) {
+        writer.beginObject();
+        return indexSettings.getDigests() ? writer.recordDigests() : writer;
+    }
+
+    private ElasticSearchDocumentWriter endDocument(ElasticSearchDocumentWriter writer) {
+        if (indexSettings.getDigests()) {
+            writer.digests(DIGEST_FIELD);
+        }
+        return writer.endObject();
+    }
+
+    /**
+     * The names of the fields the documents of the node index have digests for.
+     */
+    List<String> digestedFields(ElasticSearchIndexSpec spec) {
+        List<String> fields = new ArrayList<>();
+        if (indexSettings.getIncludeIDField()) {
+            fields.add("id");
+        }
         if (indexSettings.getIncludeLabelsField()) {
-            json.put("labels", labels(node));
+            fields.add("labels");
         }
+        fields.addAll(spec.getProperties());
+        return fields;
+    }
+
+    private static void writeProperties(ElasticSearchDocumentWriter writer,
+        ElasticSearchEntityReader<?> reader, CompiledSpec spec) {
+        if (spec.selection != null) {
+            reader.properties(spec.selection);
+            while (reader.nextProperty()) {
+                writer.field(spec.encodedKey(reader.propertyKey())).value(reader.propertyValue());
+            }
+        }
+    }
 
-        for (String prop : properties) {
-            if (node.hasProperty(prop)) {
-                Object value = node.getProperty(prop);
-                json.put(prop, value);
+    /**
+     * Renders the changed properties the spec indexes as partial update with the streaming
+     * writer, which keeps the {@code null} values of removed properties. ElasticSearch merges the
+     * digests of the changed properties into those of the document.
+     */
+    private ElasticSearchDocumentWriter partialDoc(CompiledSpec spec, PropertyChanges changes) {
+        ElasticSearchDocumentWriter writer = beginDocument(
+            ElasticSearchDocumentWriter.acquire().beginObject().field(DOC_FIELD));
+        for (int i = 0; i < changes.keyIds.length; i++) {
+            if (spec.indexes(changes.keyIds[i])) {
+                writer.field(spec.encodedKey(changes.keyIds[i])).value(changes.values[i]);
             }
         }
-        return json;
+        return endDocument(writer).endObject();
+    }
+
+    /**
+     * Changed properties by property key token id, resolved once per entity.
+     */
+    private static class PropertyChanges {
+
+        final int[] keyIds;
+        final Object[] values;
+
+        PropertyChanges(TokenRead tokenRead, Map<String, Object> changes) {
+            keyIds = new int[changes.size()];
+            values = new Object[changes.size()];
+            int i = 0;
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                keyIds[i] = tokenRead.propertyKey(change.getKey());
+                values[i++] = change.getValue();
+            }
+        }
+
+        boolean touches(CompiledSpec spec) {
+            for (int keyId : keyIds) {
+                if (spec.indexes(keyId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
     public void setUseAsyncJest(boolean useAsyncJest) {
@@ -192,13 +884,137 @@ public class ElasticSearchHandler implements JestResultHandler<JestResult> {
     }
 
     public void execute(Collection<BulkableAction<DocumentResult>> actions) throws IOException {
-        execute(actions, useAsyncJest);
+        execute(actions, ElasticSearchBulkItem.NO_TRANSACTION);
+    }
+
+    /**
+     * Queues the actions of the committed transaction with the given id, which is checkpointed
+     * once ElasticSearch accepted all of them.
+     */
+    void execute(Collection<BulkableAction<DocumentResult>> actions, long transactionId)
+        throws IOException {
+        execute(actions, transactionId, ElasticSearchThrottle.Lane.LIVE);
+    }
+
+    /**
+     * Queues the actions. Background actions like repairs go to the background queue once the
+     * background lane of the throttle lets them through, live actions are throttled when they are
+     * shipped.
+     */
+    void execute(Collection<BulkableAction<DocumentResult>> actions, long transactionId,
+        ElasticSearchThrottle.Lane lane) throws IOException {
+        metrics.transaction(actions.size());
+        if (queue != null) {
+            List<ElasticSearchBulkItem> items = items(actions, transactionId);
+            committed(transactionId, items.size());
+            if (lane == ElasticSearchThrottle.Lane.BACKGROUND) {
+                throttle(lane, items);
+                backgroundQueue.append(items);
+            } else {
+                queue.append(items);
+            }
+        } else {
+            execute(actions, useAsyncJest);
+        }
+    }
+
+    private static List<ElasticSearchBulkItem> items(
+        Collection<BulkableAction<DocumentResult>> actions, long transactionId) {
+        List<ElasticSearchBulkItem> items = new ArrayList<>(actions.size());
+        for (BulkableAction<DocumentResult> action : actions) {
+            items.add(ElasticSearchBulkItem.of(action, transactionId));
+        }
+        return items;
+    }
+
+    private void throttle(ElasticSearchThrottle.Lane lane, List<ElasticSearchBulkItem> items)
+        throws IOException {
+        if (throttle == null) {
+            return;
+        }
+        long bytes = 0;
+        for (ElasticSearchBulkItem item : items) {
+            bytes += item.getLines().length;
+        }
+        try {
+            throttle.acquire(lane, items.size(), bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the ElasticSearch throttle", e);
+        }
+    }
+
+    /**
+     * Queues the change set of the committed transaction with the given id chunk by chunk, which
+     * is checkpointed once ElasticSearch accepted all of them.
+     */
+    void execute(ElasticSearchChangeSet changes, long transactionId) throws IOException {
+        metrics.transaction(changes.size());
+        committed(transactionId, changes.size());
+        appendLock.readLock().lock();
+        try {
+            changes.forEachChunk(transactionId, chunk -> {
+                if (queue != null) {
+                    queue.append(chunk);
+                } else if (useAsyncJest) {
+                    jestClient.executeAsync(JestRawBulk.of(chunk), this);
+                } else {
+                    jestClient.execute(JestRawBulk.of(chunk));
+                }
+            });
+        } finally {
+            appendLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs a replay that reads documents from the graph and queues them while no change set of a
+     * committed transaction is queued. A transaction that commits after the replay read the graph
+     * is queued after it, so its newer documents are never overwritten by the older ones.
+     */
+    void replay(Replay replay) throws IOException {
+        appendLock.writeLock().lock();
+        try {
+            replay.run();
+        } finally {
+            appendLock.writeLock().unlock();
+        }
+    }
+
+    interface Replay {
+
+        void run() throws IOException;
+    }
+
+    /**
+     * Holds the checkpoint before the given transaction id until {@link #release(long)}, while a
+     * transaction that gets that id or a greater one commits.
+     */
+    void hold(long transactionId) {
+        if (checkpoint != null) {
+            checkpoint.hold(transactionId);
+        }
+    }
+
+    void release(long transactionId) {
+        if (checkpoint != null && transactionId != ElasticSearchBulkItem.NO_TRANSACTION) {
+            checkpoint.release(transactionId);
+        }
+    }
+
+    /**
+     * Records a committed transaction, without changes to the indexes if {@code items} is 0.
+     */
+    void committed(long transactionId, int items) {
+        if (checkpoint != null && transactionId != ElasticSearchBulkItem.NO_TRANSACTION) {
+            checkpoint.committed(transactionId, items);
+        }
     }
 
     public void execute(Collection<BulkableAction<DocumentResult>> actions, boolean useAsyncJest)
         throws IOException {
-        Bulk bulk = new Bulk.Builder()
-            .addAction(actions).build();
+        // rendered like queued actions, so conditional writes keep their conditions
+        JestRawBulk bulk = JestRawBulk.of(items(actions, ElasticSearchBulkItem.NO_TRANSACTION));
         if (useAsyncJest) {
             jestClient.executeAsync(bulk, this);
         } else {
@@ -220,7 +1036,7 @@ public class ElasticSearchHandler implements JestResultHandler<JestResult> {
         logger.log(Level.WARNING, "Problem Updating ElasticSearch ", e);
     }
 
-    public class IndexId {
+    public static class IndexId {
 
         final String indexName, id;
 
@@ -233,7 +1049,6 @@ public class ElasticSearchHandler implements JestResultHandler<JestResult> {
         public int hashCode() {
             final int prime = 31;
             int result = 1;
-            result = prime * result + getOuterType().hashCode();
             result = prime * result + ((id == null) ? 0 : id.hashCode());
             result = prime * result
                 + ((indexName == null) ? 0 : indexName.hashCode());
@@ -252,9 +1067,6 @@ public class ElasticSearchHandler implements JestResultHandler<JestResult> {
                 return false;
             }
             IndexId other = (IndexId) obj;
-            if (!getOuterType().equals(other.getOuterType())) {
-                return false;
-            }
             if (id == null) {
                 if (other.id != null) {
                     return false;
@@ -269,10 +1081,6 @@ public class ElasticSearchHandler implements JestResultHandler<JestResult> {
             }
         }
 
-        private ElasticSearchHandler getOuterType() {
-            return ElasticSearchHandler.this;
-        }
-
         @Override
         public String toString() {
             return "IndexId [indexName=" + indexName + ", id=" + id + "]";
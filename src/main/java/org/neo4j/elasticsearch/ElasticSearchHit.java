@@ -0,0 +1,28 @@
+package org.neo4j.elasticsearch;
+
+/**
+ * A search hit on a node index: the id of the node and the score ElasticSearch gave it.
+ */
+public class ElasticSearchHit {
+
+    private final long id;
+    private final double score;
+
+    public ElasticSearchHit(long id, double score) {
+        this.id = id;
+        this.score = score;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return id + " (" + score + ")";
+    }
+}
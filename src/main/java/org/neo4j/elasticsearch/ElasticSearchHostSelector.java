@@ -0,0 +1,218 @@
+package org.neo4j.elasticsearch;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Picks the ElasticSearch node for the next request. Every node has a circuit breaker and an
+ * exponentially weighted moving average of its response time.
+ * <ul>
+ * <li>Requests go to healthy nodes ("closed" breaker). Of two randomly drawn healthy nodes the
+ * one with the lower average wins, which steers load away from a slow node without sending
+ * everything to the single fastest one.</li>
+ * <li>After {@code failureThreshold} consecutive failures (connection errors or status 502, 503,
+ * 504) the breaker opens and the node gets no requests for the open time.</li>
+ * <li>Then a single probe request is let through ("half-open"). If it succeeds the node is
+ * healthy again, otherwise the breaker opens for twice as long as before, doubling at most
+ * {@link #MAX_OPEN_DOUBLINGS} times.</li>
+ * </ul>
+ * While all breakers are open no request is sent at all, {@link #select()} fails right away.
+ */
+class ElasticSearchHostSelector {
+
+    static final double ALPHA = 0.3;
+    static final int MAX_OPEN_DOUBLINGS = 4;
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final LongSupplier clock;
+    private final LongAdder rejected = new LongAdder();
+    private volatile Host[] hosts = new Host[0];
+
+    ElasticSearchHostSelector(Collection<String> urls, int failureThreshold, Duration openTime) {
+        this(urls, failureThreshold, openTime, System::currentTimeMillis);
+    }
+
+    ElasticSearchHostSelector(Collection<String> urls, int failureThreshold, Duration openTime,
+        LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = Math.max(1, openTime.toMillis());
+        this.clock = clock;
+        setHosts(urls);
+    }
+
+    /**
+     * Replaces the nodes, e.g. after discovery, keeping the state of nodes that stay.
+     */
+    synchronized void setHosts(Collection<String> urls) {
+        Map<String, Host> current = new HashMap<>();
+        for (Host host : hosts) {
+            current.put(host.key, host);
+        }
+        List<Host> updated = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            Host host = current.get(key(url));
+            updated.add(host != null ? host : new Host(url));
+        }
+        hosts = updated.toArray(new Host[0]);
+    }
+
+    /**
+     * The url of the node for the next request.
+     *
+     * @throws IOException if the breakers of all nodes are open
+     */
+    String select() throws IOException {
+        Host[] hosts = this.hosts;
+        long now = clock.getAsLong();
+        List<Host> healthy = new ArrayList<>(hosts.length);
+        for (Host host : hosts) {
+            if (host.tryProbe(now)) {
+                return host.url;
+            }
+            if (host.isClosed()) {
+                healthy.add(host);
+            }
+        }
+        if (healthy.isEmpty()) {
+            rejected.increment();
+            throw new IOException("ElasticSearch is unavailable, all " + hosts.length
+                + " nodes failed recently");
+        }
+        if (healthy.size() == 1) {
+            return healthy.get(0).url;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(healthy.size());
+        int second = random.nextInt(healthy.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Host a = healthy.get(first), b = healthy.get(second);
+        return (a.average() <= b.average() ? a : b).url;
+    }
+
+    void success(String url, long latencyMillis) {
+        Host host = host(url);
+        if (host != null) {
+            host.success(latencyMillis);
+        }
+    }
+
+    void failure(String url) {
+        Host host = host(url);
+        if (host != null) {
+            host.failure(clock.getAsLong());
+        }
+    }
+
+    /**
+     * Records the response of a request, counting overloaded or unreachable nodes as failures.
+     */
+    void response(String url, int status, long latencyMillis) {
+        if (status == 502 || status == 503 || status == 504) {
+            failure(url);
+        } else {
+            success(url, latencyMillis);
+        }
+    }
+
+    private Host host(String url) {
+        String key = key(url);
+        for (Host host : hosts) {
+            if (host.key.equals(key)) {
+                return host;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Scheme, host and port of a node or request url.
+     */
+    static String key(String url) {
+        URI uri = URI.create(url.trim());
+        String scheme = uri.getScheme() == null ? "http" : uri.getScheme();
+        int port = uri.getPort() != -1 ? uri.getPort() : "https".equals(scheme) ? 443 : 80;
+        return scheme + "://" + uri.getHost() + ":" + port;
+    }
+
+    void register(ElasticSearchMetrics metrics) {
+        metrics.gauge("hosts", () -> hosts.length);
+        metrics.gauge("hosts.healthy", () -> {
+            long healthy = 0;
+            for (Host host : hosts) {
+                healthy += host.isClosed() ? 1 : 0;
+            }
+            return healthy;
+        });
+        metrics.gauge("hosts.rejectedRequests", rejected::sum);
+    }
+
+    /**
+     * The breaker and latency average of one node.
+     */
+    private class Host {
+
+        final String url;
+        final String key;
+        private double average;
+        private int failures;
+        // 0 while closed, otherwise how often the breaker opened in a row
+        private int opened;
+        private long retryAt;
+        private boolean probing;
+        private long probedAt;
+
+        Host(String url) {
+            this.url = url;
+            this.key = key(url);
+        }
+
+        synchronized boolean isClosed() {
+            return opened == 0;
+        }
+
+        synchronized double average() {
+            return average;
+        }
+
+        /**
+         * Lets one request through to a node whose breaker has been open long enough. A probe
+         * that never reported back is replaced after the open time.
+         */
+        synchronized boolean tryProbe(long now) {
+            if (opened == 0 || now < retryAt || probing && now < probedAt + openMillis) {
+                return false;
+            }
+            probing = true;
+            probedAt = now;
+            return true;
+        }
+
+        synchronized void success(long latencyMillis) {
+            average = average == 0 ? latencyMillis : ALPHA * latencyMillis + (1 - ALPHA) * average;
+            failures = 0;
+            opened = 0;
+            probing = false;
+        }
+
+        synchronized void failure(long now) {
+            failures++;
+            if (probing || (opened == 0 && failures >= failureThreshold)) {
+                probing = false;
+                opened = Math.min(opened + 1, MAX_OPEN_DOUBLINGS + 1);
+                retryAt = now + (openMillis << (opened - 1));
+            }
+        }
+    }
+}
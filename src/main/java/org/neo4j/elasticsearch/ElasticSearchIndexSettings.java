@@ -1,13 +1,21 @@
 package org.neo4j.elasticsearch;
 
+import java.time.Duration;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 public class ElasticSearchIndexSettings {
 
     private Map<String, List<ElasticSearchIndexSpec>> indexSpec;
+    private Map<String, List<ElasticSearchIndexSpec>> relationshipIndexSpec =
+        Collections.emptyMap();
     private boolean includeIDField;
     private boolean includeLabelsField;
+    private boolean partialUpdates;
+    private boolean digests;
+    private long searchCacheSize;
+    private Duration searchCacheTtl = Duration.ZERO;
 
     public ElasticSearchIndexSettings(Map indexSpec, boolean includeIDField,
         boolean includeLabelsField) {
@@ -20,6 +28,14 @@ public class ElasticSearchIndexSettings {
         return indexSpec;
     }
 
+    public Map<String, List<ElasticSearchIndexSpec>> getRelationshipIndexSpec() {
+        return relationshipIndexSpec;
+    }
+
+    public void setRelationshipIndexSpec(Map<String, List<ElasticSearchIndexSpec>> value) {
+        relationshipIndexSpec = value;
+    }
+
     public boolean getIncludeIDField() {
         return includeIDField;
     }
@@ -35,4 +51,36 @@ public class ElasticSearchIndexSettings {
     public void setIncludeLabelsField(boolean value) {
         includeLabelsField = value;
     }
+
+    public boolean getPartialUpdates() {
+        return partialUpdates;
+    }
+
+    public void setPartialUpdates(boolean value) {
+        partialUpdates = value;
+    }
+
+    public boolean getDigests() {
+        return digests;
+    }
+
+    public void setDigests(boolean value) {
+        digests = value;
+    }
+
+    public long getSearchCacheSize() {
+        return searchCacheSize;
+    }
+
+    public void setSearchCacheSize(long value) {
+        searchCacheSize = value;
+    }
+
+    public Duration getSearchCacheTtl() {
+        return searchCacheTtl;
+    }
+
+    public void setSearchCacheTtl(Duration value) {
+        searchCacheTtl = value;
+    }
 }
@@ -6,10 +6,17 @@ class ElasticSearchIndexSpec {
 
     private String indexName;
     private Set<String> properties;
+    private String[] propertyKeys;
+    private byte[][] encodedPropertyKeys;
 
     public ElasticSearchIndexSpec(String indexName, Set<String> properties) {
         this.indexName = indexName;
         this.properties = properties;
+        this.propertyKeys = properties.toArray(new String[0]);
+        this.encodedPropertyKeys = new byte[propertyKeys.length][];
+        for (int i = 0; i < propertyKeys.length; i++) {
+            encodedPropertyKeys[i] = ElasticSearchDocumentWriter.encodeFieldName(propertyKeys[i]);
+        }
     }
 
     public String getIndexName() {
@@ -20,6 +27,20 @@ class ElasticSearchIndexSpec {
         return properties;
     }
 
+    /**
+     * The properties in a fixed order, matching {@link #getEncodedPropertyKeys()}.
+     */
+    String[] getPropertyKeys() {
+        return propertyKeys;
+    }
+
+    /**
+     * The JSON field names of the properties, encoded once for all documents.
+     */
+    byte[][] getEncodedPropertyKeys() {
+        return encodedPropertyKeys;
+    }
+
     public String toString() {
         String s = this.getClass().getSimpleName() + " " + indexName + ": (";
         for (String p : properties) {
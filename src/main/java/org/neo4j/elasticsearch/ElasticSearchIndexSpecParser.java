@@ -1,49 +1,118 @@
 package org.neo4j.elasticsearch;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 
 import java.text.ParseException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ElasticSearchIndexSpecParser {
 
-    private final static Pattern INDEX_SPEC_RE = Pattern.compile(
-        "(?<indexname>[a-z][a-z_-]+):(?<label>[A-Za-z0-9_]+)\\((?<props>[^\\)]+)\\)");
+    private final static String DATABASE_RE = "(?:(?<database>[A-Za-z][A-Za-z0-9.-]*)/)?";
+    private final static Pattern INDEX_SPEC_RE = Pattern.compile(DATABASE_RE
+        + "(?<indexname>[a-z][a-z_-]+):(?<label>[A-Za-z0-9_]+)\\((?<props>[^\\)]+)\\)");
+    private final static Pattern RELATIONSHIP_INDEX_SPEC_RE = Pattern.compile(DATABASE_RE
+        + "(?<indexname>[a-z][a-z_-]+):\\[(?<label>[A-Za-z0-9_]+)\\]\\((?<props>[^\\)]+)\\)");
     private final static Pattern PROPS_SPEC_RE = Pattern.compile("((?!=,)([A-Za-z0-9_]+))+");
 
+    /**
+     * Parses the node entries of the spec that are not qualified with a database.
+     */
     public static Map<String, List<ElasticSearchIndexSpec>> parseIndexSpec(String spec)
         throws ParseException {
+        return parse(spec, INDEX_SPEC_RE, null, null);
+    }
+
+    /**
+     * Parses the node entries of the spec for one database. Entries qualified with a database,
+     * {@code database/index_name:Label(props)}, belong to that database, the others to the
+     * default database.
+     */
+    public static Map<String, List<ElasticSearchIndexSpec>> parseIndexSpec(String spec,
+        String database, String defaultDatabase) throws ParseException {
+        return parse(spec, INDEX_SPEC_RE, database, defaultDatabase);
+    }
+
+    /**
+     * Parses the relationship entries of the spec, written as {@code index_name:[TYPE](props)},
+     * that are not qualified with a database.
+     */
+    public static Map<String, List<ElasticSearchIndexSpec>> parseRelationshipIndexSpec(
+        String spec) throws ParseException {
+        return parse(spec, RELATIONSHIP_INDEX_SPEC_RE, null, null);
+    }
+
+    public static Map<String, List<ElasticSearchIndexSpec>> parseRelationshipIndexSpec(
+        String spec, String database, String defaultDatabase) throws ParseException {
+        return parse(spec, RELATIONSHIP_INDEX_SPEC_RE, database, defaultDatabase);
+    }
+
+    /**
+     * The databases the spec has entries for, the default database first if it has any.
+     */
+    public static Set<String> parseDatabases(String spec, String defaultDatabase) {
+        Set<String> databases = new LinkedHashSet<>();
+        if (spec == null) {
+            return databases;
+        }
+        for (Pattern pattern : asList(INDEX_SPEC_RE, RELATIONSHIP_INDEX_SPEC_RE)) {
+            Matcher matcher = pattern.matcher(spec);
+            while (matcher.find()) {
+                String database = matcher.group("database");
+                databases.add(database == null ? defaultDatabase : database);
+            }
+        }
+        if (databases.remove(defaultDatabase)) {
+            Set<String> ordered = new LinkedHashSet<>();
+            ordered.add(defaultDatabase);
+            ordered.addAll(databases);
+            return ordered;
+        }
+        return databases;
+    }
+
+    private static Map<String, List<ElasticSearchIndexSpec>> parse(String spec, Pattern pattern,
+        String database, String defaultDatabase) throws ParseException {
         if (spec == null) {
             return Collections.emptyMap();
         }
         Map<String, List<ElasticSearchIndexSpec>> map = new LinkedHashMap<>();
-        Matcher matcher = INDEX_SPEC_RE.matcher(spec);
+        Matcher matcher = pattern.matcher(spec);
         while (matcher.find()) {
-
-            Matcher propsMatcher = PROPS_SPEC_RE.matcher(matcher.group("props"));
-            Set<String> props = new HashSet<String>();
-            while (propsMatcher.find()) {
-                props.add(propsMatcher.group());
+            String qualifier = matcher.group("database");
+            if (qualifier == null ? !Objects.equals(database, defaultDatabase)
+                : !qualifier.equals(database)) {
+                continue;
             }
-
             String label = matcher.group("label");
 
             if (map.containsKey(label)) {
                 throw new ParseException(matcher.group(), 0);
             }
-            map.put(label,
-                singletonList(new ElasticSearchIndexSpec(matcher.group("indexname"), props)));
+            map.put(label, singletonList(new ElasticSearchIndexSpec(matcher.group("indexname"),
+                parseProps(matcher.group("props")))));
         }
 
         return map;
     }
 
+    private static Set<String> parseProps(String propsSpec) {
+        Matcher propsMatcher = PROPS_SPEC_RE.matcher(propsSpec);
+        Set<String> props = new HashSet<String>();
+        while (propsMatcher.find()) {
+            props.add(propsMatcher.group());
+        }
+        return props;
+    }
+
 
 }
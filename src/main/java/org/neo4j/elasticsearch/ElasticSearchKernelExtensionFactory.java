@@ -23,15 +23,8 @@ public class ElasticSearchKernelExtensionFactory extends ExtensionFactory<Depend
 
     @Override
     public Lifecycle newInstance(ExtensionContext context, Dependencies dependencies) {
-        Config config = dependencies.getConfig();
-
         return new ElasticSearchExtension(dependencies.getDatabaseManagementService(),
-            config.get(ElasticSearchSettings.hostName),
-            config.get(ElasticSearchSettings.indexSpec),
-            config.get(ElasticSearchSettings.discovery),
-            config.get(ElasticSearchSettings.includeIDField),
-            config.get(ElasticSearchSettings.includeLabelsField),
-            config.get(ElasticSearchSettings.enableAutoIndex));
+            dependencies.getConfig());
     }
 
     public interface Dependencies {
@@ -0,0 +1,96 @@
+package org.neo4j.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap based {@link ElasticSearchQueue}, used when the durable outbox is disabled. Offsets are item
+ * sequence numbers.
+ */
+class ElasticSearchMemoryQueue implements ElasticSearchQueue {
+
+    private final ArrayDeque<ElasticSearchBulkItem> unread = new ArrayDeque<>();
+    private final ArrayDeque<ElasticSearchBulkItem> unacknowledged = new ArrayDeque<>();
+
+    private long readPosition;
+    private long acknowledged;
+    private long pendingBytes;
+    private boolean closed;
+
+    @Override
+    public synchronized void append(Collection<ElasticSearchBulkItem> items) throws IOException {
+        if (closed) {
+            throw new IOException("ElasticSearch queue is closed");
+        }
+        for (ElasticSearchBulkItem item : items) {
+            unread.addLast(item);
+            pendingBytes += item.getLines().length;
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized Batch poll(int maxItems, long maxBytes, long timeout, TimeUnit unit)
+        throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!closed && unread.isEmpty()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (unread.isEmpty()) {
+            return new Batch(Collections.emptyList(), readPosition);
+        }
+
+        List<ElasticSearchBulkItem> items = new ArrayList<>();
+        long bytes = 0;
+        while (items.size() < maxItems && !unread.isEmpty()) {
+            ElasticSearchBulkItem item = unread.peekFirst();
+            bytes += item.getLines().length;
+            if (!items.isEmpty() && bytes > maxBytes) {
+                break;
+            }
+            items.add(unread.pollFirst());
+            unacknowledged.addLast(item);
+            readPosition++;
+        }
+        return new Batch(items, readPosition);
+    }
+
+    @Override
+    public synchronized void acknowledge(long offset) {
+        while (acknowledged < offset && !unacknowledged.isEmpty()) {
+            pendingBytes -= unacknowledged.pollFirst().getLines().length;
+            acknowledged++;
+        }
+    }
+
+    @Override
+    public synchronized void rewind() {
+        Iterator<ElasticSearchBulkItem> reverse = unacknowledged.descendingIterator();
+        while (reverse.hasNext()) {
+            unread.addFirst(reverse.next());
+        }
+        unacknowledged.clear();
+        readPosition = acknowledged;
+    }
+
+    @Override
+    public synchronized long pendingBytes() {
+        return pendingBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
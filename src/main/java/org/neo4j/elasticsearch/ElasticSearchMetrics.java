@@ -0,0 +1,131 @@
+package org.neo4j.elasticsearch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, histograms and gauges of the indexing pipeline, from the committed transaction to the
+ * acknowledged bulk. Everything is lock-free, so recording is safe on the commit path.
+ * <p>
+ * {@link #snapshot()} flattens the metrics into names like {@code bulk.latencyMillis.p99}, the
+ * same names are exposed as JMX attributes by {@link ElasticSearchMetricsMBean} and returned by
+ * the {@code es.stats()} procedure.
+ */
+public class ElasticSearchMetrics {
+
+    private final LongAdder transactions = new LongAdder();
+    private final LongAdder actions = new LongAdder();
+    private final ElasticSearchHistogram actionsPerTransaction = new ElasticSearchHistogram();
+
+    private final LongAdder bulks = new LongAdder();
+    private final ElasticSearchHistogram bulkActions = new ElasticSearchHistogram();
+    private final ElasticSearchHistogram bulkBytes = new ElasticSearchHistogram();
+    private final ElasticSearchHistogram bulkLatencyMillis = new ElasticSearchHistogram();
+    private final LongAdder bulkErrors = new LongAdder();
+    private final LongAdder superseded = new LongAdder();
+
+    private final ElasticSearchHistogram ackLagMillis = new ElasticSearchHistogram();
+    private final AtomicLong lastAckLagMillis = new AtomicLong();
+
+    private final Map<String, LongAdder> retries = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    void transaction(int actionCount) {
+        transactions.increment();
+        actions.add(actionCount);
+        actionsPerTransaction.record(actionCount);
+    }
+
+    void bulk(int actionCount, long bytes, long latencyMillis) {
+        bulks.increment();
+        bulkActions.record(actionCount);
+        bulkBytes.record(bytes);
+        bulkLatencyMillis.record(latencyMillis);
+    }
+
+    /**
+     * A bulk request that failed as a whole, e.g. because ElasticSearch was unreachable.
+     */
+    void bulkError() {
+        bulkErrors.increment();
+    }
+
+    /**
+     * A conditional background write that ElasticSearch rejected because the document was
+     * written again in the meantime.
+     */
+    void superseded() {
+        superseded.increment();
+    }
+
+    void retried(String indexName) {
+        retries.computeIfAbsent(indexName, i -> new LongAdder()).increment();
+    }
+
+    void failed(String indexName) {
+        failures.computeIfAbsent(indexName, i -> new LongAdder()).increment();
+    }
+
+    /**
+     * Time from the commit of the oldest change in an acknowledged bulk until the
+     * acknowledgement.
+     */
+    void acknowledged(long lagMillis) {
+        ackLagMillis.record(lagMillis);
+        lastAckLagMillis.set(lagMillis);
+    }
+
+    /**
+     * Registers a value that is read when the metrics are reported, like the queue depth.
+     */
+    void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("transactions", transactions.sum());
+        snapshot.put("actions", actions.sum());
+        histogram(snapshot, "transaction.actions", actionsPerTransaction);
+        snapshot.put("bulks", bulks.sum());
+        snapshot.put("bulk.errors", bulkErrors.sum());
+        snapshot.put("bulk.superseded", superseded.sum());
+        histogram(snapshot, "bulk.actions", bulkActions);
+        histogram(snapshot, "bulk.bytes", bulkBytes);
+        histogram(snapshot, "bulk.latencyMillis", bulkLatencyMillis);
+        histogram(snapshot, "ack.lagMillis", ackLagMillis);
+        snapshot.put("ack.lastLagMillis", lastAckLagMillis.get());
+        for (Map.Entry<String, LongSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            snapshot.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        counters(snapshot, "retries", retries);
+        counters(snapshot, "failures", failures);
+        return snapshot;
+    }
+
+    private static void histogram(Map<String, Object> snapshot, String name,
+        ElasticSearchHistogram histogram) {
+        snapshot.put(name + ".count", histogram.count());
+        snapshot.put(name + ".mean", histogram.mean());
+        snapshot.put(name + ".p50", histogram.percentile(0.5));
+        snapshot.put(name + ".p99", histogram.percentile(0.99));
+        snapshot.put(name + ".max", histogram.max());
+    }
+
+    private static void counters(Map<String, Object> snapshot, String name,
+        Map<String, LongAdder> counters) {
+        long total = 0;
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            long value = counter.getValue().sum();
+            snapshot.put(name + "." + counter.getKey(), value);
+            total += value;
+        }
+        snapshot.put(name, total);
+    }
+}
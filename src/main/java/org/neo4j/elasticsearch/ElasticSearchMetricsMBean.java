@@ -0,0 +1,111 @@
+package org.neo4j.elasticsearch;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes every entry of the {@link ElasticSearchMetrics#snapshot()} as a read-only JMX attribute
+ * of {@code org.neo4j.elasticsearch:type=Metrics,database="<database>"}, one bean per indexed
+ * database. Per-index counters show up as soon as the index has been seen.
+ */
+class ElasticSearchMetricsMBean implements DynamicMBean {
+
+    private final static Logger logger = Logger.getLogger(
+        ElasticSearchMetricsMBean.class.getName());
+
+    private final ElasticSearchMetrics metrics;
+    private ObjectName name;
+
+    ElasticSearchMetricsMBean(ElasticSearchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void register(String database) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            name = new ObjectName("org.neo4j.elasticsearch:type=Metrics,database="
+                + ObjectName.quote(database));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Could not register ElasticSearch metrics with JMX", e);
+            name = null;
+        }
+    }
+
+    void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            logger.log(Level.FINE, "Could not unregister ElasticSearch metrics", e);
+        }
+        name = null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = metrics.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> snapshot = metrics.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            if (snapshot.containsKey(attribute)) {
+                list.add(new Attribute(attribute, snapshot.get(attribute)));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature)
+        throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : metrics.snapshot().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(entry.getKey(),
+                entry.getValue().getClass().getName(), entry.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "ElasticSearch indexing metrics",
+            attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
@@ -0,0 +1,81 @@
+package org.neo4j.elasticsearch;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.neo4j.graphdb.Node;
+import org.neo4j.internal.kernel.api.NodeCursor;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+
+/**
+ * Resolves search hits to nodes of the current transaction one batch at a time, as the results
+ * are consumed. The nodes of a batch are checked in id order with a single cursor, and hits of
+ * nodes that no longer exist, because the index lags behind or the node was deleted in this
+ * transaction, are skipped.
+ */
+class ElasticSearchNodeHydrator<T> implements Iterator<T> {
+
+    private final InternalTransaction tx;
+    private final List<ElasticSearchHit> hits;
+    private final int batchSize;
+    private final BiFunction<Node, ElasticSearchHit, T> result;
+    private final ArrayDeque<T> batch = new ArrayDeque<>();
+    private int position;
+
+    ElasticSearchNodeHydrator(InternalTransaction tx, List<ElasticSearchHit> hits, int batchSize,
+        BiFunction<Node, ElasticSearchHit, T> result) {
+        this.tx = tx;
+        this.hits = hits;
+        this.batchSize = batchSize;
+        this.result = result;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (batch.isEmpty() && position < hits.size()) {
+            nextBatch();
+        }
+        return !batch.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return batch.poll();
+    }
+
+    private void nextBatch() {
+        List<ElasticSearchHit> chunk = hits.subList(position,
+            Math.min(hits.size(), position + batchSize));
+        position += chunk.size();
+
+        LongHashSet ids = new LongHashSet(chunk.size());
+        for (ElasticSearchHit hit : chunk) {
+            ids.add(hit.getId());
+        }
+        long[] sorted = ids.toSortedArray();
+        LongHashSet existing = new LongHashSet(sorted.length);
+        KernelTransaction ktx = tx.kernelTransaction();
+        Read read = ktx.dataRead();
+        try (NodeCursor cursor = ktx.cursors().allocateNodeCursor(ktx.cursorContext())) {
+            for (long id : sorted) {
+                read.singleNode(id, cursor);
+                if (cursor.next()) {
+                    existing.add(id);
+                }
+            }
+        }
+        for (ElasticSearchHit hit : chunk) {
+            if (existing.contains(hit.getId())) {
+                batch.add(result.apply(tx.newNodeEntity(hit.getId()), hit));
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.internal.kernel.api.NodeCursor;
+import org.neo4j.internal.kernel.api.TokenSet;
+import org.neo4j.internal.kernel.api.exceptions.LabelNotFoundKernelException;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.NodeEntity;
+
+/**
+ * Reads labels and properties of a node as token ids.
+ */
+class ElasticSearchNodeReader extends ElasticSearchEntityReader<NodeCursor> {
+
+    private ElasticSearchNodeReader(KernelTransaction ktx, NodeCursor cursor, long nodeId) {
+        super(ktx, cursor, position(ktx, cursor, nodeId));
+    }
+
+    private static boolean position(KernelTransaction ktx, NodeCursor cursor, long nodeId) {
+        ktx.dataRead().singleNode(nodeId, cursor);
+        return cursor.next();
+    }
+
+    static ElasticSearchNodeReader open(Node node) {
+        KernelTransaction ktx = ((NodeEntity) node).getTransaction().kernelTransaction();
+        return new ElasticSearchNodeReader(ktx,
+            ktx.cursors().allocateNodeCursor(ktx.cursorContext()), node.getId());
+    }
+
+    TokenSet labels() {
+        return exists ? cursor.labels() : TokenSet.NONE;
+    }
+
+    String labelName(int labelId) {
+        try {
+            return ktx.tokenRead().nodeLabelName(labelId);
+        } catch (LabelNotFoundKernelException e) {
+            throw new NotFoundException(e);
+        }
+    }
+}
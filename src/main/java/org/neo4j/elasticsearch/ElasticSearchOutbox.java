@@ -0,0 +1,301 @@
+package org.neo4j.elasticsearch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only {@link ElasticSearchQueue}.
+ * <p>
+ * Items are appended to a sequence of fixed size, memory-mapped segment files. Each record is
+ * prefixed by its length and a CRC32 of its content, so a torn write at the tail is detected and
+ * overwritten on the next open. Positions are global offsets ({@code segment * segmentSize +
+ * offset}); the consumer acknowledges the offset up to which ElasticSearch accepted the items and
+ * that offset is persisted in a checkpoint file. Fully acknowledged segments are deleted, and a
+ * reopened outbox resumes reading from the checkpoint.
+ * <p>
+ * Appended records are written to the mapped segments, which the operating system writes back
+ * in its own time, and a segment is only forced to disk when it is full. That survives a crash of
+ * the database process, but not of the operating system or a power failure. Opened with {@code
+ * force}, every append forces its segment to disk before it returns, at the cost of a sync per
+ * transaction.
+ */
+class ElasticSearchOutbox implements ElasticSearchQueue {
+
+    private final static Logger logger = Logger.getLogger(ElasticSearchOutbox.class.getName());
+
+    private static final String SEGMENT_PREFIX = "outbox-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_SIZE = 8;
+    private static final int END_OF_SEGMENT = -1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final FileChannel checkpointChannel;
+    private final boolean force;
+
+    private long writePosition;
+    private long readPosition;
+    private long checkpoint;
+    private boolean closed;
+
+    private ElasticSearchOutbox(Path directory, int segmentSize, FileChannel checkpointChannel,
+        boolean force) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.checkpointChannel = checkpointChannel;
+        this.force = force;
+    }
+
+    static ElasticSearchOutbox open(Path directory, long segmentSize) throws IOException {
+        return open(directory, segmentSize, false);
+    }
+
+    /**
+     * @param force whether every append is forced to disk before it returns
+     */
+    static ElasticSearchOutbox open(Path directory, long segmentSize, boolean force)
+        throws IOException {
+        if (segmentSize <= HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid outbox segment size " + segmentSize);
+        }
+        Files.createDirectories(directory);
+        FileChannel checkpointChannel = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ElasticSearchOutbox outbox = new ElasticSearchOutbox(directory, (int) segmentSize,
+            checkpointChannel, force);
+        outbox.recover();
+        return outbox;
+    }
+
+    private void recover() throws IOException {
+        checkpoint = readCheckpoint();
+        long checkpointSegment = checkpoint / segmentSize;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+            SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                long segment = segmentNumber(file);
+                if (segment < checkpointSegment) {
+                    Files.delete(file);
+                } else {
+                    segments.put(segment, map(segment));
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            segments.put(checkpointSegment, map(checkpointSegment));
+        } else if (segments.firstKey() > checkpointSegment) {
+            // the checkpointed segment is gone, so everything before the oldest one was shipped
+            checkpoint = segments.firstKey() * segmentSize;
+        }
+
+        long lastSegment = segments.lastKey();
+        ByteBuffer buffer = segments.get(lastSegment).duplicate();
+        int offset = lastSegment == checkpointSegment ? (int) (checkpoint % segmentSize) : 0;
+        while (offset + HEADER_SIZE <= segmentSize) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + HEADER_SIZE + length > segmentSize
+                || buffer.getInt(offset + 4) != crc(buffer, offset + HEADER_SIZE, length)) {
+                break;
+            }
+            offset += HEADER_SIZE + length;
+        }
+        writePosition = lastSegment * segmentSize + offset;
+        readPosition = checkpoint;
+        if (writePosition > checkpoint) {
+            logger.info("ElasticSearch outbox: resuming with " + (writePosition - checkpoint)
+                + " bytes not yet acknowledged");
+        }
+    }
+
+    /**
+     * Appends the items of one transaction. Returns once the records are in the mapped segments,
+     * which survives a crash of the database process, or once they are on disk if the outbox
+     * forces every append.
+     */
+    @Override
+    public synchronized void append(Collection<ElasticSearchBulkItem> items) throws IOException {
+        if (closed) {
+            throw new IOException("ElasticSearch outbox is closed");
+        }
+        for (ElasticSearchBulkItem item : items) {
+            int length = item.encodedLength();
+            if (HEADER_SIZE + length > segmentSize) {
+                throw new IOException("Bulk item " + item + " of " + length
+                    + " bytes does not fit into an outbox segment of " + segmentSize + " bytes");
+            }
+            long segment = writePosition / segmentSize;
+            int offset = (int) (writePosition % segmentSize);
+            if (offset + HEADER_SIZE + length > segmentSize) {
+                roll(segment, offset);
+                segment++;
+                offset = 0;
+            }
+            ByteBuffer buffer = writableSegment(segment).duplicate();
+            buffer.position(offset + HEADER_SIZE);
+            item.writeTo(buffer);
+            buffer.putInt(offset + 4, crc(buffer, offset + HEADER_SIZE, length));
+            buffer.putInt(offset, length);
+            writePosition += HEADER_SIZE + length;
+        }
+        if (force && !items.isEmpty()) {
+            // earlier segments of this append were forced when they were rolled
+            segments.get((writePosition - 1) / segmentSize).force();
+        }
+        notifyAll();
+    }
+
+    private void roll(long segment, int offset) {
+        MappedByteBuffer current = segments.get(segment);
+        if (offset + 4 <= segmentSize) {
+            current.putInt(offset, END_OF_SEGMENT);
+        }
+        current.force();
+        writePosition = (segment + 1) * segmentSize;
+    }
+
+    private MappedByteBuffer writableSegment(long segment) throws IOException {
+        MappedByteBuffer buffer = segments.get(segment);
+        if (buffer == null) {
+            buffer = map(segment);
+            segments.put(segment, buffer);
+        }
+        return buffer;
+    }
+
+    @Override
+    public synchronized Batch poll(int maxItems, long maxBytes, long timeout, TimeUnit unit)
+        throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!closed && readPosition == writePosition) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return new Batch(Collections.emptyList(), readPosition);
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (closed) {
+            return new Batch(Collections.emptyList(), readPosition);
+        }
+
+        List<ElasticSearchBulkItem> items = new ArrayList<>();
+        long bytes = 0;
+        while (items.size() < maxItems && readPosition < writePosition) {
+            long segment = readPosition / segmentSize;
+            int offset = (int) (readPosition % segmentSize);
+            ByteBuffer buffer = segments.get(segment).duplicate();
+            if (offset + HEADER_SIZE > segmentSize || buffer.getInt(offset) == END_OF_SEGMENT) {
+                readPosition = (segment + 1) * segmentSize;
+                continue;
+            }
+            int length = buffer.getInt(offset);
+            buffer.position(offset + HEADER_SIZE);
+            ElasticSearchBulkItem item = ElasticSearchBulkItem.readFrom(buffer);
+            bytes += item.getLines().length;
+            if (!items.isEmpty() && bytes > maxBytes) {
+                break;
+            }
+            items.add(item);
+            readPosition += HEADER_SIZE + length;
+        }
+        return new Batch(items, readPosition);
+    }
+
+    @Override
+    public synchronized void acknowledge(long offset) throws IOException {
+        if (closed || offset <= checkpoint) {
+            return;
+        }
+        checkpoint = offset;
+        writeCheckpoint(offset);
+
+        long checkpointSegment = offset / segmentSize;
+        while (segments.firstKey() < checkpointSegment) {
+            Map.Entry<Long, MappedByteBuffer> oldest = segments.pollFirstEntry();
+            Files.deleteIfExists(segmentFile(oldest.getKey()));
+        }
+    }
+
+    @Override
+    public synchronized void rewind() {
+        readPosition = checkpoint;
+    }
+
+    @Override
+    public synchronized long pendingBytes() {
+        return writePosition - checkpoint;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notifyAll();
+        for (MappedByteBuffer segment : segments.values()) {
+            segment.force();
+        }
+        segments.clear();
+        checkpointChannel.close();
+    }
+
+    private MappedByteBuffer map(long segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(segment),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private Path segmentFile(long segment) {
+        return directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, segment,
+            SEGMENT_SUFFIX));
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(
+            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private long readCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        if (checkpointChannel.read(buffer, 0) < Long.BYTES) {
+            return 0;
+        }
+        return buffer.getLong(0);
+    }
+
+    private void writeCheckpoint(long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        buffer.putLong(0, offset);
+        checkpointChannel.write(buffer, 0);
+        checkpointChannel.force(false);
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length).position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+}
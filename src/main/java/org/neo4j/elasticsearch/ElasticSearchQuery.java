@@ -0,0 +1,75 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.searchbox.core.SearchResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders the body of a search request and reads the hits of its response. Only ids and scores
+ * are requested, the documents themselves are read from the graph.
+ */
+class ElasticSearchQuery {
+
+    private static final Gson gson = new Gson();
+
+    private ElasticSearchQuery() {
+    }
+
+    /**
+     * The search body for a query given as a map or JSON string of the query DSL, or as a plain
+     * string for a {@code query_string} query.
+     */
+    static String body(Object query, int from, int size) {
+        JsonObject body = new JsonObject();
+        body.add("query", query(query));
+        body.addProperty("from", from);
+        body.addProperty("size", size);
+        body.addProperty("_source", false);
+        return gson.toJson(body);
+    }
+
+    private static JsonElement query(Object query) {
+        if (query instanceof Map) {
+            return gson.toJsonTree(query);
+        }
+        String string = String.valueOf(query).trim();
+        if (string.startsWith("{")) {
+            return new JsonParser().parse(string);
+        }
+        JsonObject queryString = new JsonObject();
+        queryString.addProperty("query", string);
+        JsonObject wrapper = new JsonObject();
+        wrapper.add("query_string", queryString);
+        return wrapper;
+    }
+
+    /**
+     * The hits in the order ElasticSearch ranked them, skipping documents whose id is not a node
+     * id.
+     */
+    static List<ElasticSearchHit> hits(SearchResult result) {
+        List<ElasticSearchHit> hits = new ArrayList<>();
+        JsonObject json = result.getJsonObject();
+        if (json == null || !json.has("hits")) {
+            return hits;
+        }
+        for (JsonElement element : json.getAsJsonObject("hits").getAsJsonArray("hits")) {
+            JsonObject hit = element.getAsJsonObject();
+            long id;
+            try {
+                id = Long.parseLong(hit.get("_id").getAsString());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            JsonElement score = hit.get("_score");
+            hits.add(new ElasticSearchHit(id,
+                score == null || score.isJsonNull() ? 0 : score.getAsDouble()));
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,61 @@
+package org.neo4j.elasticsearch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of {@link ElasticSearchBulkItem}s between the committing threads and the
+ * {@link ElasticSearchShipper}. Items stay in the queue after they were polled until their offset
+ * is acknowledged, so they can be polled again after a {@link #rewind()}.
+ */
+interface ElasticSearchQueue extends Closeable {
+
+    void append(Collection<ElasticSearchBulkItem> items) throws IOException;
+
+    /**
+     * Waits up to the given timeout for items and returns at most {@code maxItems} of them with at
+     * most {@code maxBytes} of bulk lines (but at least one item), starting after the items
+     * returned by the previous call.
+     */
+    Batch poll(int maxItems, long maxBytes, long timeout, TimeUnit unit)
+        throws InterruptedException;
+
+    /**
+     * Marks everything before the given offset as accepted by ElasticSearch.
+     */
+    void acknowledge(long offset) throws IOException;
+
+    /**
+     * Moves the read position back to the last acknowledged offset, so unacknowledged items are
+     * polled again.
+     */
+    void rewind();
+
+    long pendingBytes();
+
+    class Batch {
+
+        private final List<ElasticSearchBulkItem> items;
+        private final long endOffset;
+
+        Batch(List<ElasticSearchBulkItem> items, long endOffset) {
+            this.items = items;
+            this.endOffset = endOffset;
+        }
+
+        List<ElasticSearchBulkItem> getItems() {
+            return items;
+        }
+
+        long getEndOffset() {
+            return endOffset;
+        }
+
+        boolean isEmpty() {
+            return items.isEmpty();
+        }
+    }
+}
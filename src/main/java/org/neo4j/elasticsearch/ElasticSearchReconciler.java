@@ -0,0 +1,415 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestClient;
+import io.searchbox.core.Delete;
+import io.searchbox.core.DocumentResult;
+import io.searchbox.core.Index;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
+import io.searchbox.params.Parameters;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.NodeCursor;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.storageengine.api.StorageEngine;
+
+/**
+ * Compares the node indexes with the graph in the background and repairs the documents that
+ * drifted, e.g. because ElasticSearch rejected them or was changed by someone else.
+ * <p>
+ * Every document carries the digests of its fields, see
+ * {@link ElasticSearchDocumentWriter#recordDigests()}. The node ids up to the high id of the node
+ * store are walked in ranges of {@link #RANGE} ids, each split into leaves of {@link #LEAF} ids.
+ * For each range one aggregation returns the number of documents and the sum of their digests
+ * per leaf, without any {@code _source}, which are compared with the same numbers of the
+ * documents rendered from the graph. Only for the leaves that differ the digests of the single
+ * documents are fetched, with their {@code _seq_no} and {@code _primary_term}, and compared with
+ * the graph read afterwards, so a consistent index costs one small search per range. Nothing is
+ * remembered between passes, so a restart does not make the next pass more expensive. Changes
+ * that keep the stored digests, e.g. edits of the documents outside of Neo4j, go unnoticed;
+ * documents without digests are replaced.
+ * <p>
+ * The repairs are conditional writes, so they never override a document written by the live
+ * queue in the meantime: a missing document is created only if it still does not exist, and a
+ * different document is replaced, or the document of a node that no longer exists is deleted,
+ * only if it still has the sequence number that was read. Because the index is read before the
+ * graph, the graph side is never older than the index side; a node created in between is
+ * missing from the index, not extra. Repairs that lose against a newer write are rejected with a
+ * conflict and counted as {@code bulk.superseded}. They are shipped through the background queue
+ * once the background lane of the {@link ElasticSearchThrottle} lets them through.
+ * <p>
+ * The walk is throttled to {@code rate} node ids per second, and waits {@code interval} between
+ * passes.
+ */
+class ElasticSearchReconciler implements Runnable {
+
+    private final static Logger logger = Logger.getLogger(
+        ElasticSearchReconciler.class.getName());
+
+    static final int RANGE = 1024;
+    static final int LEAF = 64;
+    private static final long STOP_TIMEOUT_MS = 10000;
+
+    private static final Gson gson = new Gson();
+
+    private final DatabaseManagementService dms;
+    private final String database;
+    private final ElasticSearchHandler handler;
+    private final JestClient jestClient;
+    private final Map<String, List<ElasticSearchIndexSpec>> indexSpec;
+    private final int rate;
+    private final long intervalMillis;
+
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong mismatchedLeaves = new AtomicLong();
+    private final AtomicLong repaired = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+
+    private volatile boolean stopped;
+    private Thread thread;
+
+    ElasticSearchReconciler(DatabaseManagementService dms, String database,
+        ElasticSearchHandler handler, JestClient jestClient,
+        Map<String, List<ElasticSearchIndexSpec>> indexSpec, int rate, Duration interval) {
+        this.dms = dms;
+        this.database = database;
+        this.handler = handler;
+        this.jestClient = jestClient;
+        this.indexSpec = indexSpec;
+        this.rate = rate;
+        this.intervalMillis = interval.toMillis();
+    }
+
+    synchronized void start() {
+        stopped = false;
+        thread = new Thread(this, "neo4j-elasticsearch-reconcile-" + database);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized void stop() throws InterruptedException {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join(STOP_TIMEOUT_MS);
+            thread = null;
+        }
+    }
+
+    void register(ElasticSearchMetrics metrics) {
+        metrics.gauge("reconcile.passes", passes::get);
+        metrics.gauge("reconcile.checkedIds", checked::get);
+        metrics.gauge("reconcile.mismatchedLeaves", mismatchedLeaves::get);
+        metrics.gauge("reconcile.repaired", repaired::get);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopped) {
+                try {
+                    GraphDatabaseService db = dms.database(database);
+                    if (db.isAvailable(intervalMillis)) {
+                        reconcile(db);
+                        passes.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "ElasticSearch reconciliation of " + database
+                        + " failed, trying again in " + intervalMillis + "ms", e);
+                }
+                Thread.sleep(intervalMillis);
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * Runs one pass over all node indexes and returns the number of repairs.
+     */
+    long reconcile(GraphDatabaseService db) throws IOException, InterruptedException {
+        long highId = ((GraphDatabaseAPI) db).getDependencyResolver()
+            .resolveDependency(StorageEngine.class).storeEntityCounters().nodes();
+        long repairs = 0;
+        for (Map.Entry<String, List<ElasticSearchIndexSpec>> entry : indexSpec.entrySet()) {
+            for (ElasticSearchIndexSpec spec : entry.getValue()) {
+                repairs += reconcile(db, entry.getKey(), spec.getIndexName(),
+                    handler.digestedFields(spec), highId);
+            }
+        }
+        return repairs;
+    }
+
+    private long reconcile(GraphDatabaseService db, String label, String indexName,
+        List<String> fields, long highId) throws IOException, InterruptedException {
+        long nanosPerRange = rate > 0 ? RANGE * 1_000_000_000L / rate : 0;
+        long repairs = 0;
+        for (long start = 0; start < highId && !stopped; start += RANGE) {
+            long began = System.nanoTime();
+            repairs += reconcileRange(db, label, indexName, fields, start);
+            checked.addAndGet(RANGE);
+            long remaining = nanosPerRange - (System.nanoTime() - began);
+            if (remaining > 0) {
+                Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            }
+        }
+        if (repairs > 0) {
+            logger.info("ElasticSearch reconciliation repaired " + repairs + " documents of "
+                + indexName + " (:" + label + ")");
+        }
+        return repairs;
+    }
+
+    private int reconcileRange(GraphDatabaseService db, String label, String indexName,
+        List<String> fields, long start) throws IOException {
+        long[][] indexedLeaves = leaves(indexName, fields, start);
+        long[][] graphLeaves = new long[RANGE / LEAF][2];
+        try (Transaction tx = db.beginTx()) {
+            documents((InternalTransaction) tx, label, indexName, start, RANGE)
+                .forEachKeyValue((id, action) -> {
+                    long[] leaf = graphLeaves[(int) (id - start) / LEAF];
+                    leaf[0]++;
+                    leaf[1] += ElasticSearchRenderedSource.digest(action);
+                });
+        }
+        int repairs = 0;
+        for (int leaf = 0; leaf < RANGE / LEAF; leaf++) {
+            if (!Arrays.equals(indexedLeaves[leaf], graphLeaves[leaf])) {
+                mismatchedLeaves.incrementAndGet();
+                repairs += repairLeaf(db, label, indexName, start + (long) leaf * LEAF);
+            }
+        }
+        return repairs;
+    }
+
+    private int repairLeaf(GraphDatabaseService db, String label, String indexName, long start)
+        throws IOException {
+        // the index first, so that the graph read afterwards is at least as new
+        LongObjectHashMap<Indexed> indexed = indexed(indexName, start);
+        List<BulkableAction<DocumentResult>> repairs = new ArrayList<>();
+        try (Transaction tx = db.beginTx()) {
+            LongObjectHashMap<Index> documents = documents((InternalTransaction) tx, label,
+                indexName, start, LEAF);
+            for (long id = start; id < start + LEAF; id++) {
+                Index document = documents.get(id);
+                Indexed current = indexed.get(id);
+                if (document != null) {
+                    if (current == null) {
+                        repairs.add(create(document));
+                    } else if (current.digest != ElasticSearchRenderedSource.digest(document)) {
+                        repairs.add(current.condition(replace(document)));
+                    }
+                } else if (current != null) {
+                    repairs.add(current.condition(new Delete.Builder(String.valueOf(id))
+                        .index(indexName).type(label)));
+                }
+            }
+        }
+        if (!repairs.isEmpty()) {
+            handler.execute(repairs, ElasticSearchBulkItem.NO_TRANSACTION,
+                ElasticSearchThrottle.Lane.BACKGROUND);
+            repaired.addAndGet(repairs.size());
+        }
+        return repairs.size();
+    }
+
+    /**
+     * Renders the documents of the nodes of the label in the ids from {@code start}, by node id.
+     */
+    private LongObjectHashMap<Index> documents(InternalTransaction tx, String label,
+        String indexName, long start, int count) {
+        LongObjectHashMap<Index> documents = new LongObjectHashMap<>();
+        KernelTransaction ktx = tx.kernelTransaction();
+        int labelId = ktx.tokenRead().nodeLabel(label);
+        if (labelId == TokenRead.NO_TOKEN) {
+            return documents;
+        }
+        try (NodeCursor cursor = ktx.cursors().allocateNodeCursor(ktx.cursorContext())) {
+            for (long id = start; id < start + count; id++) {
+                ktx.dataRead().singleNode(id, cursor);
+                if (!cursor.next() || !cursor.hasLabel(labelId)) {
+                    continue;
+                }
+                for (Map.Entry<ElasticSearchHandler.IndexId, Index> request
+                    : handler.indexRequests(tx.newNodeEntity(id), label).entrySet()) {
+                    if (request.getKey().indexName.equals(indexName)) {
+                        documents.put(id, request.getValue());
+                    }
+                }
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * The number of documents and the sum of their digests the index has per leaf of the range.
+     */
+    private long[][] leaves(String indexName, List<String> fields, long start)
+        throws IOException {
+        JsonArray filters = new JsonArray();
+        for (long leaf = start; leaf < start + RANGE; leaf += LEAF) {
+            filters.add(ids(leaf, LEAF));
+        }
+        JsonObject sums = new JsonObject();
+        for (int i = 0; i < fields.size(); i++) {
+            JsonObject sum = new JsonObject();
+            sum.addProperty("field", ElasticSearchHandler.DIGEST + "." + fields.get(i));
+            sums.add("digest" + i, wrap("sum", sum));
+        }
+        JsonObject leaves = wrap("filters", wrap("filters", filters));
+        leaves.add("aggs", sums);
+
+        JsonObject body = new JsonObject();
+        body.addProperty("size", 0);
+        body.add("query", ids(start, RANGE));
+        body.add("aggs", wrap("leaves", leaves));
+        JsonArray buckets = search(indexName, body).getAsJsonObject("aggregations")
+            .getAsJsonObject("leaves").getAsJsonArray("buckets");
+
+        long[][] counts = new long[RANGE / LEAF][2];
+        for (int leaf = 0; leaf < counts.length; leaf++) {
+            JsonObject bucket = buckets.get(leaf).getAsJsonObject();
+            counts[leaf][0] = bucket.get("doc_count").getAsLong();
+            for (int i = 0; i < fields.size(); i++) {
+                // the digests are small enough for the sums to be exact doubles
+                counts[leaf][1] += (long) bucket.getAsJsonObject("digest" + i).get("value")
+                    .getAsDouble();
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * The stored digests and sequence numbers of the documents the index has for the ids of the
+     * leaf, by node id.
+     */
+    private LongObjectHashMap<Indexed> indexed(String indexName, long start) throws IOException {
+        JsonArray source = new JsonArray();
+        source.add(ElasticSearchHandler.DIGEST);
+        JsonObject body = new JsonObject();
+        body.addProperty("size", LEAF);
+        body.addProperty("seq_no_primary_term", true);
+        body.add("_source", source);
+        body.add("query", ids(start, LEAF));
+        LongObjectHashMap<Indexed> indexed = new LongObjectHashMap<>();
+        for (JsonElement hit : search(indexName, body).getAsJsonObject("hits")
+            .getAsJsonArray("hits")) {
+            JsonObject document = hit.getAsJsonObject();
+            try {
+                indexed.put(Long.parseLong(document.get("_id").getAsString()),
+                    new Indexed(digest(document.getAsJsonObject("_source")),
+                        document.get("_seq_no"), document.get("_primary_term")));
+            } catch (NumberFormatException e) {
+                // not a node document
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * The sum of the digests stored with the document, {@code 0} if it has none.
+     */
+    private static long digest(JsonObject source) {
+        long digest = 0;
+        JsonElement digests = source != null ? source.get(ElasticSearchHandler.DIGEST) : null;
+        if (digests != null && digests.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> field : digests.getAsJsonObject().entrySet()) {
+                if (field.getValue().isJsonPrimitive()) {
+                    digest += field.getValue().getAsLong();
+                }
+            }
+        }
+        return digest;
+    }
+
+    private static Index create(Index action) {
+        return replace(action).setParameter(Parameters.OP_TYPE, "create").build();
+    }
+
+    private static Index.Builder replace(Index action) {
+        return ElasticSearchRenderedSource.copy(action);
+    }
+
+    private JsonObject search(String indexName, JsonObject body) throws IOException {
+        SearchResult result = jestClient.execute(
+            new Search.Builder(gson.toJson(body)).addIndex(indexName).build());
+        if (!result.isSucceeded()) {
+            throw new IOException("ElasticSearch reconciliation search failed: "
+                + result.getErrorMessage());
+        }
+        return result.getJsonObject();
+    }
+
+    private static JsonObject ids(long start, int count) {
+        JsonArray values = new JsonArray();
+        for (long id = start; id < start + count; id++) {
+            values.add(String.valueOf(id));
+        }
+        JsonObject ids = new JsonObject();
+        ids.add("values", values);
+        return wrap("ids", ids);
+    }
+
+    private static JsonObject wrap(String name, JsonElement value) {
+        JsonObject object = new JsonObject();
+        object.add(name, value);
+        return object;
+    }
+
+    /**
+     * A document as it was read from the index.
+     */
+    private static class Indexed {
+
+        final long digest;
+        final JsonElement seqNo, primaryTerm;
+
+        Indexed(long digest, JsonElement seqNo, JsonElement primaryTerm) {
+            this.digest = digest;
+            this.seqNo = seqNo;
+            this.primaryTerm = primaryTerm;
+        }
+
+        /**
+         * Builds the action so that it only applies while the document is unchanged.
+         */
+        Index condition(Index.Builder builder) {
+            if (seqNo != null && primaryTerm != null) {
+                builder.setParameter(ElasticSearchBulkItem.IF_SEQ_NO, seqNo.getAsLong())
+                    .setParameter(ElasticSearchBulkItem.IF_PRIMARY_TERM,
+                        primaryTerm.getAsLong());
+            }
+            return builder.build();
+        }
+
+        Delete condition(Delete.Builder builder) {
+            if (seqNo != null && primaryTerm != null) {
+                builder.setParameter(ElasticSearchBulkItem.IF_SEQ_NO, seqNo.getAsLong())
+                    .setParameter(ElasticSearchBulkItem.IF_PRIMARY_TERM,
+                        primaryTerm.getAsLong());
+            }
+            return builder.build();
+        }
+    }
+}
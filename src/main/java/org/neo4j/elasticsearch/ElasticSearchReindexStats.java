@@ -0,0 +1,80 @@
+package org.neo4j.elasticsearch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a reindex run for one label, or of a batch of nodes, updated concurrently by the
+ * reindex workers.
+ */
+public class ElasticSearchReindexStats {
+
+    private final String label;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong nodes = new AtomicLong();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bulks = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long endNanos;
+
+    ElasticSearchReindexStats(String label) {
+        this.label = label;
+    }
+
+    void addBulk(long nodes, long documents, long failed, long bytes) {
+        this.nodes.addAndGet(nodes);
+        this.documents.addAndGet(documents);
+        this.failed.addAndGet(failed);
+        this.bytes.addAndGet(bytes);
+        this.bulks.incrementAndGet();
+    }
+
+    void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * The reindexed label, {@code null} for a batch of nodes.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    public long getNodes() {
+        return nodes.get();
+    }
+
+    public long getDocuments() {
+        return documents.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBulks() {
+        return bulks.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getMillis() {
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    public double getNodesPerSecond() {
+        long millis = getMillis();
+        return millis == 0 ? 0 : getNodes() * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d nodes, %d documents, %d failed in %d ms (%.0f nodes/s)",
+            label != null ? label : "batch", getNodes(), getDocuments(), getFailed(), getMillis(),
+            getNodesPerSecond());
+    }
+}
@@ -0,0 +1,333 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Doc;
+import io.searchbox.core.Index;
+import io.searchbox.core.MultiGet;
+import io.searchbox.params.Parameters;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.neo4j.elasticsearch.ElasticSearchHandler.IndexId;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Bulk loads all nodes of a label, or a given stream of nodes, into their ElasticSearch indexes.
+ * <p>
+ * One thread scans the label or the nodes and cuts the node ids into partitions of
+ * {@code batchSize} nodes. Each partition is handed to one of {@code concurrency} workers, which
+ * reads the nodes in its own transaction, renders their documents and sends them as one bulk
+ * request, so reading, rendering and shipping happen in parallel over as many connections as there
+ * are workers. The scan waits while all workers are busy, which keeps the number of partitions on
+ * the heap bounded. Bulks go through the background lane of the {@link ElasticSearchThrottle},
+ * behind live changes.
+ * <p>
+ * As the documents are not shipped in order with the live changes, they are conditional writes,
+ * like the repairs of the {@link ElasticSearchReconciler}: before a partition is read from the
+ * graph, the {@code _seq_no} and {@code _primary_term} of its documents are fetched with one
+ * multi get without {@code _source}. Documents are then only created if they did not exist, and
+ * replaced only if they were not written since. A document that lost against a live change is
+ * newer already; it is counted as {@code bulk.superseded}, not as failed.
+ */
+class ElasticSearchReindexer {
+
+    private final static Logger logger = Logger.getLogger(ElasticSearchReindexer.class.getName());
+
+    private static final long PROGRESS_INTERVAL_MS = 10000;
+
+    private final ElasticSearchHandler handler;
+    private final JestClient jestClient;
+    private final ElasticSearchRetryPolicy retryPolicy;
+    private final ElasticSearchDeadLetters deadLetters;
+    private final ElasticSearchThrottle throttle;
+
+    ElasticSearchReindexer(ElasticSearchHandler handler, JestClient jestClient,
+        ElasticSearchRetryPolicy retryPolicy, ElasticSearchDeadLetters deadLetters,
+        ElasticSearchThrottle throttle) {
+        this.handler = handler;
+        this.jestClient = jestClient;
+        this.retryPolicy = retryPolicy;
+        this.deadLetters = deadLetters;
+        this.throttle = throttle;
+    }
+
+    ElasticSearchReindexStats reindex(GraphDatabaseService db, String label, int batchSize,
+        int concurrency) throws InterruptedException {
+        ElasticSearchReindexStats stats = new ElasticSearchReindexStats(label);
+        try (Transaction tx = db.beginTx();
+            ResourceIterator<Node> nodes = tx.findNodes(Label.label(label))) {
+            index(db, nodes, label, batchSize, concurrency, false, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Indexes the given nodes or node ids into the indexes of all their labels, reading them in
+     * the transactions of the workers. Nodes that do not exist (anymore) are skipped. With
+     * {@code async} the documents are handed to the queue instead of being sent by the workers,
+     * so this returns once they are queued.
+     */
+    ElasticSearchReindexStats index(GraphDatabaseService db, Iterator<?> nodes, int batchSize,
+        int concurrency, boolean async) throws InterruptedException {
+        ElasticSearchReindexStats stats = new ElasticSearchReindexStats(null);
+        index(db, nodes, null, batchSize, concurrency, async && handler.hasQueue(), stats);
+        return stats;
+    }
+
+    private void index(GraphDatabaseService db, Iterator<?> nodes, String label, int batchSize,
+        int concurrency, boolean async, ElasticSearchReindexStats stats)
+        throws InterruptedException {
+        String name = label != null ? ":" + label : "a batch of nodes";
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(concurrency, concurrency,
+            0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(concurrency),
+            r -> new Thread(r, label != null ? "neo4j-elasticsearch-reindex-" + label
+                : "neo4j-elasticsearch-index-batch"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+        logger.info("ElasticSearch reindex of " + name + " started");
+        long nextProgress = System.currentTimeMillis() + PROGRESS_INTERVAL_MS;
+        try {
+            long[] partition = new long[batchSize];
+            int size = 0;
+            while (nodes.hasNext()) {
+                partition[size++] = id(nodes.next());
+                if (size == batchSize) {
+                    submit(workers, db, name, label, partition, async, stats);
+                    partition = new long[batchSize];
+                    size = 0;
+                }
+                if (System.currentTimeMillis() >= nextProgress) {
+                    logger.info("ElasticSearch reindex " + stats);
+                    nextProgress += PROGRESS_INTERVAL_MS;
+                }
+            }
+            if (size > 0) {
+                submit(workers, db, name, label, Arrays.copyOf(partition, size), async, stats);
+            }
+        } finally {
+            shutdown(workers);
+        }
+        stats.finish();
+        logger.info("ElasticSearch reindex finished " + stats);
+    }
+
+    private static long id(Object node) {
+        if (node instanceof Node) {
+            return ((Node) node).getId();
+        }
+        if (node instanceof Number) {
+            return ((Number) node).longValue();
+        }
+        throw new IllegalArgumentException("Expected a node or node id, but got " + node);
+    }
+
+    private void submit(ExecutorService workers, GraphDatabaseService db, String name,
+        String label, long[] partition, boolean async, ElasticSearchReindexStats stats) {
+        workers.execute(() -> {
+            try {
+                indexPartition(db, label, partition, async, stats);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "ElasticSearch reindex of a partition of " + name
+                    + " failed", e);
+                stats.addBulk(0, 0, partition.length, 0);
+            }
+        });
+    }
+
+    private static void shutdown(ExecutorService workers) throws InterruptedException {
+        workers.shutdown();
+        while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+            logger.info("ElasticSearch reindex waiting for workers to finish");
+        }
+    }
+
+    private void indexPartition(GraphDatabaseService db, String label, long[] partition,
+        boolean async, ElasticSearchReindexStats stats) throws IOException, InterruptedException {
+        // the index first, so that the graph read afterwards is at least as new
+        Map<IndexId, JsonObject> indexed = indexed(handler.nodeIndexNames(label), partition);
+        List<ElasticSearchBulkItem> items = new ArrayList<>(partition.length);
+        int nodes = 0;
+        try (Transaction tx = db.beginTx()) {
+            for (long id : partition) {
+                Node node;
+                try {
+                    node = tx.getNodeById(id);
+                } catch (NotFoundException e) {
+                    continue; // deleted since the scan
+                }
+                nodes++;
+                Map<IndexId, Index> actions = label != null
+                    ? handler.indexRequests(node, label) : handler.indexRequests(node);
+                for (Map.Entry<IndexId, Index> action : actions.entrySet()) {
+                    items.add(ElasticSearchBulkItem.of(
+                        condition(action.getValue(), indexed.get(action.getKey()))));
+                }
+            }
+        }
+        if (items.isEmpty()) {
+            stats.addBulk(nodes, 0, 0, 0);
+            return;
+        }
+        long bytes = 0;
+        for (ElasticSearchBulkItem item : items) {
+            bytes += item.getLines().length;
+        }
+        if (throttle != null) {
+            throttle.acquire(ElasticSearchThrottle.Lane.BACKGROUND, items.size(), bytes);
+        }
+        if (async) {
+            handler.enqueue(items);
+            stats.addBulk(nodes, items.size(), 0, bytes);
+        } else {
+            stats.addBulk(nodes, items.size(), ship(items), bytes);
+        }
+    }
+
+    /**
+     * The sequence numbers of the documents the indexes have for the nodes, by document.
+     */
+    private Map<IndexId, JsonObject> indexed(Set<String> indexNames, long[] partition)
+        throws IOException {
+        List<Doc> docs = new ArrayList<>(indexNames.size() * partition.length);
+        for (String indexName : indexNames) {
+            for (long id : partition) {
+                Doc doc = new Doc(indexName, String.valueOf(id));
+                doc.setSource(false);
+                docs.add(doc);
+            }
+        }
+        Map<IndexId, JsonObject> indexed = new HashMap<>();
+        if (docs.isEmpty()) {
+            return indexed;
+        }
+        JestResult result = jestClient.execute(new MultiGet.Builder.ByDoc(docs).build());
+        if (!result.isSucceeded()) {
+            throw new IOException("ElasticSearch reindex could not read the indexed documents: "
+                + result.getErrorMessage());
+        }
+        for (JsonElement element : result.getJsonObject().getAsJsonArray("docs")) {
+            JsonObject doc = element.getAsJsonObject();
+            if (doc.has("found") && doc.get("found").getAsBoolean()) {
+                indexed.put(new IndexId(doc.get("_index").getAsString(),
+                    doc.get("_id").getAsString()), doc);
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * Makes the action create the document if it was not indexed, or replace it only while it
+     * still has the sequence number that was read.
+     */
+    private static Index condition(Index action, JsonObject indexed) {
+        Index.Builder builder = ElasticSearchRenderedSource.copy(action);
+        if (indexed == null) {
+            builder.setParameter(Parameters.OP_TYPE, "create");
+        } else {
+            builder.setParameter(ElasticSearchBulkItem.IF_SEQ_NO,
+                    indexed.get("_seq_no").getAsLong())
+                .setParameter(ElasticSearchBulkItem.IF_PRIMARY_TERM,
+                    indexed.get("_primary_term").getAsLong());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Sends the items, retrying transient failures, and returns the number of items that were
+     * rejected for good.
+     */
+    private int ship(List<ElasticSearchBulkItem> items) throws InterruptedException {
+        int attempts = 0;
+        int failed = 0;
+        while (true) {
+            attempts++;
+            List<ElasticSearchBulkItem> retryable = new ArrayList<>();
+            int status;
+            String error;
+            try {
+                BulkResult result = jestClient.execute(JestRawBulk.of(items));
+                if (result.isSucceeded()) {
+                    return failed;
+                }
+                List<JsonObject> results = JestRawBulk.itemResults(result);
+                status = result.getResponseCode();
+                error = result.getErrorMessage();
+                if (results.size() == items.size()) {
+                    for (int i = 0; i < items.size(); i++) {
+                        JsonObject itemResult = results.get(i);
+                        if (!itemResult.has("error")) {
+                            continue;
+                        }
+                        int itemStatus = itemResult.has("status")
+                            ? itemResult.get("status").getAsInt() : 0;
+                        if (itemStatus == 409) {
+                            // written by a live change since it was read
+                            handler.getMetrics().superseded();
+                        } else if (ElasticSearchRetryPolicy.isRetryable(itemStatus)
+                            && retryPolicy.canRetry(attempts)) {
+                            retryable.add(items.get(i));
+                        } else {
+                            failed++;
+                            deadLetter(items.get(i), itemStatus,
+                                JestRawBulk.error(itemResult.get("error")));
+                        }
+                    }
+                } else if (ElasticSearchRetryPolicy.isRetryable(status)) {
+                    retryable = items;
+                } else {
+                    failed += deadLetterAll(items, status, error);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Problem Updating ElasticSearch ", e);
+                status = 0;
+                error = e.getMessage();
+                retryable = items;
+            }
+            if (retryable.isEmpty()) {
+                return failed;
+            }
+            if (!retryPolicy.canRetry(attempts)) {
+                return failed + deadLetterAll(retryable, status, error);
+            }
+            Thread.sleep(retryPolicy.backoffMillis(attempts));
+            items = retryable;
+        }
+    }
+
+    private int deadLetterAll(List<ElasticSearchBulkItem> items, int status, String error) {
+        for (ElasticSearchBulkItem item : items) {
+            deadLetter(item, status, error);
+        }
+        return items.size();
+    }
+
+    private void deadLetter(ElasticSearchBulkItem item, int status, String error) {
+        handler.getMetrics().failed(item.getIndexName());
+        if (deadLetters != null) {
+            deadLetters.add(item, status, error);
+        } else {
+            logger.severe("ElasticSearch rejected " + item + " with status " + status + ": "
+                + error);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.internal.kernel.api.RelationshipScanCursor;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.RelationshipEntity;
+
+/**
+ * Reads the type, end nodes and properties of a relationship as token ids.
+ */
+class ElasticSearchRelationshipReader extends ElasticSearchEntityReader<RelationshipScanCursor> {
+
+    private ElasticSearchRelationshipReader(KernelTransaction ktx, RelationshipScanCursor cursor,
+        long relationshipId) {
+        super(ktx, cursor, position(ktx, cursor, relationshipId));
+    }
+
+    private static boolean position(KernelTransaction ktx, RelationshipScanCursor cursor,
+        long relationshipId) {
+        ktx.dataRead().singleRelationship(relationshipId, cursor);
+        return cursor.next();
+    }
+
+    static ElasticSearchRelationshipReader open(Relationship relationship) {
+        KernelTransaction ktx =
+            ((RelationshipEntity) relationship).getTransaction().kernelTransaction();
+        return new ElasticSearchRelationshipReader(ktx,
+            ktx.cursors().allocateRelationshipScanCursor(ktx.cursorContext()),
+            relationship.getId());
+    }
+
+    int type() {
+        return exists ? cursor.type() : TokenRead.NO_TOKEN;
+    }
+
+    long startNode() {
+        return cursor.sourceNodeReference();
+    }
+
+    long endNode() {
+        return cursor.targetNodeReference();
+    }
+}
@@ -0,0 +1,129 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.Index;
+import io.searchbox.core.Update;
+
+/**
+ * Index and update actions whose source was rendered by the {@link ElasticSearchDocumentWriter}.
+ * The source stays the encoded bytes, which {@link ElasticSearchBulkItem#of} copies into the bulk
+ * lines as they are, so a document is encoded once and never becomes a string on the way; only
+ * callers asking Jest for the data get it decoded. Actions rendered with digests also keep their
+ * {@link ElasticSearchDocumentWriter#digestSum() sum}.
+ */
+final class ElasticSearchRenderedSource {
+
+    private ElasticSearchRenderedSource() {
+    }
+
+    static Index.Builder index(byte[] source) {
+        return new IndexBuilder(source, 0);
+    }
+
+    static Index.Builder index(ElasticSearchDocumentWriter writer) {
+        return new IndexBuilder(writer.toByteArray(), writer.digestSum());
+    }
+
+    static Update.Builder update(byte[] source) {
+        return new UpdateBuilder(source);
+    }
+
+    static Update.Builder update(ElasticSearchDocumentWriter writer) {
+        return new UpdateBuilder(writer.toByteArray());
+    }
+
+    /**
+     * A builder for the same document as the rendered index action, e.g. to make it conditional.
+     */
+    static Index.Builder copy(Index action) {
+        return new IndexBuilder(of(action), digest(action)).index(action.getIndex())
+            .type(action.getType()).id(action.getId());
+    }
+
+    /**
+     * The rendered source of the action, {@code null} if it was built from anything else.
+     */
+    static byte[] of(BulkableAction<?> action) {
+        if (action instanceof RenderedIndex) {
+            return ((RenderedIndex) action).source;
+        }
+        if (action instanceof RenderedUpdate) {
+            return ((RenderedUpdate) action).source;
+        }
+        return null;
+    }
+
+    /**
+     * The sum of the digests the index action was rendered with, {@code 0} without digests.
+     */
+    static long digest(Index action) {
+        return action instanceof RenderedIndex ? ((RenderedIndex) action).digest : 0;
+    }
+
+    private static class IndexBuilder extends Index.Builder {
+
+        private final byte[] source;
+        private final long digest;
+
+        IndexBuilder(byte[] source, long digest) {
+            super(source);
+            this.source = source;
+            this.digest = digest;
+        }
+
+        @Override
+        public Index build() {
+            return new RenderedIndex(this, source, digest);
+        }
+    }
+
+    private static class RenderedIndex extends Index {
+
+        private final byte[] source;
+        private final long digest;
+
+        RenderedIndex(Index.Builder builder, byte[] source, long digest) {
+            super(builder);
+            this.source = source;
+            this.digest = digest;
+        }
+
+        @Override
+        public String getData(Gson gson) {
+            return new String(source, UTF_8);
+        }
+    }
+
+    private static class UpdateBuilder extends Update.Builder {
+
+        private final byte[] source;
+
+        UpdateBuilder(byte[] source) {
+            super(source);
+            this.source = source;
+        }
+
+        @Override
+        public Update build() {
+            return new RenderedUpdate(this, source);
+        }
+    }
+
+    private static class RenderedUpdate extends Update {
+
+        private final byte[] source;
+
+        RenderedUpdate(Update.Builder builder, byte[] source) {
+            super(builder);
+            this.source = source;
+        }
+
+        @Override
+        public String getData(Gson gson) {
+            return new String(source, UTF_8);
+        }
+    }
+}
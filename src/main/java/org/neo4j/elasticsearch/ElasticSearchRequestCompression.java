@@ -0,0 +1,101 @@
+package org.neo4j.elasticsearch;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Gzips the body of bulk requests above a size threshold into buffers of an
+ * {@link ElasticSearchBufferPool}. {@link ElasticSearchBalancedClient} calls it while preparing a
+ * request, so it runs on the thread that executes the request, i.e. the shipper or a reindex
+ * worker, and never on a committing thread or the I/O dispatcher of the async client.
+ */
+class ElasticSearchRequestCompression {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final int level;
+    private final long threshold;
+    private final ElasticSearchBufferPool pool;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+
+    ElasticSearchRequestCompression(int level, long threshold, ElasticSearchBufferPool pool) {
+        this.level = level;
+        this.threshold = threshold;
+        this.pool = pool;
+    }
+
+    /**
+     * Replaces the body of a large bulk request with its compressed form. A pooled body is
+     * released once it is compressed.
+     */
+    void compress(HttpRequest request) throws IOException {
+        if (!(request instanceof HttpEntityEnclosingRequest)
+            || !request.getRequestLine().getUri().contains("_bulk")) {
+            return;
+        }
+        HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+        HttpEntity entity = enclosing.getEntity();
+        if (entity == null || entity.getContentEncoding() != null
+            || entity.getContentLength() < threshold) {
+            return;
+        }
+        long start = cpuTime();
+        ElasticSearchBulkEntity gzipped = compress(entity,
+            entity.getContentType() == null ? ContentType.APPLICATION_JSON
+                : ContentType.parse(entity.getContentType().getValue()));
+        cpuNanos.add(cpuTime() - start);
+        requests.increment();
+        bytesIn.add(entity.getContentLength());
+        bytesOut.add(gzipped.getContentLength());
+
+        gzipped.setContentEncoding("gzip");
+        enclosing.setEntity(gzipped);
+        if (entity instanceof ElasticSearchBulkEntity) {
+            ((ElasticSearchBulkEntity) entity).release();
+        }
+    }
+
+    private ElasticSearchBulkEntity compress(HttpEntity entity, ContentType contentType)
+        throws IOException {
+        ElasticSearchBulkEntity.Writer out = new ElasticSearchBulkEntity.Writer(pool);
+        try {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192) {
+                {
+                    def.setLevel(level);
+                }
+            }) {
+                entity.writeTo(gzip);
+            }
+            return out.toEntity(contentType);
+        } finally {
+            // returns the buffers unless they were handed to the entity
+            out.discard();
+        }
+    }
+
+    private static long cpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime()
+            : System.nanoTime();
+    }
+
+    /**
+     * Reports the savings to the metrics of a database. The client, and so the counters, are
+     * shared by all databases.
+     */
+    void register(ElasticSearchMetrics metrics) {
+        metrics.gauge("compression.requests", requests::sum);
+        metrics.gauge("compression.bytesIn", bytesIn::sum);
+        metrics.gauge("compression.bytesOut", bytesOut::sum);
+        metrics.gauge("compression.cpuMillis", () -> cpuNanos.sum() / 1_000_000);
+    }
+}
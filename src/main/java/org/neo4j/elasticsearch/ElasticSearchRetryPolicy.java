@@ -0,0 +1,43 @@
+package org.neo4j.elasticsearch;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which bulk failures are retried and how long to wait before the next attempt. The delay
+ * is drawn uniformly from {@code [0, min(maxBackoff, initialBackoff * 2^attempt)]} ("full
+ * jitter"), so clients backing off from the same overload do not retry in lock step.
+ */
+class ElasticSearchRetryPolicy {
+
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxAttempts;
+
+    ElasticSearchRetryPolicy(Duration initialBackoff, Duration maxBackoff, int maxAttempts) {
+        this.initialBackoffMillis = Math.max(1, initialBackoff.toMillis());
+        this.maxBackoffMillis = Math.max(initialBackoffMillis, maxBackoff.toMillis());
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Rejections because of a full queue, unavailable shards and timeouts go away by themselves,
+     * everything else (mapping errors, version conflicts, ...) fails again on a retry.
+     */
+    static boolean isRetryable(int status) {
+        return status == 408 || status == 429 || status == 502 || status == 503
+            || status == 504;
+    }
+
+    /**
+     * Whether a failed item that was attempted {@code attempts} times gets another try.
+     */
+    boolean canRetry(int attempts) {
+        return attempts < maxAttempts;
+    }
+
+    long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
@@ -0,0 +1,195 @@
+package org.neo4j.elasticsearch;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Search results by index and query body, bounded by their estimated size in bytes with least
+ * recently used eviction and expiring after a time to live.
+ * <p>
+ * Every index has a generation that is moved forward when a committing transaction changes
+ * documents of the index, and again when the shipper had these changes acknowledged. Results are
+ * only served while the generation of their index is the one they were loaded at, so a result is
+ * never older than the last committed write. After an acknowledgement the index is not cached
+ * for {@link #SETTLE_MILLIS}, the default refresh interval after which ElasticSearch makes new
+ * documents searchable.
+ */
+class ElasticSearchSearchCache {
+
+    static final long SETTLE_MILLIS = 1000;
+
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int HIT_SIZE = 40;
+
+    private final long maxBytes;
+    private final long ttlMillis;
+    // guarded by itself, in access order
+    private final LinkedHashMap<Key, Result> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Generation> generations = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long bytes;
+
+    ElasticSearchSearchCache(long maxBytes, Duration ttl) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttl.toMillis();
+    }
+
+    /**
+     * The cached hits of the query, or the hits the loader returns, which are cached if no
+     * write to the index happened meanwhile.
+     */
+    List<ElasticSearchHit> get(String index, String body, Loader loader) throws IOException {
+        Key key = new Key(index, body);
+        Generation generation = generation(index);
+        long current = generation.value;
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            Result cached = cache.get(key);
+            if (cached != null) {
+                if (cached.generation == current && now < cached.expiresMillis) {
+                    this.hits.increment();
+                    return cached.hits;
+                }
+                remove(key);
+            }
+        }
+        misses.increment();
+        List<ElasticSearchHit> loaded = loader.load();
+        if (generation.value == current && now >= generation.settledMillis) {
+            put(key, new Result(current, now + ttlMillis, loaded));
+        }
+        return loaded;
+    }
+
+    private void put(Key key, Result result) {
+        long weight = result.weight(key);
+        if (weight > maxBytes) {
+            return;
+        }
+        synchronized (cache) {
+            Result previous = cache.put(key, result);
+            bytes += weight - (previous == null ? 0 : previous.weight(key));
+            Iterator<Map.Entry<Key, Result>> eldest = cache.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<Key, Result> entry = eldest.next();
+                bytes -= entry.getValue().weight(entry.getKey());
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private void remove(Key key) {
+        Result removed = cache.remove(key);
+        if (removed != null) {
+            bytes -= removed.weight(key);
+        }
+    }
+
+    /**
+     * Called with the indexes a committing transaction writes to.
+     */
+    void invalidate(Collection<String> indexes) {
+        for (String index : indexes) {
+            generation(index).advance(0);
+        }
+    }
+
+    /**
+     * Called with the indexes of bulks ElasticSearch accepted.
+     */
+    void acknowledged(Collection<String> indexes) {
+        long settled = System.currentTimeMillis() + SETTLE_MILLIS;
+        for (String index : indexes) {
+            generation(index).advance(settled);
+        }
+    }
+
+    private Generation generation(String index) {
+        return generations.computeIfAbsent(index, i -> new Generation());
+    }
+
+    void register(ElasticSearchMetrics metrics) {
+        metrics.gauge("searchCache.hits", hits::sum);
+        metrics.gauge("searchCache.misses", misses::sum);
+        metrics.gauge("searchCache.evictions", evictions::sum);
+        metrics.gauge("searchCache.entries", () -> {
+            synchronized (cache) {
+                return cache.size();
+            }
+        });
+        metrics.gauge("searchCache.bytes", () -> {
+            synchronized (cache) {
+                return bytes;
+            }
+        });
+    }
+
+    private static class Generation {
+
+        volatile long value;
+        volatile long settledMillis;
+
+        synchronized void advance(long settledMillis) {
+            value++;
+            this.settledMillis = Math.max(this.settledMillis, settledMillis);
+        }
+    }
+
+    private static class Key {
+
+        final String index, body;
+
+        Key(String index, String body) {
+            this.index = index;
+            this.body = body;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return index.equals(other.index) && body.equals(other.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(index, body);
+        }
+    }
+
+    private static class Result {
+
+        final long generation;
+        final long expiresMillis;
+        final List<ElasticSearchHit> hits;
+
+        Result(long generation, long expiresMillis, List<ElasticSearchHit> hits) {
+            this.generation = generation;
+            this.expiresMillis = expiresMillis;
+            this.hits = hits;
+        }
+
+        int weight(Key key) {
+            return ENTRY_OVERHEAD + 2 * (key.index.length() + key.body.length())
+                + HIT_SIZE * hits.size();
+        }
+    }
+
+    interface Loader {
+
+        List<ElasticSearchHit> load() throws IOException;
+    }
+}
@@ -1,10 +1,21 @@
 package org.neo4j.elasticsearch;
 
+import static org.neo4j.configuration.SettingConstraints.min;
+import static org.neo4j.configuration.SettingConstraints.range;
 import static org.neo4j.configuration.SettingImpl.newBuilder;
 import static org.neo4j.configuration.SettingValueParsers.BOOL;
+import static org.neo4j.configuration.SettingValueParsers.BYTES;
+import static org.neo4j.configuration.SettingValueParsers.DURATION;
+import static org.neo4j.configuration.SettingValueParsers.INT;
+import static org.neo4j.configuration.SettingValueParsers.LONG;
+import static org.neo4j.configuration.SettingValueParsers.ofEnum;
+import static org.neo4j.configuration.SettingValueParsers.PATH;
 import static org.neo4j.configuration.SettingValueParsers.STRING;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import org.neo4j.annotations.service.ServiceProvider;
+import org.neo4j.configuration.GraphDatabaseSettings;
 import org.neo4j.configuration.SettingsDeclaration;
 import org.neo4j.graphdb.config.Setting;
 
@@ -22,7 +33,104 @@ public class ElasticSearchSettings implements SettingsDeclaration {
     public static Setting<Boolean> includeLabelsField = newBuilder(
         "elasticsearch.include_labels_field",
         BOOL, Boolean.TRUE).build();
+    public static Setting<Boolean> partialUpdates = newBuilder("elasticsearch.partial_updates",
+        BOOL, Boolean.FALSE).build();
     public static Setting<Boolean> enableAutoIndex = newBuilder("elasticsearch.enable_auto_index",
         BOOL, Boolean.TRUE).build();
+    public static Setting<Boolean> outboxEnabled = newBuilder("elasticsearch.outbox_enabled",
+        BOOL, Boolean.FALSE).build();
+    public static Setting<Path> outboxDir = newBuilder("elasticsearch.outbox_dir",
+        PATH, Path.of("elasticsearch")).setDependency(GraphDatabaseSettings.data_directory)
+        .build();
+    public static Setting<Long> outboxSegmentSize = newBuilder(
+        "elasticsearch.outbox_segment_size",
+        BYTES, 64L * 1024 * 1024).build();
+    public static Setting<Boolean> outboxForce = newBuilder("elasticsearch.outbox_force",
+        BOOL, Boolean.FALSE).build();
+    public static Setting<Integer> bulkMaxActions = newBuilder("elasticsearch.bulk_max_actions",
+        INT, 1000).addConstraint(min(1)).build();
+    public static Setting<Long> bulkMaxSize = newBuilder("elasticsearch.bulk_max_size",
+        BYTES, 5L * 1024 * 1024).addConstraint(min(1L)).build();
+    public static Setting<Boolean> bulkAdaptive = newBuilder("elasticsearch.bulk_adaptive",
+        BOOL, Boolean.TRUE).build();
+    public static Setting<Long> bulkMinSize = newBuilder("elasticsearch.bulk_min_size",
+        BYTES, 64L * 1024).addConstraint(min(1L)).build();
+    public static Setting<Duration> bulkLatencyGoal = newBuilder(
+        "elasticsearch.bulk_latency_goal",
+        DURATION, Duration.ofSeconds(1)).build();
+    public static Setting<Duration> bulkLinger = newBuilder("elasticsearch.bulk_linger",
+        DURATION, Duration.ofMillis(100)).build();
+    public static Setting<Long> liveMaxDocsPerSecond = newBuilder(
+        "elasticsearch.live_max_docs_per_second",
+        LONG, 0L).addConstraint(min(0L)).build();
+    public static Setting<Long> liveMaxBytesPerSecond = newBuilder(
+        "elasticsearch.live_max_bytes_per_second",
+        BYTES, 0L).build();
+    public static Setting<Long> backgroundMaxDocsPerSecond = newBuilder(
+        "elasticsearch.background_max_docs_per_second",
+        LONG, 0L).addConstraint(min(0L)).build();
+    public static Setting<Long> backgroundMaxBytesPerSecond = newBuilder(
+        "elasticsearch.background_max_bytes_per_second",
+        BYTES, 0L).build();
+    public static Setting<Long> transactionMemoryBudget = newBuilder(
+        "elasticsearch.transaction_memory_budget",
+        BYTES, 32L * 1024 * 1024).addConstraint(min(1L)).build();
+    public static Setting<Integer> maxInFlightBulks = newBuilder(
+        "elasticsearch.max_in_flight_bulks",
+        INT, 4).addConstraint(min(1)).build();
+    public static Setting<Long> maxPendingSize = newBuilder("elasticsearch.max_pending_size",
+        BYTES, 256L * 1024 * 1024).addConstraint(min(1L)).build();
+    public static Setting<Duration> retryInitialBackoff = newBuilder(
+        "elasticsearch.retry_initial_backoff",
+        DURATION, Duration.ofMillis(100)).build();
+    public static Setting<Duration> retryMaxBackoff = newBuilder(
+        "elasticsearch.retry_max_backoff",
+        DURATION, Duration.ofSeconds(30)).build();
+    public static Setting<Integer> retryMaxAttempts = newBuilder(
+        "elasticsearch.retry_max_attempts",
+        INT, 10).addConstraint(min(1)).build();
+    public static Setting<BackpressurePolicy> backpressurePolicy = newBuilder(
+        "elasticsearch.backpressure_policy",
+        ofEnum(BackpressurePolicy.class), BackpressurePolicy.BLOCK).build();
+    public static Setting<Long> bulkBufferSize = newBuilder("elasticsearch.bulk_buffer_size",
+        BYTES, 64L * 1024).addConstraint(range(1024L, 64L * 1024 * 1024)).build();
+    public static Setting<Integer> bulkBufferPoolSize = newBuilder(
+        "elasticsearch.bulk_buffer_pool_size",
+        INT, 256).addConstraint(min(0)).build();
+    public static Setting<Boolean> bulkCompression = newBuilder(
+        "elasticsearch.bulk_compression",
+        BOOL, Boolean.FALSE).build();
+    public static Setting<Integer> bulkCompressionLevel = newBuilder(
+        "elasticsearch.bulk_compression_level",
+        INT, 1).addConstraint(range(1, 9)).build();
+    public static Setting<Long> bulkCompressionThreshold = newBuilder(
+        "elasticsearch.bulk_compression_threshold",
+        BYTES, 16L * 1024).build();
+    public static Setting<Long> searchCacheSize = newBuilder("elasticsearch.search_cache_size",
+        BYTES, 16L * 1024 * 1024).build();
+    public static Setting<Duration> searchCacheTtl = newBuilder("elasticsearch.search_cache_ttl",
+        DURATION, Duration.ofSeconds(30)).build();
+    public static Setting<Boolean> catchUpEnabled = newBuilder("elasticsearch.catch_up_enabled",
+        BOOL, Boolean.TRUE).build();
+    public static Setting<Boolean> reconcileEnabled = newBuilder(
+        "elasticsearch.reconcile_enabled",
+        BOOL, Boolean.FALSE).build();
+    public static Setting<Integer> reconcileRate = newBuilder("elasticsearch.reconcile_rate",
+        INT, 1000).addConstraint(min(1)).build();
+    public static Setting<Duration> reconcileInterval = newBuilder(
+        "elasticsearch.reconcile_interval",
+        DURATION, Duration.ofHours(1)).build();
+    public static Setting<Integer> hostFailureThreshold = newBuilder(
+        "elasticsearch.host_failure_threshold",
+        INT, 3).addConstraint(min(1)).build();
+    public static Setting<Duration> hostOpenTime = newBuilder("elasticsearch.host_open_time",
+        DURATION, Duration.ofSeconds(5)).build();
     // todo settings for label, property, indexName
+
+    /**
+     * What happens to committed changes while {@link #maxPendingSize} is exceeded.
+     */
+    public enum BackpressurePolicy {
+        BLOCK, SPILL, DROP
+    }
 }
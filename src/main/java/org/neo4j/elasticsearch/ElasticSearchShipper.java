@@ -0,0 +1,486 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.BulkResult;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.neo4j.elasticsearch.ElasticSearchHandler.IndexId;
+
+/**
+ * Background thread draining the {@link ElasticSearchQueue} into ElasticSearch bulk requests.
+ * Items of consecutive transactions are merged by an {@link ElasticSearchBulkCoalescer} until the
+ * bulk window is full or its linger time elapsed.
+ * <p>
+ * At most {@code maxInFlight} bulks are outstanding at a time; when all of them are in use the
+ * shipper stops draining the queue, so the queue's backpressure policy kicks in. A bulk touching a
+ * document of a bulk still in flight waits for that one, so writes to a document are applied in
+ * order. The queue is acknowledged in order, up to the last bulk for which it and all bulks before
+ * it have been accepted.
+ * <p>
+ * The window limits follow the {@link ElasticSearchBulkSizer}, which is told the size and latency
+ * of accepted bulks and whether ElasticSearch pushed back, so large transactions are split into
+ * bulks the cluster can currently absorb. Bulks are sent in the live lane of the
+ * {@link ElasticSearchThrottle}, retries are not throttled again.
+ * <p>
+ * Reindex and repair items wait in a queue of their own, charged to the background lane of the
+ * throttle before they were queued. A bulk holds items of one queue only, and the background
+ * queue is only drained while at most {@code backgroundThreshold} bytes of live changes are
+ * pending, so background work never delays live changes by more than the bulks in flight.
+ * <p>
+ * The response of a bulk is checked item by item. Items rejected for a transient reason are sent
+ * again with a jittered exponential backoff, up to the retry policy's attempts, while items
+ * rejected for good go to the {@link ElasticSearchDeadLetters}. Bulks that could not be delivered
+ * at all are retried with the same backoff until they succeed or the shipper is stopped.
+ * <p>
+ * Acknowledged items are reported to the {@link ElasticSearchTransactionCheckpoint} by the
+ * transaction they were created from, including items the coalescer dropped because a later
+ * write replaced them.
+ */
+class ElasticSearchShipper implements Runnable {
+
+    private final static Logger logger = Logger.getLogger(ElasticSearchShipper.class.getName());
+
+    private static final long POLL_TIMEOUT_MS = 1000;
+    // how often an idle live queue is left to look for background items
+    private static final long BACKGROUND_POLL_TIMEOUT_MS = 100;
+    private static final long STOP_TIMEOUT_MS = 10000;
+
+    private final JestClient jestClient;
+    private final ElasticSearchQueue queue;
+    private final ElasticSearchQueue background;
+    private final long backgroundThreshold;
+    private final ElasticSearchBulkCoalescer coalescer;
+    private final ElasticSearchBulkSizer sizer;
+    private final ElasticSearchThrottle throttle;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final ElasticSearchRetryPolicy retryPolicy;
+    private final ElasticSearchDeadLetters deadLetters;
+    private final ElasticSearchMetrics metrics;
+    private final Consumer<Set<String>> acknowledgedIndexes;
+    private final ElasticSearchTransactionCheckpoint checkpoint;
+    private final Function<List<ElasticSearchBulkItem>, List<ElasticSearchBulkItem>> missing;
+    private final ScheduledExecutorService retries;
+
+    // guarded by itself, bulks in the order they were sent
+    private final ArrayDeque<Window> windows = new ArrayDeque<>();
+    private final Set<IndexId> inFlightKeys = new HashSet<>();
+
+    private volatile boolean running;
+    private Thread thread;
+    // queue the window being filled is drained from
+    private ElasticSearchQueue windowQueue;
+    private long windowEndOffset;
+    // items of the window being filled by the transaction they were created from
+    private LongIntHashMap windowTransactions = new LongIntHashMap();
+
+    ElasticSearchShipper(JestClient jestClient, ElasticSearchQueue queue,
+        ElasticSearchBulkCoalescer coalescer, ElasticSearchBulkSizer sizer, int maxInFlight,
+        ElasticSearchRetryPolicy retryPolicy, ElasticSearchDeadLetters deadLetters,
+        ElasticSearchMetrics metrics, Consumer<Set<String>> acknowledgedIndexes,
+        ElasticSearchTransactionCheckpoint checkpoint, ElasticSearchThrottle throttle) {
+        this(jestClient, queue, null, 0, coalescer, sizer, maxInFlight, retryPolicy, deadLetters,
+            metrics, acknowledgedIndexes, checkpoint, throttle, null);
+    }
+
+    /**
+     * @param background queue of reindex and repair items, {@code null} if there is none
+     * @param backgroundThreshold pending bytes of live changes up to which background items are
+     *     shipped
+     * @param missing renders the full documents of partial updates ElasticSearch has no
+     *     document for, which are sent instead; {@code null} to dead-letter these updates
+     */
+    ElasticSearchShipper(JestClient jestClient, ElasticSearchQueue queue,
+        ElasticSearchQueue background, long backgroundThreshold,
+        ElasticSearchBulkCoalescer coalescer, ElasticSearchBulkSizer sizer, int maxInFlight,
+        ElasticSearchRetryPolicy retryPolicy, ElasticSearchDeadLetters deadLetters,
+        ElasticSearchMetrics metrics, Consumer<Set<String>> acknowledgedIndexes,
+        ElasticSearchTransactionCheckpoint checkpoint, ElasticSearchThrottle throttle,
+        Function<List<ElasticSearchBulkItem>, List<ElasticSearchBulkItem>> missing) {
+        this.jestClient = jestClient;
+        this.queue = queue;
+        this.background = background;
+        this.backgroundThreshold = backgroundThreshold;
+        this.windowQueue = queue;
+        this.coalescer = coalescer;
+        this.sizer = sizer;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.retryPolicy = retryPolicy;
+        this.deadLetters = deadLetters;
+        this.metrics = metrics;
+        this.acknowledgedIndexes = acknowledgedIndexes;
+        this.checkpoint = checkpoint;
+        this.throttle = throttle;
+        this.missing = missing;
+        this.retries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread retry = new Thread(r, "neo4j-elasticsearch-retry");
+            retry.setDaemon(true);
+            return retry;
+        });
+    }
+
+    synchronized void start() {
+        running = true;
+        thread = new Thread(this, "neo4j-elasticsearch-shipper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the shipper after one last attempt to ship what is still queued.
+     */
+    synchronized void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.join(STOP_TIMEOUT_MS * 2);
+            thread.interrupt();
+            thread.join();
+            thread = null;
+        }
+        retries.shutdownNow();
+    }
+
+    int inFlightBulks() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                coalescer.resize(sizer.targetActions(), sizer.targetBytes());
+                long now = System.nanoTime();
+                if (coalescer.isDue(now)) {
+                    dispatch();
+                } else {
+                    fill(coalescer.isEmpty()
+                        ? TimeUnit.MILLISECONDS.toNanos(background == null
+                            ? POLL_TIMEOUT_MS : BACKGROUND_POLL_TIMEOUT_MS)
+                        : coalescer.remainingLinger(now));
+                }
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MS);
+            do {
+                fill(0);
+                if (coalescer.isEmpty()) {
+                    break;
+                }
+                dispatch();
+            } while (System.nanoTime() < deadline);
+            // wait for the bulks still in flight
+            inFlight.tryAcquire(maxInFlight, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fill(long timeoutNanos) throws InterruptedException {
+        if (coalescer.isEmpty()) {
+            windowQueue = queue;
+            if (background != null && queue.pendingBytes() <= backgroundThreshold) {
+                ElasticSearchQueue.Batch batch = poll(background, 0);
+                if (!batch.isEmpty()) {
+                    windowQueue = background;
+                    add(batch);
+                    return;
+                }
+            }
+        }
+        add(poll(windowQueue, timeoutNanos));
+    }
+
+    private ElasticSearchQueue.Batch poll(ElasticSearchQueue source, long timeoutNanos)
+        throws InterruptedException {
+        return source.poll(Math.max(1, coalescer.remainingActions()), coalescer.remainingBytes(),
+            timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void add(ElasticSearchQueue.Batch batch) {
+        long now = System.nanoTime();
+        for (ElasticSearchBulkItem item : batch.getItems()) {
+            coalescer.add(item, now);
+            if (item.getTransactionId() != ElasticSearchBulkItem.NO_TRANSACTION) {
+                windowTransactions.addToValue(item.getTransactionId(), 1);
+            }
+        }
+        if (!batch.isEmpty()) {
+            windowEndOffset = batch.getEndOffset();
+        }
+    }
+
+    private void dispatch() throws InterruptedException {
+        Window window = new Window(coalescer.drain(), windowQueue, windowEndOffset,
+            windowTransactions);
+        windowTransactions = new LongIntHashMap();
+        // background items were charged to their own lane when they were queued
+        if (throttle != null && windowQueue == queue) {
+            long bytes = 0;
+            for (ElasticSearchBulkItem item : window.items) {
+                bytes += item.getLines().length;
+            }
+            throttle.acquire(ElasticSearchThrottle.Lane.LIVE, window.items.size(), bytes);
+        }
+        inFlight.acquire();
+        synchronized (windows) {
+            while (!Collections.disjoint(inFlightKeys, window.keys)) {
+                windows.wait();
+            }
+            inFlightKeys.addAll(window.keys);
+            windows.addLast(window);
+        }
+        window.send();
+    }
+
+    private void completed(Window window, boolean accepted) {
+        long offset = -1;
+        long backgroundOffset = -1;
+        long oldestMillis = Long.MAX_VALUE;
+        Set<String> indexes = new HashSet<>();
+        LongIntHashMap transactions = new LongIntHashMap();
+        synchronized (windows) {
+            window.done = accepted;
+            inFlightKeys.removeAll(window.keys);
+            while (!windows.isEmpty() && windows.peekFirst().done) {
+                Window acknowledged = windows.pollFirst();
+                if (acknowledged.queue == queue) {
+                    offset = acknowledged.endOffset;
+                } else {
+                    backgroundOffset = acknowledged.endOffset;
+                }
+                oldestMillis = Math.min(oldestMillis, acknowledged.oldestMillis);
+                for (IndexId key : acknowledged.keys) {
+                    indexes.add(key.indexName);
+                }
+                acknowledged.transactions.forEachKeyValue(transactions::addToValue);
+            }
+            windows.notifyAll();
+        }
+        inFlight.release();
+        if (offset >= 0 || backgroundOffset >= 0) {
+            try {
+                if (offset >= 0) {
+                    queue.acknowledge(offset);
+                }
+                if (backgroundOffset >= 0) {
+                    background.acknowledge(backgroundOffset);
+                }
+                metrics.acknowledged(System.currentTimeMillis() - oldestMillis);
+                acknowledgedIndexes.accept(indexes);
+                if (checkpoint != null && !transactions.isEmpty()) {
+                    checkpoint.acknowledged(transactions);
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not acknowledge ElasticSearch queue", e);
+            }
+        }
+    }
+
+    private class Window implements JestResultHandler<BulkResult> {
+
+        private final Set<IndexId> keys = new HashSet<>();
+        private final ElasticSearchQueue queue;
+        private final long endOffset;
+        private final long oldestMillis;
+        private final LongIntHashMap transactions;
+        private List<ElasticSearchBulkItem> items;
+        private int attempts;
+        private boolean done;
+        private long bytes;
+        private long sentNanos;
+
+        Window(List<ElasticSearchBulkItem> items, ElasticSearchQueue queue, long endOffset,
+            LongIntHashMap transactions) {
+            this.items = items;
+            this.queue = queue;
+            this.endOffset = endOffset;
+            this.transactions = transactions;
+            long oldest = Long.MAX_VALUE;
+            for (ElasticSearchBulkItem item : items) {
+                keys.add(new IndexId(item.getIndexName(), item.getId()));
+                oldest = Math.min(oldest, item.getCreatedMillis());
+            }
+            this.oldestMillis = oldest;
+        }
+
+        void send() {
+            attempts++;
+            bytes = 0;
+            for (ElasticSearchBulkItem item : items) {
+                bytes += item.getLines().length;
+            }
+            sentNanos = System.nanoTime();
+            jestClient.executeAsync(JestRawBulk.of(items), this);
+        }
+
+        private void deadLetter(ElasticSearchBulkItem item, int status, String error) {
+            metrics.failed(item.getIndexName());
+            deadLetters.add(item, status, error);
+        }
+
+        @Override
+        public void completed(BulkResult result) {
+            long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentNanos);
+            metrics.bulk(items.size(), bytes, latencyMillis);
+            if (result.isSucceeded()) {
+                logger.fine("ElasticSearch Update Success");
+                sizer.accepted(bytes, latencyMillis);
+                ElasticSearchShipper.this.completed(this, true);
+                return;
+            }
+            List<JsonObject> results = result.getResponseCode() / 100 == 2
+                ? JestRawBulk.itemResults(result) : Collections.emptyList();
+            if (isOverloaded(result.getResponseCode(), results)) {
+                sizer.overloaded();
+            } else if (result.getResponseCode() / 100 == 2) {
+                sizer.accepted(bytes, latencyMillis);
+            }
+            if (results.size() != items.size()) {
+                int status = result.getResponseCode();
+                if (status / 100 == 4 && !ElasticSearchRetryPolicy.isRetryable(status)) {
+                    // the request itself is invalid, sending it again will not help
+                    for (ElasticSearchBulkItem item : items) {
+                        deadLetter(item, status, result.getErrorMessage());
+                    }
+                    ElasticSearchShipper.this.completed(this, true);
+                    return;
+                }
+                logger.warning("ElasticSearch Update Failed: " + status + " "
+                    + result.getErrorMessage());
+                metrics.bulkError();
+                retry(items);
+                return;
+            }
+
+            List<ElasticSearchBulkItem> retryable = new ArrayList<>();
+            List<ElasticSearchBulkItem> documentMissing = new ArrayList<>();
+            for (int i = 0; i < items.size(); i++) {
+                JsonObject itemResult = results.get(i);
+                if (!itemResult.has("error")) {
+                    continue;
+                }
+                int status = itemResult.has("status") ? itemResult.get("status").getAsInt() : 0;
+                if (status == 409 && queue == background) {
+                    // a conditional repair, the document was written again since it was read
+                    metrics.superseded();
+                } else if (missing != null && isDocumentMissing(items.get(i), status,
+                    itemResult.get("error"))) {
+                    documentMissing.add(items.get(i));
+                } else if (ElasticSearchRetryPolicy.isRetryable(status)
+                    && retryPolicy.canRetry(attempts)) {
+                    retryable.add(items.get(i));
+                } else {
+                    deadLetter(items.get(i), status, JestRawBulk.error(itemResult.get("error")));
+                }
+            }
+            if (retryable.isEmpty() && documentMissing.isEmpty()) {
+                ElasticSearchShipper.this.completed(this, true);
+            } else {
+                if (!retryable.isEmpty()) {
+                    logger.warning("ElasticSearch rejected " + retryable.size() + " of "
+                        + items.size() + " items, retrying them");
+                }
+                retry(retryable, documentMissing);
+            }
+        }
+
+        /**
+         * Whether the item is a partial update of a document ElasticSearch does not have.
+         */
+        private boolean isDocumentMissing(ElasticSearchBulkItem item, int status,
+            JsonElement error) {
+            if (item.getOperation() != ElasticSearchBulkItem.UPDATE || status != 404
+                || !error.isJsonObject()) {
+                return false;
+            }
+            JsonElement type = error.getAsJsonObject().get("type");
+            return type != null && "document_missing_exception".equals(type.getAsString());
+        }
+
+        /**
+         * Sends the retryable items again together with the full documents of the missing ones.
+         */
+        private void reindex(List<ElasticSearchBulkItem> retryItems,
+            List<ElasticSearchBulkItem> documentMissing) {
+            List<ElasticSearchBulkItem> resend = new ArrayList<>(retryItems);
+            if (!documentMissing.isEmpty()) {
+                try {
+                    resend.addAll(missing.apply(documentMissing));
+                } catch (RuntimeException e) {
+                    for (ElasticSearchBulkItem item : documentMissing) {
+                        deadLetter(item, 404, "document missing, could not render it: " + e);
+                    }
+                }
+            }
+            if (resend.isEmpty()) {
+                ElasticSearchShipper.this.completed(this, true);
+            } else {
+                items = resend;
+                send();
+            }
+        }
+
+        /**
+         * Whether ElasticSearch rejected the bulk or some of its items because it is too busy.
+         */
+        private boolean isOverloaded(int status, List<JsonObject> results) {
+            if (status == 429 || status == 503 || status == 504) {
+                return true;
+            }
+            for (JsonObject itemResult : results) {
+                if (itemResult.has("status") && itemResult.get("status").getAsInt() == 429) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void failed(Exception e) {
+            logger.log(Level.WARNING, "Problem Updating ElasticSearch ", e);
+            metrics.bulkError();
+            if (e instanceof SocketTimeoutException) {
+                sizer.overloaded();
+            }
+            retry(items);
+        }
+
+        private void retry(List<ElasticSearchBulkItem> retryItems) {
+            retry(retryItems, Collections.emptyList());
+        }
+
+        private void retry(List<ElasticSearchBulkItem> retryItems,
+            List<ElasticSearchBulkItem> documentMissing) {
+            if (running) {
+                for (ElasticSearchBulkItem item : retryItems) {
+                    metrics.retried(item.getIndexName());
+                }
+                // the full documents of missing ones alone are sent right away
+                retries.schedule(() -> reindex(retryItems, documentMissing),
+                    retryItems.isEmpty() ? 0 : retryPolicy.backoffMillis(attempts),
+                    TimeUnit.MILLISECONDS);
+            } else {
+                // stays unacknowledged, so a durable queue ships it again after a restart
+                ElasticSearchShipper.this.completed(this, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.neo4j.elasticsearch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.collections.api.set.primitive.IntSet;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.storageengine.api.PropertySelection;
+
+/**
+ * The index spec compiled to label, relationship type and property key token ids, so that
+ * filtering entities and reading their properties works on ints instead of names.
+ * <p>
+ * Labels, relationship types and property keys of the spec that do not exist in the database yet
+ * have no token. Until all of them exist, the tables are compiled again whenever the number of
+ * tokens in the database changed, which picks up tokens created after startup.
+ */
+class ElasticSearchSpecTokens {
+
+    private final Map<String, List<ElasticSearchIndexSpec>> indexSpec;
+    private final Map<String, List<ElasticSearchIndexSpec>> relationshipIndexSpec;
+    private volatile Tables tables;
+
+    ElasticSearchSpecTokens(Map<String, List<ElasticSearchIndexSpec>> indexSpec,
+        Map<String, List<ElasticSearchIndexSpec>> relationshipIndexSpec) {
+        this.indexSpec = indexSpec;
+        this.relationshipIndexSpec = relationshipIndexSpec;
+    }
+
+    Tables resolve(TokenRead tokenRead) {
+        Tables current = tables;
+        if (current != null && (current.complete
+            || current.labelCount == tokenRead.labelCount()
+            && current.relationshipTypeCount == tokenRead.relationshipTypeCount()
+            && current.propertyKeyCount == tokenRead.propertyKeyCount())) {
+            return current;
+        }
+        current = new Tables(indexSpec, relationshipIndexSpec, tokenRead);
+        tables = current;
+        return current;
+    }
+
+    /**
+     * Immutable token tables for one state of the token store.
+     */
+    static class Tables {
+
+        private final boolean complete;
+        private final int labelCount, relationshipTypeCount, propertyKeyCount;
+        private final IntHashSet labelIds = new IntHashSet();
+        private final IntObjectHashMap<CompiledSpec[]> specsByLabelId = new IntObjectHashMap<>();
+        private final Map<String, CompiledSpec[]> specsByLabel = new HashMap<>();
+        private final IntObjectHashMap<CompiledSpec[]> specsByTypeId = new IntObjectHashMap<>();
+
+        private Tables(Map<String, List<ElasticSearchIndexSpec>> indexSpec,
+            Map<String, List<ElasticSearchIndexSpec>> relationshipIndexSpec,
+            TokenRead tokenRead) {
+            this.labelCount = tokenRead.labelCount();
+            this.relationshipTypeCount = tokenRead.relationshipTypeCount();
+            this.propertyKeyCount = tokenRead.propertyKeyCount();
+            boolean complete = true;
+            for (Map.Entry<String, List<ElasticSearchIndexSpec>> entry : indexSpec.entrySet()) {
+                CompiledSpec[] specs = compile(entry.getKey(), entry.getValue(), tokenRead);
+                complete &= isComplete(specs);
+                specsByLabel.put(entry.getKey(), specs);
+
+                int labelId = tokenRead.nodeLabel(entry.getKey());
+                if (labelId == TokenRead.NO_TOKEN) {
+                    complete = false;
+                } else {
+                    labelIds.add(labelId);
+                    specsByLabelId.put(labelId, specs);
+                }
+            }
+            for (Map.Entry<String, List<ElasticSearchIndexSpec>> entry
+                : relationshipIndexSpec.entrySet()) {
+                CompiledSpec[] specs = compile(entry.getKey(), entry.getValue(), tokenRead);
+                complete &= isComplete(specs);
+
+                int typeId = tokenRead.relationshipType(entry.getKey());
+                if (typeId == TokenRead.NO_TOKEN) {
+                    complete = false;
+                } else {
+                    specsByTypeId.put(typeId, specs);
+                }
+            }
+            this.complete = complete;
+        }
+
+        private static CompiledSpec[] compile(String token, List<ElasticSearchIndexSpec> specs,
+            TokenRead tokenRead) {
+            CompiledSpec[] compiled = new CompiledSpec[specs.size()];
+            for (int i = 0; i < compiled.length; i++) {
+                compiled[i] = new CompiledSpec(token, specs.get(i), tokenRead);
+            }
+            return compiled;
+        }
+
+        private static boolean isComplete(CompiledSpec[] specs) {
+            for (CompiledSpec spec : specs) {
+                if (!spec.complete) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isIndexed(int labelId) {
+            return labelIds.contains(labelId);
+        }
+
+        /**
+         * The specs of the label, or {@code null} if the label is not indexed.
+         */
+        CompiledSpec[] specs(int labelId) {
+            return specsByLabelId.get(labelId);
+        }
+
+        CompiledSpec[] specs(String label) {
+            return specsByLabel.get(label);
+        }
+
+        /**
+         * The specs of the relationship type, or {@code null} if the type is not indexed.
+         */
+        CompiledSpec[] relationshipSpecs(int typeId) {
+            return specsByTypeId.get(typeId);
+        }
+    }
+
+    /**
+     * One index spec with the token ids of its properties and their pre-encoded field names.
+     */
+    static class CompiledSpec {
+
+        /**
+         * The label or relationship type, used as the document type.
+         */
+        final String label;
+        final ElasticSearchIndexSpec spec;
+        /**
+         * Selects the indexed properties when reading an entity, {@code null} if none of them
+         * exists yet.
+         */
+        final PropertySelection selection;
+        private final IntHashSet propertyKeyIds;
+        private final IntObjectHashMap<byte[]> encodedKeys = new IntObjectHashMap<>();
+        private final boolean complete;
+
+        private CompiledSpec(String label, ElasticSearchIndexSpec spec, TokenRead tokenRead) {
+            this.label = label;
+            this.spec = spec;
+            String[] keys = spec.getPropertyKeys();
+            IntHashSet ids = new IntHashSet(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                int id = tokenRead.propertyKey(keys[i]);
+                if (id != TokenRead.NO_TOKEN) {
+                    ids.add(id);
+                    encodedKeys.put(id, spec.getEncodedPropertyKeys()[i]);
+                }
+            }
+            this.propertyKeyIds = ids;
+            this.complete = ids.size() == keys.length;
+            this.selection = ids.isEmpty() ? null : PropertySelection.selection(ids.toArray());
+        }
+
+        boolean indexes(int propertyKeyId) {
+            return propertyKeyIds.contains(propertyKeyId);
+        }
+
+        /**
+         * Whether the spec indexes any of the property keys, all of them if {@code null}.
+         */
+        boolean indexesAny(IntSet propertyKeyIds) {
+            return propertyKeyIds == null || propertyKeyIds.anySatisfy(this::indexes);
+        }
+
+        byte[] encodedKey(int propertyKeyId) {
+            return encodedKeys.get(propertyKeyId);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.neo4j.elasticsearch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Rate limits for the two lanes of traffic to ElasticSearch. The live lane carries committed
+ * changes and {@code es.index} calls, the background lane reindex and repair traffic. Each lane has
+ * a token bucket for documents and one for bytes per second, a rate of 0 does not limit.
+ * <p>
+ * Background work only uses spare capacity: while more than {@code liveBacklogLimit} bytes of live
+ * changes are waiting to be shipped, background bulks wait for the live lane to catch up, at most
+ * {@link #MAX_YIELD_MS} per bulk so a constantly busy live lane does not starve them completely.
+ */
+class ElasticSearchThrottle {
+
+    static final long MAX_YIELD_MS = 1000;
+    private static final long YIELD_POLL_MS = 10;
+
+    enum Lane {
+        LIVE, BACKGROUND
+    }
+
+    private final TokenBucket[] documents;
+    private final TokenBucket[] bytes;
+    private final LongSupplier liveBacklog;
+    private final long liveBacklogLimit;
+    private final LongAdder[] waitedMillis = {new LongAdder(), new LongAdder()};
+
+    ElasticSearchThrottle(long liveDocuments, long liveBytes, long backgroundDocuments,
+        long backgroundBytes, LongSupplier liveBacklog, long liveBacklogLimit) {
+        this.documents = new TokenBucket[]{new TokenBucket(liveDocuments, System::nanoTime),
+            new TokenBucket(backgroundDocuments, System::nanoTime)};
+        this.bytes = new TokenBucket[]{new TokenBucket(liveBytes, System::nanoTime),
+            new TokenBucket(backgroundBytes, System::nanoTime)};
+        this.liveBacklog = liveBacklog;
+        this.liveBacklogLimit = liveBacklogLimit;
+    }
+
+    /**
+     * Blocks until the lane may send a bulk of the given size.
+     */
+    void acquire(Lane lane, int documentCount, long byteCount) throws InterruptedException {
+        long start = System.nanoTime();
+        if (lane == Lane.BACKGROUND) {
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(MAX_YIELD_MS);
+            while (liveBacklog.getAsLong() > liveBacklogLimit && System.nanoTime() < deadline) {
+                Thread.sleep(YIELD_POLL_MS);
+            }
+        }
+        long wait = Math.max(documents[lane.ordinal()].reserve(documentCount),
+            bytes[lane.ordinal()].reserve(byteCount));
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        waitedMillis[lane.ordinal()].add(
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    void register(ElasticSearchMetrics metrics) {
+        metrics.gauge("throttle.live.waitedMillis", waitedMillis[Lane.LIVE.ordinal()]::sum);
+        metrics.gauge("throttle.background.waitedMillis",
+            waitedMillis[Lane.BACKGROUND.ordinal()]::sum);
+    }
+
+    /**
+     * Refills at {@code rate} tokens per second, up to one second worth of tokens. Taking more
+     * tokens than there are puts the bucket in debt, the caller waits until it is paid off, so
+     * requests larger than the rate still pass at the average rate.
+     */
+    static class TokenBucket {
+
+        private final long rate;
+        private final LongSupplier nanoClock;
+        private double tokens;
+        private long refilledNanos;
+
+        TokenBucket(long rate, LongSupplier nanoClock) {
+            this.rate = rate;
+            this.nanoClock = nanoClock;
+            this.tokens = rate;
+            this.refilledNanos = nanoClock.getAsLong();
+        }
+
+        /**
+         * Takes the tokens and returns the nanoseconds to wait before using them.
+         */
+        synchronized long reserve(long count) {
+            if (rate <= 0) {
+                return 0;
+            }
+            long now = nanoClock.getAsLong();
+            tokens = Math.min(rate, tokens + (now - refilledNanos) * rate / 1e9);
+            refilledNanos = now;
+            tokens -= count;
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1e9 / rate);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.collections.api.map.primitive.LongIntMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+
+/**
+ * The id of the last transaction whose changes, and those of every transaction before it, have
+ * been accepted by ElasticSearch. It is kept in a file next to the outbox, so after a restart the
+ * transactions committed since then can be replayed from the transaction logs by
+ * {@link ElasticSearchCatchUp}.
+ * <p>
+ * Every transaction is registered with the number of bulk items it queued before they are
+ * appended, and is pending until the shipper acknowledged all of them. The checkpoint is the
+ * transaction before the oldest pending one, or the newest transaction if none is pending. It is
+ * written at most once per {@link #FLUSH_INTERVAL_MS} and when closed.
+ * <p>
+ * Transactions are registered in {@code afterCommit}, which runs concurrently and so not in
+ * transaction id order. To not pass a transaction that committed but is not registered yet, each
+ * transaction {@link #hold(long) holds} the checkpoint before the id following the last committed
+ * one while it commits; its own id can only be greater.
+ */
+class ElasticSearchTransactionCheckpoint implements Closeable {
+
+    private final static Logger logger = Logger.getLogger(
+        ElasticSearchTransactionCheckpoint.class.getName());
+
+    private static final String FILE_NAME = "transaction-id";
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    /**
+     * Checkpoint of a database that never had a transaction acknowledged.
+     */
+    static final long NONE = -1;
+
+    private final Path file;
+    private final long last;
+    // by transaction id, the items not acknowledged yet
+    private final TreeMap<Long, Integer> pending = new TreeMap<>();
+    private long newest;
+    private long checkpoint;
+    private long flushed;
+    private long flushedMillis;
+
+    ElasticSearchTransactionCheckpoint(Path directory) throws IOException {
+        this.file = directory.resolve(FILE_NAME);
+        this.last = read(file);
+        this.checkpoint = last;
+        this.newest = checkpoint;
+        this.flushed = checkpoint;
+    }
+
+    private static long read(Path file) throws IOException {
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(file), UTF_8).trim());
+        } catch (NoSuchFileException e) {
+            return NONE;
+        } catch (NumberFormatException e) {
+            logger.warning("Ignoring corrupt ElasticSearch transaction checkpoint " + file);
+            return NONE;
+        }
+    }
+
+    /**
+     * The checkpoint when the database was started, {@link #NONE} if there is none.
+     */
+    long last() {
+        return last;
+    }
+
+    /**
+     * Registers the bulk items of a committed transaction, before they are queued.
+     */
+    synchronized void committed(long transactionId, int items) {
+        if (items > 0) {
+            pending.merge(transactionId, items, Integer::sum);
+        }
+        newest = Math.max(newest, transactionId);
+        advance();
+    }
+
+    /**
+     * Holds the checkpoint before the given transaction until {@link #release(long)}, e.g. while
+     * transactions before it are replayed.
+     */
+    synchronized void hold(long transactionId) {
+        pending.merge(transactionId, 1, Integer::sum);
+    }
+
+    synchronized void release(long transactionId) {
+        acknowledge(transactionId, 1);
+        advance();
+    }
+
+    /**
+     * Acknowledges bulk items by the transaction they were created from.
+     */
+    synchronized void acknowledged(LongIntMap items) {
+        items.forEachKeyValue(this::acknowledge);
+        advance();
+    }
+
+    /**
+     * Acknowledges bulk items that were dropped instead of queued. Their indexes are recorded as
+     * {@link ElasticSearchDirtyIndexes} first and need a reindex, replaying the transactions would
+     * not help.
+     */
+    void dropped(Collection<ElasticSearchBulkItem> items) {
+        LongIntHashMap transactions = new LongIntHashMap();
+        for (ElasticSearchBulkItem item : items) {
+            if (item.getTransactionId() != ElasticSearchBulkItem.NO_TRANSACTION) {
+                transactions.addToValue(item.getTransactionId(), 1);
+            }
+        }
+        if (!transactions.isEmpty()) {
+            acknowledged(transactions);
+        }
+    }
+
+    private void acknowledge(long transactionId, int items) {
+        pending.computeIfPresent(transactionId,
+            (id, count) -> count > items ? count - items : null);
+    }
+
+    private void advance() {
+        long current = pending.isEmpty() ? newest : pending.firstKey() - 1;
+        checkpoint = Math.max(checkpoint, current);
+        if (checkpoint != flushed
+            && System.currentTimeMillis() - flushedMillis >= FLUSH_INTERVAL_MS) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+            Files.write(temp, Long.toString(checkpoint).getBytes(UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            flushed = checkpoint;
+            flushedMillis = System.currentTimeMillis();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not write ElasticSearch transaction checkpoint "
+                + file, e);
+        }
+    }
+
+    synchronized long checkpoint() {
+        return checkpoint;
+    }
+
+    synchronized long pendingTransactions() {
+        return pending.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (checkpoint != flushed) {
+            flush();
+        }
+    }
+}
@@ -13,15 +13,18 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.*;
 
 public class JestDefaultHttpConfigFactory {
   public static HttpClientConfig getConfigFor(final String hostName, final Boolean discovery) throws URISyntaxException, GeneralSecurityException {
-    HttpClientConfig.Builder clientConfig = new HttpClientConfig.Builder(hostName)
+    List<String> hosts = hosts(hostName);
+    HttpClientConfig.Builder clientConfig = new HttpClientConfig.Builder(hosts)
             .multiThreaded(true)
-            .defaultSchemeForDiscoveredNodes(new URI(hostName).getScheme())
+            .defaultSchemeForDiscoveredNodes(new URI(hosts.get(0)).getScheme())
             .sslSocketFactory(getSyncHttpsHandler())
             .httpsIOSessionStrategy(getAsyncHttpsHandler());
     if (discovery == true) {
@@ -31,6 +34,22 @@ public class JestDefaultHttpConfigFactory {
     return clientConfig.build();
   }
 
+  /**
+   * The comma separated urls of the host_name setting.
+   */
+  static List<String> hosts(final String hostName) {
+    List<String> hosts = new ArrayList<>();
+    for (String host : hostName.split(",")) {
+      if (!host.trim().isEmpty()) {
+        hosts.add(host.trim());
+      }
+    }
+    if (hosts.isEmpty()) {
+      throw new IllegalArgumentException("No ElasticSearch host in '" + hostName + "'");
+    }
+    return hosts;
+  }
+
   private static SSLConnectionSocketFactory getSyncHttpsHandler() throws GeneralSecurityException {
     return new SSLConnectionSocketFactory(getSSLContext(), NoopHostnameVerifier.INSTANCE);
   }
@@ -0,0 +1,111 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.searchbox.action.AbstractAction;
+import io.searchbox.client.config.ElasticsearchVersion;
+import io.searchbox.core.BulkResult;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk action whose body has already been rendered to newline delimited bulk lines, e.g. as read
+ * back from the {@link ElasticSearchOutbox}. The {@link ElasticSearchBalancedClient} writes the
+ * lines into pooled buffers, other clients get them as a string.
+ */
+class JestRawBulk extends AbstractAction<BulkResult> {
+
+    private final List<ElasticSearchBulkItem> items;
+
+    private JestRawBulk(List<ElasticSearchBulkItem> items) {
+        this.items = items;
+    }
+
+    static JestRawBulk of(List<ElasticSearchBulkItem> items) {
+        return new JestRawBulk(items);
+    }
+
+    List<ElasticSearchBulkItem> getItems() {
+        return items;
+    }
+
+    /**
+     * The same request without a body, for a client that sets the body itself.
+     */
+    JestRawBulk withoutBody() {
+        return new JestRawBulk(null);
+    }
+
+    @Override
+    public String getRestMethodName() {
+        return "POST";
+    }
+
+    @Override
+    public String getData(Gson gson) {
+        if (items == null) {
+            return null;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (ElasticSearchBulkItem item : items) {
+            body.writeBytes(item.getLines());
+        }
+        return new String(body.toByteArray(), UTF_8);
+    }
+
+    @Override
+    public String getPathToResult() {
+        return "items";
+    }
+
+    @Override
+    protected String buildURI(ElasticsearchVersion elasticsearchVersion) {
+        return super.buildURI(elasticsearchVersion) + "/_bulk";
+    }
+
+    @Override
+    public BulkResult createNewElasticSearchResult(String responseBody, int statusCode,
+        String reasonPhrase, Gson gson) {
+        BulkResult result = createNewElasticSearchResult(new BulkResult(gson), responseBody,
+            statusCode, reasonPhrase, gson);
+        JsonObject json = result.getJsonObject();
+        if (json != null && json.has("errors") && json.get("errors").getAsBoolean()) {
+            result.setSucceeded(false);
+            result.setErrorMessage("One or more of the items in the bulk request failed");
+        }
+        return result;
+    }
+
+    /**
+     * The per item results of a bulk response, in the order of the request. Each item is an object
+     * with the operation as its only key, e.g. {@code {"index": {"_id": "1", "status": 201}}}.
+     */
+    static List<JsonObject> itemResults(BulkResult result) {
+        JsonObject json = result.getJsonObject();
+        if (json == null || !json.has("items") || !json.get("items").isJsonArray()) {
+            return Collections.emptyList();
+        }
+        List<JsonObject> results = new ArrayList<>();
+        for (JsonElement item : json.getAsJsonArray("items")) {
+            for (Map.Entry<String, JsonElement> operation : item.getAsJsonObject().entrySet()) {
+                results.add(operation.getValue().getAsJsonObject());
+            }
+        }
+        return results;
+    }
+
+    static String error(JsonElement error) {
+        if (error.isJsonObject() && error.getAsJsonObject().has("reason")) {
+            JsonObject object = error.getAsJsonObject();
+            return (object.has("type") ? object.get("type").getAsString() + ": " : "")
+                + object.get("reason").getAsString();
+        }
+        return error.toString();
+    }
+}
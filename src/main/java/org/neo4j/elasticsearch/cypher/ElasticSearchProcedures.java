@@ -1,18 +1,228 @@
 package org.neo4j.elasticsearch.cypher;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 import org.neo4j.elasticsearch.ElasticSearchHandler;
+import org.neo4j.elasticsearch.ElasticSearchHit;
+import org.neo4j.elasticsearch.ElasticSearchReindexStats;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.procedure.Context;
 import org.neo4j.procedure.Description;
 import org.neo4j.procedure.Name;
 import org.neo4j.procedure.Procedure;
 
 public class ElasticSearchProcedures {
 
+    private static final int DEFAULT_BATCH_SIZE = 2000;
+    private static final int DEFAULT_SEARCH_SIZE = 10;
+    private static final int DEFAULT_HYDRATION_BATCH = 100;
+
+    @Context
+    public GraphDatabaseService db;
+
+    @Context
+    public Transaction tx;
+
     @Procedure(name = "es.index")
     @Description("Put a node into elasticsearch index")
     public void index(@Name("node") Node node) throws IOException {
-        ElasticSearchHandler.getInstance().index(node);
+        handler().index(node);
+    }
+
+    @Procedure(name = "es.indexBatch")
+    @Description("Put a list of nodes or node ids into their elasticsearch indexes in concurrent "
+        + "bulks, config: {batchSize: 2000, concurrency: <processors>, async: false}")
+    public Stream<IndexResult> indexBatch(@Name("nodes") List<Object> nodes,
+        @Name(value = "config", defaultValue = "{}") Map<String, Object> config)
+        throws InterruptedException {
+        return Stream.of(new IndexResult(handler().index(db, nodes.iterator(), batchSize(config),
+            concurrency(config), async(config))));
+    }
+
+    @Procedure(name = "es.indexQuery")
+    @Description("Put the nodes or node ids of the first column of a query into their "
+        + "elasticsearch indexes in concurrent bulks, streaming the rows, "
+        + "config: {batchSize: 2000, concurrency: <processors>, async: false}")
+    public Stream<IndexResult> indexQuery(@Name("query") String query,
+        @Name(value = "params", defaultValue = "{}") Map<String, Object> params,
+        @Name(value = "config", defaultValue = "{}") Map<String, Object> config)
+        throws InterruptedException {
+        ElasticSearchHandler handler = handler();
+        try (Result result = tx.execute(query, params)) {
+            String column = result.columns().get(0);
+            return Stream.of(new IndexResult(handler.index(db,
+                result.stream().map(row -> row.get(column)).iterator(), batchSize(config),
+                concurrency(config), async(config))));
+        }
+    }
+
+    @Procedure(name = "es.reindex")
+    @Description("Put all nodes with a label into their elasticsearch indexes, "
+        + "config: {batchSize: 2000, concurrency: <processors>}")
+    public Stream<ReindexResult> reindex(@Name("label") String label,
+        @Name(value = "config", defaultValue = "{}") Map<String, Object> config)
+        throws InterruptedException {
+        ElasticSearchHandler handler = handler();
+        if (!handler.getIndexLabels().contains(label)) {
+            throw new IllegalArgumentException("No elasticsearch index is defined for :" + label);
+        }
+        return Stream.of(new ReindexResult(handler.reindex(db, label, batchSize(config),
+            concurrency(config))));
+    }
+
+    @Procedure(name = "es.reindexAll")
+    @Description("Put all nodes with an indexed label into their elasticsearch indexes, "
+        + "config: {batchSize: 2000, concurrency: <processors>}")
+    public Stream<ReindexResult> reindexAll(
+        @Name(value = "config", defaultValue = "{}") Map<String, Object> config)
+        throws InterruptedException {
+        ElasticSearchHandler handler = handler();
+        List<ReindexResult> results = new ArrayList<>();
+        for (String label : handler.getIndexLabels()) {
+            results.add(new ReindexResult(handler.reindex(db, label, batchSize(config),
+                concurrency(config))));
+        }
+        return results.stream();
+    }
+
+    @Procedure(name = "es.search")
+    @Description("Search a node index, the query is a map or JSON string of the query DSL or a "
+        + "query string, options: {size: 10, from: 0, batchSize: 100}")
+    public Stream<SearchResult> search(@Name("index") String index, @Name("query") Object query,
+        @Name(value = "options", defaultValue = "{}") Map<String, Object> options)
+        throws IOException {
+        ElasticSearchHandler handler = handler();
+        List<ElasticSearchHit> hits = handler.search(index, query,
+            nonNegative(options, "from", 0), positive(options, "size", DEFAULT_SEARCH_SIZE));
+        return handler.hydrate(tx, hits, positive(options, "batchSize", DEFAULT_HYDRATION_BATCH),
+            SearchResult::new);
+    }
+
+    @Procedure(name = "es.stats")
+    @Description("Indexing metrics: transactions, bulk sizes and latencies, acknowledgement lag, "
+        + "queue depth, retries and failures per index, and the indexes that need a reindex")
+    public Stream<StatResult> stats() {
+        ElasticSearchHandler handler = handler();
+        List<String> dirtyIndexes = new ArrayList<>(handler.getDirtyIndexes());
+        return Stream.concat(handler.getMetrics().snapshot().entrySet().stream()
+                .map(entry -> new StatResult(entry.getKey(), entry.getValue())),
+            Stream.of(new StatResult("dirtyIndexes", dirtyIndexes)));
+    }
+
+    private ElasticSearchHandler handler() {
+        ElasticSearchHandler handler = ElasticSearchHandler.getInstance(db.databaseName());
+        if (handler == null) {
+            throw new IllegalStateException(
+                "No elasticsearch index is defined for database " + db.databaseName());
+        }
+        return handler;
+    }
+
+    private static int batchSize(Map<String, Object> config) {
+        return positive(config, "batchSize", DEFAULT_BATCH_SIZE);
+    }
+
+    private static int concurrency(Map<String, Object> config) {
+        return positive(config, "concurrency", Runtime.getRuntime().availableProcessors());
     }
 
+    private static boolean async(Map<String, Object> config) {
+        return Boolean.TRUE.equals(config.get("async"));
+    }
+
+    private static int nonNegative(Map<String, Object> config, String key, int defaultValue) {
+        Object value = config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        int result = ((Number) value).intValue();
+        if (result < 0) {
+            throw new IllegalArgumentException(key + " must not be negative, but was " + value);
+        }
+        return result;
+    }
+
+    private static int positive(Map<String, Object> config, String key, int defaultValue) {
+        Object value = config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        int result = ((Number) value).intValue();
+        if (result < 1) {
+            throw new IllegalArgumentException(key + " must be positive, but was " + value);
+        }
+        return result;
+    }
+
+    public static class ReindexResult {
+
+        public String label;
+        public long nodes;
+        public long documents;
+        public long failed;
+        public long bulks;
+        public long bytes;
+        public long millis;
+        public double nodesPerSecond;
+
+        public ReindexResult(ElasticSearchReindexStats stats) {
+            this.label = stats.getLabel();
+            this.nodes = stats.getNodes();
+            this.documents = stats.getDocuments();
+            this.failed = stats.getFailed();
+            this.bulks = stats.getBulks();
+            this.bytes = stats.getBytes();
+            this.millis = stats.getMillis();
+            this.nodesPerSecond = stats.getNodesPerSecond();
+        }
+    }
+
+    public static class IndexResult {
+
+        public long nodes;
+        public long documents;
+        public long failed;
+        public long bulks;
+        public long bytes;
+        public long millis;
+        public double nodesPerSecond;
+
+        public IndexResult(ElasticSearchReindexStats stats) {
+            this.nodes = stats.getNodes();
+            this.documents = stats.getDocuments();
+            this.failed = stats.getFailed();
+            this.bulks = stats.getBulks();
+            this.bytes = stats.getBytes();
+            this.millis = stats.getMillis();
+            this.nodesPerSecond = stats.getNodesPerSecond();
+        }
+    }
+
+    public static class SearchResult {
+
+        public Node node;
+        public double score;
+
+        public SearchResult(Node node, ElasticSearchHit hit) {
+            this.node = node;
+            this.score = hit.getScore();
+        }
+    }
+
+    public static class StatResult {
+
+        public String name;
+        public Object value;
+
+        public StatResult(String name, Object value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
 }
@@ -0,0 +1,100 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.elasticsearch.ElasticSearchSettings.BackpressurePolicy;
+
+public class ElasticSearchBoundedQueueTest {
+
+    @TempDir
+    Path directory;
+
+    private static ElasticSearchBulkItem item(String index, String id) {
+        return new ElasticSearchBulkItem(ElasticSearchBulkItem.INDEX, index, id,
+            ("{\"index\":{\"_id\":\"" + id + "\"}}\n{}\n").getBytes(UTF_8));
+    }
+
+    private static int size() {
+        return item("test", "0").getLines().length;
+    }
+
+    @Test
+    public void testDropMarksIndexesDirty() throws Exception {
+        List<String> dropped = new ArrayList<>();
+        ElasticSearchBoundedQueue queue = new ElasticSearchBoundedQueue(
+            new ElasticSearchMemoryQueue(), null, 2 * size(), BackpressurePolicy.DROP,
+            new ElasticSearchDirtyIndexes(), items -> items.forEach(item -> dropped.add(item.getId())));
+        queue.append(singletonList(item("test", "1")));
+        queue.append(singletonList(item("test", "2")));
+        queue.append(singletonList(item("other", "3")));
+
+        assertEquals(2 * size(), queue.pendingBytes());
+        assertEquals(singleton("other"), queue.getDirtyIndexes());
+        assertEquals(List.of("3"), dropped);
+
+        ElasticSearchQueue.Batch batch = queue.poll(10, Long.MAX_VALUE, 0, TimeUnit.SECONDS);
+        queue.acknowledge(batch.getEndOffset());
+        assertEquals(0, queue.pendingBytes());
+        queue.append(singletonList(item("other", "3")));
+        assertEquals(size(), queue.pendingBytes());
+    }
+
+    @Test
+    public void testDirtyIndexesSurviveRestart() throws Exception {
+        List<String> dropped = new ArrayList<>();
+        ElasticSearchBoundedQueue queue = new ElasticSearchBoundedQueue(
+            new ElasticSearchMemoryQueue(), null, size(), BackpressurePolicy.DROP,
+            new ElasticSearchDirtyIndexes(directory),
+            items -> items.forEach(item -> dropped.add(item.getId())));
+        queue.append(singletonList(item("test", "1")));
+        queue.append(singletonList(item("other", "2")));
+        queue.append(singletonList(item("third", "3")));
+        assertEquals(List.of("2", "3"), dropped);
+
+        queue.clearDirty("third");
+        ElasticSearchDirtyIndexes restarted = new ElasticSearchDirtyIndexes(directory);
+        assertEquals(singleton("other"), restarted.names());
+        assertEquals(1, restarted.count());
+    }
+
+    @Test
+    public void testSpillKeepsOrder() throws Exception {
+        ElasticSearchBoundedQueue queue = new ElasticSearchBoundedQueue(
+            new ElasticSearchMemoryQueue(), ElasticSearchOutbox.open(directory, 1024 * 1024),
+            2 * size(), BackpressurePolicy.SPILL);
+        for (int i = 0; i < 5; i++) {
+            queue.append(singletonList(item("test", String.valueOf(i))));
+        }
+        // two items fit into memory, the spill outbox also counts its 8 byte record headers
+        assertEquals(2 * size() + 3 * (8 + item("test", "0").encodedLength()),
+            queue.pendingBytes());
+
+        List<String> ids = new ArrayList<>();
+        ElasticSearchQueue.Batch batch;
+        while (!(batch = queue.poll(10, Long.MAX_VALUE, 0, TimeUnit.SECONDS)).isEmpty()) {
+            batch.getItems().forEach(item -> ids.add(item.getId()));
+        }
+        assertEquals(List.of("0", "1", "2", "3", "4"), ids);
+
+        queue.rewind();
+        batch = queue.poll(10, Long.MAX_VALUE, 0, TimeUnit.SECONDS);
+        assertEquals("0", batch.getItems().get(0).getId());
+        queue.acknowledge(batch.getEndOffset());
+        while (!(batch = queue.poll(10, Long.MAX_VALUE, 0, TimeUnit.SECONDS)).isEmpty()) {
+            queue.acknowledge(batch.getEndOffset());
+        }
+        assertEquals(0, queue.pendingBytes());
+        assertTrue(queue.getDirtyIndexes().isEmpty());
+        queue.close();
+    }
+}
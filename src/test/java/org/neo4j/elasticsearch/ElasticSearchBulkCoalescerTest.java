@@ -0,0 +1,79 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class ElasticSearchBulkCoalescerTest {
+
+    private static final long LINGER = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static ElasticSearchBulkItem item(byte operation, String id) {
+        return new ElasticSearchBulkItem(operation, "test", id,
+            ("{\"_id\":\"" + id + "\"}\n").getBytes(UTF_8));
+    }
+
+    @Test
+    public void testLastWriteWins() {
+        ElasticSearchBulkCoalescer coalescer = new ElasticSearchBulkCoalescer(100, 1 << 20, LINGER);
+        ElasticSearchBulkItem latest = item(ElasticSearchBulkItem.INDEX, "1");
+        coalescer.add(item(ElasticSearchBulkItem.INDEX, "1"), 0);
+        coalescer.add(item(ElasticSearchBulkItem.INDEX, "2"), 0);
+        coalescer.add(latest, 0);
+
+        List<ElasticSearchBulkItem> items = coalescer.drain();
+        assertEquals(2, items.size());
+        assertSame(latest, items.get(0));
+        assertEquals("2", items.get(1).getId());
+        assertTrue(coalescer.isEmpty());
+    }
+
+    @Test
+    public void testDeleteSupersedesIndexAndUpdates() {
+        ElasticSearchBulkCoalescer coalescer = new ElasticSearchBulkCoalescer(100, 1 << 20, LINGER);
+        ElasticSearchBulkItem delete = item(ElasticSearchBulkItem.DELETE, "1");
+        coalescer.add(item(ElasticSearchBulkItem.INDEX, "1"), 0);
+        coalescer.add(item(ElasticSearchBulkItem.UPDATE, "1"), 0);
+        coalescer.add(delete, 0);
+
+        List<ElasticSearchBulkItem> items = coalescer.drain();
+        assertEquals(1, items.size());
+        assertSame(delete, items.get(0));
+    }
+
+    @Test
+    public void testUpdatesAreKeptInOrderBehindTheirWrite() {
+        ElasticSearchBulkCoalescer coalescer = new ElasticSearchBulkCoalescer(100, 1 << 20, LINGER);
+        coalescer.add(item(ElasticSearchBulkItem.INDEX, "1"), 0);
+        coalescer.add(item(ElasticSearchBulkItem.UPDATE, "1"), 0);
+
+        List<ElasticSearchBulkItem> items = coalescer.drain();
+        assertEquals(2, items.size());
+        assertEquals(ElasticSearchBulkItem.INDEX, items.get(0).getOperation());
+        assertEquals(ElasticSearchBulkItem.UPDATE, items.get(1).getOperation());
+    }
+
+    @Test
+    public void testFlushPolicies() {
+        ElasticSearchBulkCoalescer coalescer = new ElasticSearchBulkCoalescer(2, 1 << 20, LINGER);
+        assertFalse(coalescer.isDue(0));
+        coalescer.add(item(ElasticSearchBulkItem.INDEX, "1"), 0);
+        assertFalse(coalescer.isDue(LINGER - 1));
+        assertTrue(coalescer.isDue(LINGER));
+        coalescer.add(item(ElasticSearchBulkItem.INDEX, "2"), 0);
+        assertTrue(coalescer.isDue(0));
+        coalescer.drain();
+
+        int size = item(ElasticSearchBulkItem.INDEX, "1").getLines().length;
+        coalescer = new ElasticSearchBulkCoalescer(100, size, LINGER);
+        coalescer.add(item(ElasticSearchBulkItem.INDEX, "1"), 0);
+        assertTrue(coalescer.isDue(0));
+        assertEquals(0, coalescer.remainingBytes());
+    }
+}
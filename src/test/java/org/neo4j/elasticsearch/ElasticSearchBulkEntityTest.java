@@ -0,0 +1,158 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.junit.jupiter.api.Test;
+
+public class ElasticSearchBulkEntityTest {
+
+    private static List<ElasticSearchBulkItem> items(int count) {
+        List<ElasticSearchBulkItem> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] lines = ("{\"index\":{\"_id\":\"" + i + "\"}}\n{\"name\":\"node " + i + "\"}\n")
+                .getBytes(UTF_8);
+            items.add(new ElasticSearchBulkItem(ElasticSearchBulkItem.INDEX, "people",
+                String.valueOf(i), lines));
+        }
+        return items;
+    }
+
+    private static byte[] expected(List<ElasticSearchBulkItem> items) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (ElasticSearchBulkItem item : items) {
+            body.writeBytes(item.getLines());
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Takes at most {@code limit} bytes per write, like a busy connection.
+     */
+    private static class Encoder implements ContentEncoder {
+
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final int limit;
+        boolean completed;
+
+        Encoder(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = Math.min(limit, src.remaining());
+            byte[] bytes = new byte[count];
+            src.get(bytes);
+            written.writeBytes(bytes);
+            return count;
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return completed;
+        }
+    }
+
+    @Test
+    public void testBodySpansBuffers() throws Exception {
+        ElasticSearchBufferPool pool = new ElasticSearchBufferPool(1024, 16);
+        List<ElasticSearchBulkItem> items = items(100);
+        byte[] expected = expected(items);
+        ElasticSearchBulkEntity entity = ElasticSearchBulkEntity.of(items, pool,
+            ContentType.APPLICATION_JSON);
+
+        assertEquals(expected.length, entity.getContentLength());
+        assertEquals((expected.length + 1023) / 1024, pool.inUse());
+        assertTrue(entity.isRepeatable());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        assertArrayEquals(expected, out.toByteArray());
+        try (InputStream in = entity.getContent()) {
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+        assertEquals(new String(expected, UTF_8), JestRawBulk.of(items).getData(null));
+    }
+
+    @Test
+    public void testProducesContentAcrossWrites() throws Exception {
+        ElasticSearchBufferPool pool = new ElasticSearchBufferPool(1024, 16);
+        List<ElasticSearchBulkItem> items = items(100);
+        ElasticSearchBulkEntity entity = ElasticSearchBulkEntity.of(items, pool,
+            ContentType.APPLICATION_JSON);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Encoder encoder = new Encoder(300);
+            while (!encoder.completed) {
+                entity.produceContent(encoder, null);
+            }
+            assertArrayEquals(expected(items), encoder.written.toByteArray());
+            entity.close();
+        }
+    }
+
+    @Test
+    public void testRefersToLinesWhenPoolIsExhausted() throws Exception {
+        ElasticSearchBufferPool pool = new ElasticSearchBufferPool(1024, 1);
+        List<ElasticSearchBulkItem> items = items(100);
+        byte[] expected = expected(items);
+        ElasticSearchBulkEntity entity = ElasticSearchBulkEntity.of(items, pool,
+            ContentType.APPLICATION_JSON);
+
+        assertEquals(expected.length, entity.getContentLength());
+        assertEquals(1, pool.inUse());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        assertArrayEquals(expected, out.toByteArray());
+        try (InputStream in = entity.getContent()) {
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+        Encoder encoder = new Encoder(300);
+        while (!encoder.completed) {
+            entity.produceContent(encoder, null);
+        }
+        assertArrayEquals(expected, encoder.written.toByteArray());
+        entity.release();
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    public void testBuffersAreReusedAfterRelease() {
+        ElasticSearchBufferPool pool = new ElasticSearchBufferPool(1024, 4);
+        ElasticSearchMetrics metrics = new ElasticSearchMetrics();
+        pool.register(metrics);
+
+        ElasticSearchBulkEntity first = ElasticSearchBulkEntity.of(items(100), pool,
+            ContentType.APPLICATION_JSON);
+        // more than the pool holds, the rest is referred to where it is
+        assertEquals(4L, metrics.snapshot().get("bufferPool.buffers"));
+        assertTrue((Long) metrics.snapshot().get("bufferPool.misses") > 0);
+        first.release();
+        first.release();
+        assertEquals(0L, metrics.snapshot().get("bufferPool.inUse"));
+
+        long misses = (Long) metrics.snapshot().get("bufferPool.misses");
+        ElasticSearchBulkEntity second = ElasticSearchBulkEntity.of(items(10), pool,
+            ContentType.APPLICATION_JSON);
+        assertEquals(4L, metrics.snapshot().get("bufferPool.buffers"));
+        assertEquals(misses, metrics.snapshot().get("bufferPool.misses"));
+        assertTrue(pool.inUse() > 0);
+        second.release();
+        assertEquals(0, pool.inUse());
+    }
+}
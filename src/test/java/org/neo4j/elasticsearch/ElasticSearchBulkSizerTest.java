@@ -0,0 +1,51 @@
+package org.neo4j.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+public class ElasticSearchBulkSizerTest {
+
+    private final ElasticSearchBulkSizer sizer = new ElasticSearchBulkSizer(1000, 100, 4000,
+        Duration.ofMillis(500));
+
+    @Test
+    public void testGrowsWhileFastAndFull() {
+        assertEquals(1000, sizer.targetBytes());
+        assertEquals(250, sizer.targetActions());
+        sizer.accepted(1000, 100);
+        assertEquals(1100, sizer.targetBytes());
+        // a bulk cut short by the linger time says nothing about the size
+        sizer.accepted(100, 100);
+        assertEquals(1100, sizer.targetBytes());
+        for (int i = 0; i < 100; i++) {
+            sizer.accepted(sizer.targetBytes(), 100);
+        }
+        assertEquals(4000, sizer.targetBytes());
+        assertEquals(1000, sizer.targetActions());
+    }
+
+    @Test
+    public void testShrinksWhenSlowOrOverloaded() {
+        sizer.accepted(1000, 600);
+        assertEquals(750, sizer.targetBytes());
+        sizer.overloaded();
+        assertEquals(375, sizer.targetBytes());
+        for (int i = 0; i < 10; i++) {
+            sizer.overloaded();
+        }
+        assertEquals(100, sizer.targetBytes());
+        assertEquals(25, sizer.targetActions());
+    }
+
+    @Test
+    public void testFixedSize() {
+        ElasticSearchBulkSizer fixed = new ElasticSearchBulkSizer(1000, 4000, 4000,
+            Duration.ofMillis(500));
+        fixed.overloaded();
+        fixed.accepted(4000, 10);
+        assertEquals(4000, fixed.targetBytes());
+        assertEquals(1000, fixed.targetActions());
+    }
+}
@@ -0,0 +1,127 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.storageengine.api.TransactionIdStore;
+
+/**
+ * Replays transactions that committed but were never acknowledged by ElasticSearch, without an
+ * ElasticSearch server: the bulk items are taken from the queue.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class ElasticSearchCatchUpTest {
+
+    private static final String INDEX = "catch-up-index";
+    private static final String LABEL = "Label";
+    private static final long TIMEOUT_MS = 10000;
+
+    @TempDir
+    Path directory;
+
+    private ElasticSearchTestDatabase database;
+    private GraphDatabaseService db;
+
+    @BeforeAll
+    public void setUp() {
+        database = new ElasticSearchTestDatabase();
+        db = database.db;
+    }
+
+    @AfterAll
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    private long lastCommitted() {
+        return ((GraphDatabaseAPI) db).getDependencyResolver()
+            .resolveDependency(TransactionIdStore.class).getLastCommittedTransactionId();
+    }
+
+    private long createNode() {
+        try (Transaction tx = db.beginTx()) {
+            Node node = tx.createNode(Label.label(LABEL));
+            node.setProperty("foo", "bar");
+            tx.commit();
+            return node.getId();
+        }
+    }
+
+    @Test
+    public void testReplaysTransactionsCommittedBeforeCrash() throws Exception {
+        ElasticSearchTransactionCheckpoint acknowledged =
+            new ElasticSearchTransactionCheckpoint(directory);
+        acknowledged.committed(lastCommitted(), 0);
+        acknowledged.close();
+
+        // committed, but Neo4j stopped before the changes were acknowledged
+        String kept = String.valueOf(createNode());
+        long deletedId = createNode();
+        try (Transaction tx = db.beginTx()) {
+            tx.getNodeById(deletedId).delete();
+            tx.commit();
+        }
+        String deleted = String.valueOf(deletedId);
+        long last = lastCommitted();
+
+        // the restart
+        ElasticSearchTransactionCheckpoint checkpoint =
+            new ElasticSearchTransactionCheckpoint(directory);
+        assertEquals(last - 3, checkpoint.last());
+        ElasticSearchIndexSettings indexSettings = new ElasticSearchIndexSettings(
+            ElasticSearchIndexSpecParser.parseIndexSpec(INDEX + ":" + LABEL + "(foo)"), true,
+            true);
+        ElasticSearchMemoryQueue queue = database.queue();
+        ElasticSearchHandler handler = database.register(
+            database.handler(indexSettings).queue(queue).checkpoint(checkpoint));
+        ElasticSearchCatchUp catchUp = new ElasticSearchCatchUp(database.dms, db.databaseName(),
+            handler, checkpoint);
+        try {
+            catchUp.start();
+
+            Map<String, ElasticSearchBulkItem> items = new HashMap<>();
+            LongIntHashMap transactions = new LongIntHashMap();
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (items.size() < 2 && System.currentTimeMillis() < deadline) {
+                ElasticSearchQueue.Batch batch = queue.poll(100, Long.MAX_VALUE, 100,
+                    TimeUnit.MILLISECONDS);
+                for (ElasticSearchBulkItem item : batch.getItems()) {
+                    items.put(item.getId(), item);
+                    transactions.addToValue(item.getTransactionId(), 1);
+                }
+                queue.acknowledge(batch.getEndOffset());
+            }
+            assertEquals(ElasticSearchBulkItem.INDEX, items.get(kept).getOperation());
+            assertEquals(INDEX, items.get(kept).getIndexName());
+            assertTrue(new String(items.get(kept).getLines(), UTF_8).contains("\"foo\":\"bar\""));
+            assertEquals(ElasticSearchBulkItem.DELETE, items.get(deleted).getOperation());
+
+            // once ElasticSearch accepted the replayed documents, the checkpoint catches up
+            checkpoint.acknowledged(transactions);
+            while (checkpoint.checkpoint() < last && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(last, checkpoint.checkpoint());
+        } finally {
+            catchUp.stop();
+            checkpoint.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ElasticSearchChangeSetTest {
+
+    @TempDir
+    Path directory;
+
+    private static ElasticSearchBulkItem item(int id, int size) {
+        byte[] lines = new byte[size];
+        byte[] prefix = ("{\"index\":" + id + "}").getBytes(UTF_8);
+        System.arraycopy(prefix, 0, lines, 0, prefix.length);
+        return new ElasticSearchBulkItem(ElasticSearchBulkItem.INDEX, "index" + id % 2,
+            String.valueOf(id), lines);
+    }
+
+    private static long files(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testKeepsSmallChangeSetsOnHeap() throws Exception {
+        ElasticSearchChangeSet changeSet = new ElasticSearchChangeSet(1000, directory);
+        for (int i = 0; i < 10; i++) {
+            changeSet.add(item(i, 100));
+        }
+        assertFalse(changeSet.isSpilled());
+        assertEquals(10, changeSet.size());
+        assertEquals(2, changeSet.indexNames().size());
+
+        List<List<ElasticSearchBulkItem>> chunks = new ArrayList<>();
+        changeSet.forEachChunk(42, chunks::add);
+        assertEquals(1, chunks.size());
+        assertEquals(10, chunks.get(0).size());
+        assertEquals(42, chunks.get(0).get(9).getTransactionId());
+        changeSet.close();
+    }
+
+    @Test
+    public void testSpillsBeyondBudgetAndStreamsItemsInOrder() throws Exception {
+        ElasticSearchChangeSet changeSet = new ElasticSearchChangeSet(1000, directory);
+        int itemSize = 1024 * 1024;
+        int count = (int) (3 * ElasticSearchChangeSet.CHUNK_BYTES / itemSize) + 5;
+        for (int i = 0; i < count; i++) {
+            changeSet.add(item(i, itemSize));
+        }
+        assertTrue(changeSet.isSpilled());
+        assertEquals(count, changeSet.size());
+        assertEquals((long) count * itemSize, changeSet.bytes());
+        assertEquals(1, files(directory));
+
+        List<Integer> chunkSizes = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        changeSet.forEachChunk(7, chunk -> {
+            chunkSizes.add(chunk.size());
+            for (ElasticSearchBulkItem item : chunk) {
+                ids.add(item.getId());
+                assertEquals(7, item.getTransactionId());
+                assertEquals(itemSize, item.getLines().length);
+            }
+        });
+        assertEquals(4, chunkSizes.size());
+        assertEquals(16, (int) chunkSizes.get(0));
+        assertEquals(count, ids.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(String.valueOf(i), ids.get(i));
+        }
+
+        changeSet.close();
+        assertEquals(0, files(directory));
+    }
+
+    @Test
+    public void testCleanRemovesLeftovers() throws Exception {
+        ElasticSearchChangeSet changeSet = new ElasticSearchChangeSet(10, directory);
+        changeSet.add(item(1, 100));
+        assertTrue(changeSet.isSpilled());
+        Files.write(directory.resolve("other"), new byte[1]);
+
+        ElasticSearchChangeSet.clean(directory);
+        assertEquals(1, files(directory));
+    }
+}
@@ -0,0 +1,29 @@
+package org.neo4j.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.neo4j.configuration.Config;
+
+public class ElasticSearchDatabaseSettingsTest {
+
+    @Test
+    public void testDatabaseLimitsOverrideGlobalOnes() {
+        Config config = Config.newBuilder().setRaw(Map.of(
+            "elasticsearch.max_in_flight_bulks", "8",
+            "elasticsearch.database.tenant-a.max_in_flight_bulks", "2",
+            "elasticsearch.database.tenant-a.max_pending_size", "16m")).build();
+        ElasticSearchDatabaseSettings tenantA = ElasticSearchDatabaseSettings.of("tenant-a");
+        ElasticSearchDatabaseSettings tenantB = ElasticSearchDatabaseSettings.of("tenant-b");
+
+        assertEquals(2, (int) tenantA.get(config,
+            tenantA.maxInFlightBulks, ElasticSearchSettings.maxInFlightBulks));
+        assertEquals(16L * 1024 * 1024, (long) tenantA.get(config,
+            tenantA.maxPendingSize, ElasticSearchSettings.maxPendingSize));
+        assertEquals(8, (int) tenantB.get(config,
+            tenantB.maxInFlightBulks, ElasticSearchSettings.maxInFlightBulks));
+        assertEquals(0L, (long) tenantA.get(config,
+            tenantA.liveMaxDocsPerSecond, ElasticSearchSettings.liveMaxDocsPerSecond));
+    }
+}
@@ -0,0 +1,103 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Index;
+import io.searchbox.core.Update;
+import java.time.LocalDate;
+import org.junit.jupiter.api.Test;
+
+public class ElasticSearchDocumentWriterTest {
+
+    @Test
+    public void testEscapesStrings() {
+        String json = ElasticSearchDocumentWriter.acquire().beginObject()
+            .field("s").value("a\"b\\c\n\u0001é€😀")
+            .endObject().toString();
+        assertEquals("{\"s\":\"a\\\"b\\\\c\\n\\u0001é€😀\"}", json);
+    }
+
+    @Test
+    public void testWritesPropertyValues() {
+        byte[] name = ElasticSearchDocumentWriter.encodeFieldName("name");
+        String json = ElasticSearchDocumentWriter.acquire().beginObject()
+            .field(name).value((Object) "x")
+            .field("long").value((Object) Long.MIN_VALUE)
+            .field("int").value((Object) (-42))
+            .field("double").value((Object) 1.5)
+            .field("float").value((Object) 1.1f)
+            .field("bool").value((Object) true)
+            .field("longs").value((Object) new long[]{1, 2})
+            .field("strings").value((Object) new String[]{"x", "y"})
+            .field("booleans").value((Object) new boolean[]{true, false})
+            .field("date").value((Object) LocalDate.of(2020, 1, 2))
+            .field("null").value((Object) null)
+            .endObject().toString();
+        assertEquals("{\"name\":\"x\",\"long\":-9223372036854775808,\"int\":-42,"
+            + "\"double\":1.5,\"float\":1.1,\"bool\":true,\"longs\":[1,2],"
+            + "\"strings\":[\"x\",\"y\"],\"booleans\":[true,false],\"date\":\"2020-01-02\","
+            + "\"null\":null}", json);
+    }
+
+    @Test
+    public void testRendersBulkLines() {
+        Index index = new Index.Builder("{\"foo\":\"bar\"}").index("i").type("T").id("1")
+            .build();
+        assertEquals("{\"index\":{\"_id\":\"1\",\"_index\":\"i\",\"_type\":\"T\"}}\n"
+                + "{\"foo\":\"bar\"}\n",
+            new String(ElasticSearchBulkItem.of(index).getLines(), UTF_8));
+
+        Delete delete = new Delete.Builder("2").index("i").build();
+        assertEquals("{\"delete\":{\"_id\":\"2\",\"_index\":\"i\"}}\n",
+            new String(ElasticSearchBulkItem.of(delete).getLines(), UTF_8));
+    }
+
+    @Test
+    public void testCopiesRenderedSource() {
+        byte[] source = ElasticSearchDocumentWriter.acquire().beginObject()
+            .field("name").value("é").endObject().toByteArray();
+        Update update = ElasticSearchRenderedSource.update(source).index("i").id("1").build();
+        assertEquals("{\"update\":{\"_id\":\"1\",\"_index\":\"i\"}}\n{\"name\":\"é\"}\n",
+            new String(ElasticSearchBulkItem.of(update).getLines(), UTF_8));
+        assertEquals("{\"name\":\"é\"}", update.getData(null));
+    }
+
+    @Test
+    public void testRecordsDigestsPerField() {
+        byte[] digestField = ElasticSearchDocumentWriter.encodeFieldName("digest");
+        ElasticSearchDocumentWriter writer = ElasticSearchDocumentWriter.acquire().beginObject()
+            .recordDigests()
+            .field("name").value("x")
+            .field("tags").beginArray().value("a").value("b").endArray()
+            .digests(digestField).endObject();
+        JsonObject document = new JsonParser().parse(writer.toString()).getAsJsonObject();
+        JsonObject digests = document.getAsJsonObject("digest");
+        long name = digests.get("name").getAsLong(), tags = digests.get("tags").getAsLong();
+        assertTrue(name >= 0 && name <= Integer.MAX_VALUE);
+        assertTrue(tags >= 0 && tags <= Integer.MAX_VALUE);
+        assertEquals(name + tags, writer.digestSum());
+        assertEquals("x", document.get("name").getAsString());
+
+        // a partial update carries the same digest for the same value, none for removed fields
+        writer = ElasticSearchDocumentWriter.acquire().beginObject().field("doc").beginObject()
+            .recordDigests()
+            .field("name").value("x")
+            .field("tags").value((String) null)
+            .digests(digestField).endObject().endObject();
+        digests = new JsonParser().parse(writer.toString()).getAsJsonObject()
+            .getAsJsonObject("doc").getAsJsonObject("digest");
+        assertEquals(name, digests.get("name").getAsLong());
+        assertTrue(digests.get("tags").isJsonNull());
+        assertEquals(name, writer.digestSum());
+
+        writer = ElasticSearchDocumentWriter.acquire().beginObject().recordDigests()
+            .field("name").value("y").digests(digestField).endObject();
+        assertNotEquals(name, writer.digestSum());
+    }
+}
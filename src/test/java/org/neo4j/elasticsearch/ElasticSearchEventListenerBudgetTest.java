@@ -0,0 +1,108 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Checks that transactions larger than the memory budget are spilled and still render the
+ * committed values, without an ElasticSearch server.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class ElasticSearchEventListenerBudgetTest {
+
+    private static final String INDEX = "people";
+    private static final long BUDGET = 4096;
+    private static final int NODES = 50;
+
+    private ElasticSearchTestDatabase database;
+    private GraphDatabaseService db;
+    private Path spillDirectory;
+    private ElasticSearchMemoryQueue queue;
+    private ElasticSearchMetrics metrics;
+
+    @BeforeAll
+    public void setUp() throws Exception {
+        database = new ElasticSearchTestDatabase();
+        db = database.db;
+        spillDirectory = Files.createTempDirectory("spill");
+
+        ElasticSearchIndexSettings indexSettings = new ElasticSearchIndexSettings(
+            ElasticSearchIndexSpecParser.parseIndexSpec(INDEX + ":Person(name,bio)"), true,
+            true);
+        indexSettings.setPartialUpdates(true);
+        queue = database.queue();
+        metrics = new ElasticSearchMetrics();
+        ElasticSearchHandler handler = database.register(
+            database.handler(indexSettings).queue(queue).metrics(metrics));
+        database.listen(new ElasticSearchEventListener(handler, BUDGET, spillDirectory))
+            .register(metrics);
+    }
+
+    @AfterAll
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    private List<ElasticSearchBulkItem> shipped() throws Exception {
+        return ElasticSearchTestDatabase.shipped(queue);
+    }
+
+    private static String bio(char c) {
+        StringBuilder bio = new StringBuilder();
+        for (int i = 0; i < 1024; i++) {
+            bio.append(c);
+        }
+        return bio.toString();
+    }
+
+    @Test
+    public void testLargeTransactionIsSpilled() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < NODES; i++) {
+                Node node = tx.createNode(Label.label("Person"));
+                node.setProperty("name", "Person " + i);
+                node.setProperty("bio", bio('a'));
+            }
+            tx.commit();
+        }
+        List<ElasticSearchBulkItem> items = shipped();
+        assertEquals(NODES, items.size());
+        assertEquals(1L, metrics.snapshot().get("transactions.spilled"));
+
+        try (Transaction tx = db.beginTx()) {
+            tx.findNodes(Label.label("Person")).forEachRemaining(node -> {
+                node.setProperty("bio", bio('b'));
+                node.setProperty("bio", bio('c'));
+            });
+            tx.commit();
+        }
+        items = shipped();
+        assertEquals(NODES, items.size());
+        for (ElasticSearchBulkItem item : items) {
+            assertEquals(ElasticSearchBulkItem.UPDATE, item.getOperation());
+            String lines = new String(item.getLines(), UTF_8);
+            assertTrue(lines.contains("\"bio\":\"" + bio('c') + "\""));
+            assertFalse(lines.contains(bio('b')));
+        }
+        assertEquals(2L, metrics.snapshot().get("transactions.spilled"));
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.neo4j.elasticsearch;
 
 import static java.util.Collections.singletonList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -9,6 +10,7 @@ import io.searchbox.client.JestClient;
 import io.searchbox.client.JestClientFactory;
 import io.searchbox.client.JestResult;
 import io.searchbox.client.config.HttpClientConfig;
+import io.searchbox.core.Delete;
 import io.searchbox.core.Get;
 import io.searchbox.indices.CreateIndex;
 import io.searchbox.indices.DeleteIndex;
@@ -166,6 +168,87 @@ public class ElasticSearchEventListenerTest {
         assertEquals("quux", response.getSourceAsObject(Map.class).get("foo"));
     }
 
+    @Test
+    public void testUnchangedPropertiesAreSkipped() throws Exception {
+        node = createNode();
+        JestResult response = client.execute(new Get.Builder(INDEX, id).build());
+        assertIndexCreation(response);
+        Object version = response.getValue("_version");
+
+        try (Transaction tx = db.beginTx()) {
+            node = tx.getNodeById(Integer.parseInt(id));
+            node.setProperty("foo", "bar");
+            node.setProperty("counter", 42);
+            tx.commit();
+        }
+
+        response = client.execute(new Get.Builder(INDEX, id).type(LABEL).build());
+        assertEquals(version, response.getValue("_version"));
+        assertNull(response.getSourceAsObject(Map.class).get("counter"));
+    }
+
+    @Test
+    public void testPartialUpdate() throws Exception {
+        indexSettings.setPartialUpdates(true);
+        try {
+            node = createNode();
+            JestResult response = client.execute(new Get.Builder(INDEX, id).build());
+            assertIndexCreation(response);
+
+            try (Transaction tx = db.beginTx()) {
+                node = tx.getNodeById(Integer.parseInt(id));
+                node.setProperty("foo", "quux");
+                tx.commit();
+            }
+
+            response = client.execute(new Get.Builder(INDEX, id).type(LABEL).build());
+            Map source = response.getSourceAsObject(Map.class);
+            assertEquals("quux", source.get("foo"));
+            assertEquals(id, source.get("id"));
+
+            try (Transaction tx = db.beginTx()) {
+                node = tx.getNodeById(Integer.parseInt(id));
+                node.removeProperty("foo");
+                tx.commit();
+            }
+
+            response = client.execute(new Get.Builder(INDEX, id).type(LABEL).build());
+            source = response.getSourceAsObject(Map.class);
+            assertNull(source.get("foo"));
+            assertEquals(id, source.get("id"));
+        } finally {
+            indexSettings.setPartialUpdates(false);
+        }
+    }
+
+    @Test
+    public void testPartialUpdateOfMissingDocument() throws Exception {
+        indexSettings.setPartialUpdates(true);
+        try {
+            node = createNode();
+            client.execute(new Delete.Builder(id).index(INDEX).type(LABEL).build());
+
+            try (Transaction tx = db.beginTx()) {
+                node = tx.getNodeById(Integer.parseInt(id));
+                node.setProperty("foo", "quux");
+                tx.commit();
+            }
+            // the partial update only carries the change and fails without a document
+            assertFalse(client.execute(new Get.Builder(INDEX, id).build()).isSucceeded());
+
+            // so the shipper sends the full document instead
+            client.execute(JestRawBulk.of(handler.indexItems(db, singletonList(
+                new ElasticSearchBulkItem(ElasticSearchBulkItem.UPDATE, INDEX, id, new byte[0])))));
+            JestResult response = client.execute(new Get.Builder(INDEX, id).type(LABEL).build());
+            Map source = response.getSourceAsObject(Map.class);
+            assertEquals("quux", source.get("foo"));
+            assertEquals(id, source.get("id"));
+            assertEquals(singletonList(LABEL), source.get("labels"));
+        } finally {
+            indexSettings.setPartialUpdates(false);
+        }
+    }
+
     @Test
     public void testDelete() throws Exception {
         node = createNode();
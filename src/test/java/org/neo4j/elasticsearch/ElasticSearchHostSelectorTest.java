@@ -0,0 +1,110 @@
+package org.neo4j.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class ElasticSearchHostSelectorTest {
+
+    private static final String A = "http://a:9200";
+    private static final String B = "http://b:9200";
+
+    private final AtomicLong clock = new AtomicLong(1000);
+    private final ElasticSearchHostSelector selector = new ElasticSearchHostSelector(
+        Arrays.asList(A, B), 2, Duration.ofSeconds(1), clock::get);
+
+    @Test
+    public void testPrefersFasterHost() throws Exception {
+        selector.success(A, 10);
+        selector.success(B, 500);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(A, selector.select());
+        }
+    }
+
+    @Test
+    public void testBreakerOpensAfterConsecutiveFailures() throws Exception {
+        selector.failure(B + "/_bulk");
+        selector.success(B, 1);
+        selector.failure(B);
+        assertEquals(2, healthy());
+
+        selector.response(B + "/_bulk", 503, 1);
+        assertEquals(1, healthy());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(A, selector.select());
+        }
+    }
+
+    @Test
+    public void testHalfOpenProbeAfterOpenTime() throws Exception {
+        selector.failure(B);
+        selector.failure(B);
+        clock.addAndGet(1000);
+        assertEquals(B, selector.select());
+        // only one probe at a time
+        for (int i = 0; i < 20; i++) {
+            assertEquals(A, selector.select());
+        }
+        selector.success(B, 1);
+        assertEquals(2, healthy());
+    }
+
+    @Test
+    public void testFailedProbeDoublesOpenTime() throws Exception {
+        selector.failure(A);
+        selector.failure(A);
+        clock.addAndGet(1000);
+        assertEquals(A, selector.select());
+        selector.failure(A);
+
+        clock.addAndGet(1999);
+        assertEquals(B, selector.select());
+        clock.addAndGet(1);
+        assertEquals(A, selector.select());
+    }
+
+    @Test
+    public void testRejectsWhileAllHostsAreDown() throws Exception {
+        for (String host : Arrays.asList(A, B)) {
+            selector.failure(host);
+            selector.failure(host);
+        }
+        assertThrows(IOException.class, selector::select);
+        assertEquals(1, metric("hosts.rejectedRequests"));
+
+        clock.addAndGet(1000);
+        selector.select();
+    }
+
+    @Test
+    public void testSetHostsKeepsState() throws Exception {
+        selector.failure(B);
+        selector.failure(B);
+        selector.setHosts(Arrays.asList(A, "http://b:9200/", "http://c:9200"));
+        assertEquals(3, metric("hosts"));
+        assertEquals(2, healthy());
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals("http://a:80", ElasticSearchHostSelector.key("http://a"));
+        assertEquals("https://a:443", ElasticSearchHostSelector.key("https://a/_bulk"));
+        assertEquals("http://a:9200", ElasticSearchHostSelector.key("http://a:9200/x/_doc/1"));
+    }
+
+    private long healthy() {
+        return metric("hosts.healthy");
+    }
+
+    private long metric(String name) {
+        ElasticSearchMetrics metrics = new ElasticSearchMetrics();
+        selector.register(metrics);
+        return (Long) metrics.snapshot().get(name);
+    }
+}
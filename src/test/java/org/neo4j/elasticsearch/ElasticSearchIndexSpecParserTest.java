@@ -3,9 +3,12 @@ package org.neo4j.elasticsearch;
 import static java.util.Arrays.asList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.neo4j.elasticsearch.ElasticSearchIndexSpecParser.parseDatabases;
 import static org.neo4j.elasticsearch.ElasticSearchIndexSpecParser.parseIndexSpec;
+import static org.neo4j.elasticsearch.ElasticSearchIndexSpecParser.parseRelationshipIndexSpec;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -22,6 +25,35 @@ public class ElasticSearchIndexSpecParserTest {
         assertEquals(new HashSet<>(asList("Label", "OtherLabel")), rv.keySet());
     }
 
+    @Test
+    public void testParseRelationshipIndexSpec() throws ParseException {
+        String spec = "people:Person(name),payments:[PAID](amount,currency),transfers:[SENT](at)";
+        assertEquals(new HashSet<>(asList("Person")), parseIndexSpec(spec).keySet());
+
+        Map<String, List<ElasticSearchIndexSpec>> rv = parseRelationshipIndexSpec(spec);
+        assertEquals(new HashSet<>(asList("PAID", "SENT")), rv.keySet());
+        assertEquals("payments", rv.get("PAID").get(0).getIndexName());
+        assertEquals(new HashSet<>(asList("amount", "currency")),
+            rv.get("PAID").get(0).getProperties());
+    }
+
+    @Test
+    public void testParseDatabaseIndexSpec() throws ParseException {
+        String spec = "people:Person(name),tenant-a/customers:Customer(name),"
+            + "tenant-b/customers:Customer(name,email),tenant-b/orders:[ORDERED](at)";
+        assertEquals(asList("neo4j", "tenant-a", "tenant-b"),
+            new ArrayList<>(parseDatabases(spec, "neo4j")));
+
+        assertEquals(new HashSet<>(asList("Person")), parseIndexSpec(spec).keySet());
+        assertEquals(new HashSet<>(asList("Person")),
+            parseIndexSpec(spec, "neo4j", "neo4j").keySet());
+        assertEquals(new HashSet<>(asList("name", "email")),
+            parseIndexSpec(spec, "tenant-b", "neo4j").get("Customer").get(0).getProperties());
+        assertEquals(new HashSet<>(asList("ORDERED")),
+            parseRelationshipIndexSpec(spec, "tenant-b", "neo4j").keySet());
+        assertEquals(0, parseRelationshipIndexSpec(spec, "tenant-a", "neo4j").size());
+    }
+
     @Test
     public void testIndexSpecBadSyntax() throws ParseException {
         Map rv = parseIndexSpec("index_name:Label(foo,bar");
@@ -0,0 +1,47 @@
+package org.neo4j.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class ElasticSearchMetricsTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        ElasticSearchHistogram histogram = new ElasticSearchHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.count());
+        assertEquals(50.5, histogram.mean(), 0.001);
+        assertEquals(100, histogram.max());
+        long p50 = histogram.percentile(0.5);
+        assertTrue(p50 >= 50 && p50 < 100, "p50 " + p50);
+        assertEquals(100, histogram.percentile(0.99));
+        assertEquals(0, new ElasticSearchHistogram().percentile(0.99));
+    }
+
+    @Test
+    public void testSnapshot() {
+        ElasticSearchMetrics metrics = new ElasticSearchMetrics();
+        metrics.transaction(3);
+        metrics.transaction(1);
+        metrics.bulk(4, 1024, 12);
+        metrics.retried("index1");
+        metrics.failed("index1");
+        metrics.failed("index2");
+        metrics.gauge("queue.pendingBytes", () -> 42);
+
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertEquals(2L, snapshot.get("transactions"));
+        assertEquals(4L, snapshot.get("actions"));
+        assertEquals(1L, snapshot.get("bulks"));
+        assertEquals(1024L, snapshot.get("bulk.bytes.max"));
+        assertEquals(42L, snapshot.get("queue.pendingBytes"));
+        assertEquals(1L, snapshot.get("retries"));
+        assertEquals(2L, snapshot.get("failures"));
+        assertEquals(1L, snapshot.get("failures.index2"));
+    }
+}
@@ -0,0 +1,125 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ElasticSearchOutboxTest {
+
+    @TempDir
+    Path directory;
+
+    private static ElasticSearchBulkItem item(String id) {
+        String lines = "{\"index\":{\"_index\":\"test\",\"_id\":\"" + id + "\"}}\n"
+            + "{\"foo\":\"bar\"}\n";
+        return new ElasticSearchBulkItem(ElasticSearchBulkItem.INDEX, "test", id,
+            lines.getBytes(UTF_8));
+    }
+
+    private static ElasticSearchQueue.Batch poll(ElasticSearchOutbox outbox, int maxItems)
+        throws InterruptedException {
+        return outbox.poll(maxItems, Long.MAX_VALUE, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testAppendAndPoll() throws Exception {
+        try (ElasticSearchOutbox outbox = ElasticSearchOutbox.open(directory, 1024 * 1024)) {
+            outbox.append(asList(item("1"), item("2")));
+            outbox.append(singletonList(item("3")));
+
+            ElasticSearchQueue.Batch batch = poll(outbox, 2);
+            assertEquals(2, batch.getItems().size());
+            assertEquals("1", batch.getItems().get(0).getId());
+            assertEquals("2", batch.getItems().get(1).getId());
+            assertEquals(new String(item("1").getLines(), UTF_8),
+                new String(batch.getItems().get(0).getLines(), UTF_8));
+
+            batch = poll(outbox, 10);
+            assertEquals(1, batch.getItems().size());
+            assertEquals("3", batch.getItems().get(0).getId());
+            assertTrue(poll(outbox, 10).isEmpty());
+        }
+    }
+
+    @Test
+    public void testResumesFromCheckpointAfterReopen() throws Exception {
+        try (ElasticSearchOutbox outbox = ElasticSearchOutbox.open(directory, 1024 * 1024)) {
+            outbox.append(asList(item("1"), item("2"), item("3")));
+            ElasticSearchQueue.Batch batch = poll(outbox, 1);
+            outbox.acknowledge(batch.getEndOffset());
+            poll(outbox, 10); // read but never acknowledged
+        }
+
+        try (ElasticSearchOutbox outbox = ElasticSearchOutbox.open(directory, 1024 * 1024)) {
+            List<ElasticSearchBulkItem> items = poll(outbox, 10).getItems();
+            assertEquals(2, items.size());
+            assertEquals("2", items.get(0).getId());
+            assertEquals("3", items.get(1).getId());
+
+            outbox.append(singletonList(item("4")));
+            assertEquals("4", poll(outbox, 10).getItems().get(0).getId());
+        }
+    }
+
+    @Test
+    public void testRollsAndDeletesAcknowledgedSegments() throws Exception {
+        int recordSize = 8 + item("10").encodedLength();
+        try (ElasticSearchOutbox outbox = ElasticSearchOutbox.open(directory, recordSize * 3)) {
+            for (int i = 10; i < 20; i++) {
+                outbox.append(singletonList(item(String.valueOf(i))));
+            }
+            assertEquals(4, segmentCount());
+
+            ElasticSearchQueue.Batch batch = poll(outbox, 7);
+            assertEquals(7, batch.getItems().size());
+            assertEquals("16", batch.getItems().get(6).getId());
+            outbox.acknowledge(batch.getEndOffset());
+            assertEquals(2, segmentCount());
+
+            outbox.rewind();
+            assertEquals("17", poll(outbox, 1).getItems().get(0).getId());
+        }
+    }
+
+    @Test
+    public void testForcedAppendsSurviveReopen() throws Exception {
+        int recordSize = 8 + item("10").encodedLength();
+        try (ElasticSearchOutbox outbox = ElasticSearchOutbox.open(directory, recordSize * 3,
+            true)) {
+            // the first append fills its segment exactly
+            outbox.append(asList(item("10"), item("11"), item("12")));
+            outbox.append(asList(item("13"), item("14")));
+        }
+        try (ElasticSearchOutbox outbox = ElasticSearchOutbox.open(directory, recordSize * 3,
+            true)) {
+            ElasticSearchQueue.Batch batch = poll(outbox, 10);
+            assertEquals(5, batch.getItems().size());
+            assertEquals("14", batch.getItems().get(4).getId());
+        }
+    }
+
+    @Test
+    public void testRejectsItemsLargerThanASegment() throws Exception {
+        try (ElasticSearchOutbox outbox = ElasticSearchOutbox.open(directory, 32)) {
+            assertThrows(IOException.class, () -> outbox.append(singletonList(item("1"))));
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+}
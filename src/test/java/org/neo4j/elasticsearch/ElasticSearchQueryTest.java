@@ -0,0 +1,41 @@
+package org.neo4j.elasticsearch;
+
+import static java.util.Collections.singletonMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import io.searchbox.core.SearchResult;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ElasticSearchQueryTest {
+
+    @Test
+    public void testBody() {
+        assertEquals("{\"query\":{\"query_string\":{\"query\":\"name:Alice\"}},"
+                + "\"from\":0,\"size\":10,\"_source\":false}",
+            ElasticSearchQuery.body("name:Alice", 0, 10));
+        assertEquals("{\"query\":{\"match\":{\"name\":\"Alice\"}},"
+                + "\"from\":20,\"size\":5,\"_source\":false}",
+            ElasticSearchQuery.body("{\"match\":{\"name\":\"Alice\"}}", 20, 5));
+        assertEquals("{\"query\":{\"match\":{\"name\":\"Alice\"}},"
+                + "\"from\":0,\"size\":1,\"_source\":false}",
+            ElasticSearchQuery.body(singletonMap("match", singletonMap("name", "Alice")), 0, 1));
+    }
+
+    @Test
+    public void testHits() {
+        SearchResult result = new SearchResult(new Gson());
+        result.setJsonObject(new JsonParser().parse("{\"hits\":{\"total\":3,\"hits\":["
+            + "{\"_id\":\"42\",\"_score\":2.5},"
+            + "{\"_id\":\"not-a-node\",\"_score\":2.0},"
+            + "{\"_id\":\"7\",\"_score\":null}]}}").getAsJsonObject());
+
+        List<ElasticSearchHit> hits = ElasticSearchQuery.hits(result);
+        assertEquals(2, hits.size());
+        assertEquals(42, hits.get(0).getId());
+        assertEquals(2.5, hits.get(0).getScore(), 0);
+        assertEquals(7, hits.get(1).getId());
+    }
+}
@@ -0,0 +1,140 @@
+package org.neo4j.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestClientFactory;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.config.HttpClientConfig;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Get;
+import io.searchbox.core.Index;
+import io.searchbox.indices.CreateIndex;
+import io.searchbox.indices.DeleteIndex;
+import io.searchbox.indices.Refresh;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class ElasticSearchReconcilerTest {
+
+    private static final String INDEX = "reconcile-index";
+    private static final String LABEL = "Label";
+
+    private ElasticSearchTestDatabase database;
+    private GraphDatabaseService db;
+    private JestClient client;
+    private ElasticSearchHandler handler;
+    private ElasticSearchReconciler reconciler;
+
+    @BeforeAll
+    public void setUp() throws Exception {
+        JestClientFactory factory = new JestClientFactory();
+        factory.setHttpClientConfig(new HttpClientConfig
+            .Builder("http://localhost:9200")
+            .multiThreaded(true)
+            .build());
+        client = factory.getObject();
+
+        database = new ElasticSearchTestDatabase();
+        db = database.db;
+
+        Map<String, List<ElasticSearchIndexSpec>> indexSpec =
+            ElasticSearchIndexSpecParser.parseIndexSpec(INDEX + ":" + LABEL + "(foo)");
+        ElasticSearchIndexSettings settings = new ElasticSearchIndexSettings(indexSpec, true, true);
+        settings.setDigests(true);
+        handler = database.register(database.handler(settings).jestClient(client));
+        handler.setUseAsyncJest(false);
+        database.listen(new ElasticSearchEventListener(handler));
+        reconciler = new ElasticSearchReconciler(database.dms, db.databaseName(), handler, client,
+            indexSpec, 0, Duration.ofHours(1));
+
+        client.execute(new CreateIndex.Builder(INDEX).build());
+    }
+
+    @AfterAll
+    public void tearDown() throws Exception {
+        client.execute(new DeleteIndex.Builder(INDEX).build());
+        client.close();
+        database.close();
+    }
+
+    private String createNode(Label... labels) {
+        try (Transaction tx = db.beginTx()) {
+            Node node = tx.createNode(labels);
+            node.setProperty("foo", "bar");
+            tx.commit();
+            return String.valueOf(node.getId());
+        }
+    }
+
+    private long reconcile() throws Exception {
+        client.execute(new Refresh.Builder().addIndex(INDEX).build());
+        long repairs = reconciler.reconcile(db);
+        client.execute(new Refresh.Builder().addIndex(INDEX).build());
+        return repairs;
+    }
+
+    private JestResult get(String id) throws Exception {
+        return client.execute(new Get.Builder(INDEX, id).build());
+    }
+
+    @Test
+    public void testRepairsMissingExtraAndStaleDocuments() throws Exception {
+        String consistent = createNode(Label.label(LABEL));
+        String missing = createNode(Label.label(LABEL));
+        String stale = createNode(Label.label(LABEL));
+        String extra = createNode();
+        assertEquals(0, reconcile());
+
+        client.execute(new Delete.Builder(missing).index(INDEX).type(LABEL).build());
+        client.execute(new Index.Builder("{\"foo\":\"old\"}").index(INDEX).type(LABEL).id(stale)
+            .build());
+        client.execute(new Index.Builder("{\"foo\":\"bar\"}").index(INDEX).type(LABEL).id(extra)
+            .build());
+
+        assertEquals(3, reconcile());
+        assertTrue(get(consistent).isSucceeded());
+        assertEquals("bar", get(missing).getSourceAsObject(Map.class).get("foo"));
+        assertEquals("bar", get(stale).getSourceAsObject(Map.class).get("foo"));
+        assertFalse(get(extra).isSucceeded());
+
+        // consistent again, nothing is sent
+        assertEquals(0, reconcile());
+    }
+
+    @Test
+    public void testRepairDoesNotOverrideNewerWrite() throws Exception {
+        String id = createNode(Label.label(LABEL));
+        client.execute(new Index.Builder("{\"foo\":\"old\"}").index(INDEX).type(LABEL).id(id)
+            .build());
+        client.execute(new Refresh.Builder().addIndex(INDEX).build());
+        JestResult read = get(id);
+        long seqNo = read.getJsonObject().get("_seq_no").getAsLong();
+        long primaryTerm = read.getJsonObject().get("_primary_term").getAsLong();
+
+        // a live write lands between reading the index and applying the repair
+        client.execute(new Index.Builder("{\"foo\":\"newer\"}").index(INDEX).type(LABEL).id(id)
+            .build());
+        handler.execute(List.of(new Index.Builder("{\"foo\":\"bar\"}").index(INDEX).type(LABEL)
+            .id(id).setParameter(ElasticSearchBulkItem.IF_SEQ_NO, seqNo)
+            .setParameter(ElasticSearchBulkItem.IF_PRIMARY_TERM, primaryTerm).build()), false);
+        assertEquals("newer", get(id).getSourceAsObject(Map.class).get("foo"));
+
+        // the next pass still brings it back to the graph
+        assertEquals(1, reconcile());
+        assertEquals("bar", get(id).getSourceAsObject(Map.class).get("foo"));
+    }
+}
@@ -0,0 +1,102 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Checks the bulk items the listener queues for changes of indexed relationships, without an
+ * ElasticSearch server.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class ElasticSearchRelationshipListenerTest {
+
+    private static final String INDEX = "payments";
+    private static final String SPEC = INDEX + ":[PAID](amount)";
+
+    private ElasticSearchTestDatabase database;
+    private GraphDatabaseService db;
+    private ElasticSearchMemoryQueue queue;
+
+    @BeforeAll
+    public void setUp() throws Exception {
+        database = new ElasticSearchTestDatabase();
+        db = database.db;
+
+        ElasticSearchIndexSettings indexSettings = new ElasticSearchIndexSettings(
+            ElasticSearchIndexSpecParser.parseIndexSpec(SPEC), true, true);
+        indexSettings.setRelationshipIndexSpec(
+            ElasticSearchIndexSpecParser.parseRelationshipIndexSpec(SPEC));
+        queue = database.queue();
+        ElasticSearchHandler handler = database.register(
+            database.handler(indexSettings).queue(queue));
+        database.listen(new ElasticSearchEventListener(handler));
+    }
+
+    @AfterAll
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    private List<ElasticSearchBulkItem> shipped() throws Exception {
+        return ElasticSearchTestDatabase.shipped(queue);
+    }
+
+    @Test
+    public void testRelationshipLifecycle() throws Exception {
+        String id;
+        try (Transaction tx = db.beginTx()) {
+            Node from = tx.createNode();
+            Node to = tx.createNode();
+            Relationship paid = from.createRelationshipTo(to, RelationshipType.withName("PAID"));
+            paid.setProperty("amount", 10);
+            from.createRelationshipTo(to, RelationshipType.withName("KNOWS"));
+            id = String.valueOf(paid.getId());
+            tx.commit();
+        }
+        List<ElasticSearchBulkItem> items = shipped();
+        assertEquals(1, items.size());
+        assertEquals(ElasticSearchBulkItem.INDEX, items.get(0).getOperation());
+        assertEquals(INDEX, items.get(0).getIndexName());
+        assertEquals(id, items.get(0).getId());
+        assertTrue(new String(items.get(0).getLines(), UTF_8).contains("\"amount\":10"));
+
+        try (Transaction tx = db.beginTx()) {
+            tx.getRelationshipById(Long.parseLong(id)).setProperty("amount", 20);
+            tx.commit();
+        }
+        items = shipped();
+        assertEquals(1, items.size());
+        assertEquals(ElasticSearchBulkItem.INDEX, items.get(0).getOperation());
+        assertTrue(new String(items.get(0).getLines(), UTF_8).contains("\"amount\":20"));
+
+        // not indexed, the document does not change
+        try (Transaction tx = db.beginTx()) {
+            tx.getRelationshipById(Long.parseLong(id)).setProperty("note", "rent");
+            tx.commit();
+        }
+        assertTrue(shipped().isEmpty());
+
+        try (Transaction tx = db.beginTx()) {
+            tx.getRelationshipById(Long.parseLong(id)).delete();
+            tx.commit();
+        }
+        items = shipped();
+        assertEquals(1, items.size());
+        assertEquals(ElasticSearchBulkItem.DELETE, items.get(0).getOperation());
+        assertEquals(INDEX, items.get(0).getIndexName());
+        assertEquals(id, items.get(0).getId());
+    }
+}
@@ -0,0 +1,86 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.junit.jupiter.api.Test;
+
+public class ElasticSearchRequestCompressionTest {
+
+    private final ElasticSearchBufferPool pool = new ElasticSearchBufferPool(1024, 16);
+    private final ElasticSearchRequestCompression compression =
+        new ElasticSearchRequestCompression(6, 1024, pool);
+
+    private static HttpPost post(String uri, String body) {
+        HttpPost post = new HttpPost(uri);
+        post.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        return post;
+    }
+
+    @Test
+    public void testCompressesLargeBulkBodies() throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append("{\"index\":{\"_id\":\"").append(i).append("\",\"_index\":\"people\"}}\n")
+                .append("{\"name\":\"Person ").append(i).append("\"}\n");
+        }
+        HttpPost post = post("http://localhost:9200/_bulk", body.toString());
+        compression.compress(post);
+
+        assertEquals("gzip", post.getEntity().getContentEncoding().getValue());
+        assertTrue(post.getEntity() instanceof ElasticSearchBulkEntity);
+        assertTrue(post.getEntity().getContentLength() < body.length() / 4);
+        try (GZIPInputStream in = new GZIPInputStream(post.getEntity().getContent())) {
+            assertEquals(body.toString(), new String(in.readAllBytes(), UTF_8));
+        }
+
+        ElasticSearchMetrics metrics = new ElasticSearchMetrics();
+        compression.register(metrics);
+        assertEquals(1L, metrics.snapshot().get("compression.requests"));
+        assertEquals((long) body.length(), metrics.snapshot().get("compression.bytesIn"));
+    }
+
+    @Test
+    public void testReleasesPooledBodyOnceCompressed() throws IOException {
+        List<ElasticSearchBulkItem> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(new ElasticSearchBulkItem(ElasticSearchBulkItem.INDEX, "people",
+                String.valueOf(i), ("{\"index\":{\"_id\":\"" + i + "\"}}\n{\"name\":\"Person "
+                + i + "\"}\n").getBytes(UTF_8)));
+        }
+        HttpPost post = new HttpPost("http://localhost:9200/_bulk");
+        ElasticSearchBulkEntity body = ElasticSearchBulkEntity.of(items, pool,
+            ContentType.APPLICATION_JSON);
+        post.setEntity(body);
+        assertTrue(pool.inUse() > 1);
+
+        compression.compress(post);
+        assertEquals(1, pool.inUse());
+        ((ElasticSearchBulkEntity) post.getEntity()).release();
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    public void testKeepsSmallAndOtherBodies() throws IOException {
+        HttpPost small = post("http://localhost:9200/_bulk", "{\"delete\":{\"_id\":\"1\"}}\n");
+        compression.compress(small);
+        assertNull(small.getEntity().getContentEncoding());
+
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 2048; i++) {
+            query.append(' ');
+        }
+        HttpPost search = post("http://localhost:9200/people/_search", query.toString());
+        compression.compress(search);
+        assertNull(search.getEntity().getContentEncoding());
+    }
+}
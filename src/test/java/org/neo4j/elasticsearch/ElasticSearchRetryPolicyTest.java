@@ -0,0 +1,37 @@
+package org.neo4j.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+public class ElasticSearchRetryPolicyTest {
+
+    private final ElasticSearchRetryPolicy policy = new ElasticSearchRetryPolicy(
+        Duration.ofMillis(100), Duration.ofSeconds(5), 3);
+
+    @Test
+    public void testRetryableStatus() {
+        assertTrue(ElasticSearchRetryPolicy.isRetryable(429));
+        assertTrue(ElasticSearchRetryPolicy.isRetryable(503));
+        assertFalse(ElasticSearchRetryPolicy.isRetryable(400));
+        assertFalse(ElasticSearchRetryPolicy.isRetryable(409));
+    }
+
+    @Test
+    public void testMaxAttempts() {
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+    }
+
+    @Test
+    public void testBackoffIsJitteredAndCapped() {
+        for (int i = 0; i < 100; i++) {
+            long first = policy.backoffMillis(1);
+            assertTrue(first >= 0 && first <= 200, "backoff " + first);
+            long late = policy.backoffMillis(40);
+            assertTrue(late >= 0 && late <= 5000, "backoff " + late);
+        }
+    }
+}
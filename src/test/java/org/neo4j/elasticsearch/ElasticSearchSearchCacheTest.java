@@ -0,0 +1,65 @@
+package org.neo4j.elasticsearch;
+
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class ElasticSearchSearchCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private List<ElasticSearchHit> load() {
+        return singletonList(new ElasticSearchHit(loads.incrementAndGet(), 1.0));
+    }
+
+    @Test
+    public void testServesUntilTheIndexIsWritten() throws Exception {
+        ElasticSearchSearchCache cache = new ElasticSearchSearchCache(1 << 20,
+            Duration.ofMinutes(1));
+        cache.get("people", "q", this::load);
+        cache.get("people", "q", this::load);
+        cache.get("places", "q", this::load);
+        assertEquals(2, loads.get());
+
+        cache.invalidate(singletonList("places"));
+        cache.get("people", "q", this::load);
+        assertEquals(2, loads.get());
+        assertEquals(3, cache.get("places", "q", this::load).get(0).getId());
+    }
+
+    @Test
+    public void testDoesNotCacheWhileAcknowledgedChangesSettle() throws Exception {
+        ElasticSearchSearchCache cache = new ElasticSearchSearchCache(1 << 20,
+            Duration.ofMinutes(1));
+        cache.acknowledged(singletonList("people"));
+        cache.get("people", "q", this::load);
+        cache.get("people", "q", this::load);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedAndExpired() throws Exception {
+        ElasticSearchSearchCache cache = new ElasticSearchSearchCache(400,
+            Duration.ofMinutes(1));
+        cache.get("people", "a", this::load);
+        cache.get("people", "b", this::load);
+        cache.get("people", "a", this::load);
+        cache.get("people", "c", this::load);
+        assertEquals(3, loads.get());
+        cache.get("people", "a", this::load);
+        assertEquals(3, loads.get());
+        cache.get("people", "b", this::load);
+        assertEquals(4, loads.get());
+
+        ElasticSearchSearchCache expiring = new ElasticSearchSearchCache(1 << 20,
+            Duration.ofMillis(1));
+        expiring.get("people", "a", this::load);
+        Thread.sleep(5);
+        expiring.get("people", "a", this::load);
+        assertEquals(6, loads.get());
+    }
+}
@@ -0,0 +1,171 @@
+package org.neo4j.elasticsearch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import io.searchbox.action.Action;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.BulkResult;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ElasticSearchShipperTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Keeps the bulks sent until the test completes them.
+     */
+    private static class Bulk {
+
+        final List<ElasticSearchBulkItem> items;
+        final JestResultHandler<BulkResult> handler;
+
+        Bulk(List<ElasticSearchBulkItem> items, JestResultHandler<BulkResult> handler) {
+            this.items = items;
+            this.handler = handler;
+        }
+
+        void accept() {
+            BulkResult result = new BulkResult(new Gson());
+            result.setSucceeded(true);
+            result.setResponseCode(200);
+            handler.completed(result);
+        }
+
+        /**
+         * Completes the bulk with the given result of each item.
+         */
+        void complete(String... itemResults) {
+            BulkResult result = new BulkResult(new Gson());
+            result.setSucceeded(false);
+            result.setResponseCode(200);
+            result.setJsonObject(new JsonParser().parse(
+                "{\"errors\":true,\"items\":[" + String.join(",", itemResults) + "]}")
+                .getAsJsonObject());
+            handler.completed(result);
+        }
+    }
+
+    private final BlockingQueue<Bulk> sent = new LinkedBlockingQueue<>();
+
+    private final JestClient client = new JestClient() {
+        @Override
+        public <T extends JestResult> T execute(Action<T> clientRequest) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends JestResult> void executeAsync(Action<T> clientRequest,
+            JestResultHandler<? super T> resultHandler) {
+            sent.add(new Bulk(((JestRawBulk) clientRequest).getItems(),
+                (JestResultHandler<BulkResult>) resultHandler));
+        }
+
+        @Override
+        public void shutdownClient() {
+        }
+
+        @Override
+        public void setServers(Set<String> servers) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private static ElasticSearchBulkItem item(String index, String id) {
+        return new ElasticSearchBulkItem(ElasticSearchBulkItem.INDEX, index, id,
+            ("{\"index\":{\"_id\":\"" + id + "\"}}\n{}\n").getBytes(UTF_8));
+    }
+
+    private static ElasticSearchBulkItem update(String index, String id) {
+        return new ElasticSearchBulkItem(ElasticSearchBulkItem.UPDATE, index, id,
+            ("{\"update\":{\"_id\":\"" + id + "\"}}\n{\"doc\":{}}\n").getBytes(UTF_8));
+    }
+
+    @Test
+    public void testSendsFullDocumentWhenUpdatedDocumentIsMissing() throws Exception {
+        ElasticSearchMemoryQueue live = new ElasticSearchMemoryQueue();
+        ElasticSearchMetrics metrics = new ElasticSearchMetrics();
+        ElasticSearchShipper shipper = new ElasticSearchShipper(client, live, null, 0,
+            new ElasticSearchBulkCoalescer(100, 1 << 20, 0), new ElasticSearchBulkSizer(100,
+                1 << 20, 1 << 20, Duration.ofSeconds(1)), 4,
+            new ElasticSearchRetryPolicy(Duration.ofMillis(10), Duration.ofMillis(10), 1),
+            new ElasticSearchDeadLetters(directory), metrics, indexes -> {
+            }, null, null,
+            missing -> missing.stream().map(item -> item(item.getIndexName(), item.getId()))
+                .collect(Collectors.toList()));
+        shipper.start();
+        try {
+            live.append(List.of(update("people", "1"), update("people", "2")));
+            Bulk updates = sent.poll(10, TimeUnit.SECONDS);
+            assertEquals(2, updates.items.size());
+            updates.complete("{\"update\":{\"status\":200}}",
+                "{\"update\":{\"status\":404,\"error\":{\"type\":"
+                    + "\"document_missing_exception\",\"reason\":\"[2]: document missing\"}}}");
+
+            Bulk full = sent.poll(10, TimeUnit.SECONDS);
+            assertEquals(1, full.items.size());
+            assertEquals(ElasticSearchBulkItem.INDEX, full.items.get(0).getOperation());
+            assertEquals("2", full.items.get(0).getId());
+            full.accept();
+            assertEquals(0L, metrics.snapshot().get("failures"));
+            assertEquals(0, live.pendingBytes());
+        } finally {
+            shipper.stop();
+        }
+    }
+
+    @Test
+    public void testBackgroundItemsWaitForLiveBacklog() throws Exception {
+        ElasticSearchMemoryQueue live = new ElasticSearchMemoryQueue();
+        ElasticSearchMemoryQueue background = new ElasticSearchMemoryQueue();
+        ElasticSearchShipper shipper = new ElasticSearchShipper(client, live, background, 0,
+            new ElasticSearchBulkCoalescer(100, 1 << 20, 0), new ElasticSearchBulkSizer(100,
+                1 << 20, 1 << 20, Duration.ofSeconds(1)), 4,
+            new ElasticSearchRetryPolicy(Duration.ofMillis(10), Duration.ofMillis(10), 1),
+            new ElasticSearchDeadLetters(directory), new ElasticSearchMetrics(), indexes -> {
+            }, null, null, null);
+        shipper.start();
+        try {
+            live.append(List.of(item("live", "1")));
+            Bulk liveBulk = sent.poll(10, TimeUnit.SECONDS);
+            assertEquals("live", liveBulk.items.get(0).getIndexName());
+
+            // the live bulk is still in flight, so background items wait
+            background.append(List.of(item("background", "1"), item("background", "2")));
+            assertNull(sent.poll(300, TimeUnit.MILLISECONDS));
+
+            liveBulk.accept();
+            Bulk backgroundBulk = sent.poll(10, TimeUnit.SECONDS);
+            assertEquals(2, backgroundBulk.items.size());
+            for (ElasticSearchBulkItem item : backgroundBulk.items) {
+                assertEquals("background", item.getIndexName());
+            }
+            backgroundBulk.accept();
+            assertEquals(0, live.pendingBytes());
+            assertEquals(0, background.pendingBytes());
+            assertTrue(sent.isEmpty());
+        } finally {
+            shipper.stop();
+        }
+    }
+}
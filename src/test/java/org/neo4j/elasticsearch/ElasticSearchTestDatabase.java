@@ -0,0 +1,89 @@
+package org.neo4j.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+
+/**
+ * An embedded database for the tests, with the handlers, listeners and queues created for it,
+ * which are unregistered and closed with it.
+ */
+class ElasticSearchTestDatabase implements AutoCloseable {
+
+    final DatabaseManagementService dms;
+    final GraphDatabaseService db;
+
+    private final Neo4j embeddedDatabaseServer;
+    private final List<ElasticSearchHandler> handlers = new ArrayList<>();
+    private final List<ElasticSearchEventListener> listeners = new ArrayList<>();
+    private final List<ElasticSearchQueue> queues = new ArrayList<>();
+
+    ElasticSearchTestDatabase() {
+        embeddedDatabaseServer = Neo4jBuilders.newInProcessBuilder()
+            .withDisabledServer()
+            .build();
+        dms = embeddedDatabaseServer.databaseManagementService();
+        db = embeddedDatabaseServer.defaultDatabaseService();
+    }
+
+    /**
+     * A handler builder for the database.
+     */
+    ElasticSearchHandler.Builder handler(ElasticSearchIndexSettings indexSettings) {
+        return ElasticSearchHandler.builder(indexSettings).database(db.databaseName());
+    }
+
+    ElasticSearchHandler register(ElasticSearchHandler.Builder builder) {
+        ElasticSearchHandler handler = builder.build();
+        handlers.add(handler);
+        return handler;
+    }
+
+    ElasticSearchEventListener listen(ElasticSearchEventListener listener) {
+        dms.registerTransactionEventListener(db.databaseName(), listener);
+        listeners.add(listener);
+        return listener;
+    }
+
+    ElasticSearchMemoryQueue queue() {
+        ElasticSearchMemoryQueue queue = new ElasticSearchMemoryQueue();
+        queues.add(queue);
+        return queue;
+    }
+
+    /**
+     * Takes everything queued so far, as if ElasticSearch accepted it.
+     */
+    static List<ElasticSearchBulkItem> shipped(ElasticSearchQueue queue)
+        throws InterruptedException, IOException {
+        List<ElasticSearchBulkItem> items = new ArrayList<>();
+        while (true) {
+            ElasticSearchQueue.Batch batch = queue.poll(1000, Long.MAX_VALUE, 0,
+                TimeUnit.SECONDS);
+            if (batch.isEmpty()) {
+                return items;
+            }
+            queue.acknowledge(batch.getEndOffset());
+            items.addAll(batch.getItems());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ElasticSearchEventListener listener : listeners) {
+            dms.unregisterTransactionEventListener(db.databaseName(), listener);
+        }
+        for (ElasticSearchHandler handler : handlers) {
+            ElasticSearchHandler.removeInstance(db.databaseName(), handler);
+        }
+        for (ElasticSearchQueue queue : queues) {
+            queue.close();
+        }
+        embeddedDatabaseServer.close();
+    }
+}
@@ -0,0 +1,72 @@
+package org.neo4j.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class ElasticSearchThrottleTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testTokenBucketRate() {
+        AtomicLong clock = new AtomicLong();
+        ElasticSearchThrottle.TokenBucket bucket =
+            new ElasticSearchThrottle.TokenBucket(100, clock::get);
+        assertEquals(0, bucket.reserve(60));
+        assertEquals(0, bucket.reserve(40));
+        // in debt for 50 tokens, half a second at 100 per second
+        assertEquals(SECOND / 2, bucket.reserve(50));
+        clock.addAndGet(SECOND);
+        assertEquals(0, bucket.reserve(50));
+        // refills at most one second worth of tokens
+        clock.addAndGet(10 * SECOND);
+        assertEquals(0, bucket.reserve(100));
+        assertEquals(SECOND / 100, bucket.reserve(1));
+    }
+
+    @Test
+    public void testUnlimitedBucket() {
+        ElasticSearchThrottle.TokenBucket bucket =
+            new ElasticSearchThrottle.TokenBucket(0, System::nanoTime);
+        assertEquals(0, bucket.reserve(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testBackgroundYieldsToLiveBacklog() throws Exception {
+        AtomicLong backlog = new AtomicLong(1000);
+        ElasticSearchThrottle throttle = new ElasticSearchThrottle(0, 0, 0, 0, backlog::get, 100);
+        ElasticSearchMetrics metrics = new ElasticSearchMetrics();
+        throttle.register(metrics);
+
+        throttle.acquire(ElasticSearchThrottle.Lane.LIVE, 10, 1000);
+        assertTrue((Long) metrics.snapshot().get("throttle.live.waitedMillis") < 100);
+
+        Thread live = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backlog.set(0);
+        });
+        live.start();
+        throttle.acquire(ElasticSearchThrottle.Lane.BACKGROUND, 10, 1000);
+        live.join();
+        long waited = (Long) metrics.snapshot().get("throttle.background.waitedMillis");
+        assertTrue(waited >= 150 && waited < ElasticSearchThrottle.MAX_YIELD_MS, "" + waited);
+    }
+
+    @Test
+    public void testBackgroundIsNotStarved() throws Exception {
+        ElasticSearchThrottle throttle = new ElasticSearchThrottle(0, 0, 0, 0, () -> 1000, 100);
+        long start = System.nanoTime();
+        throttle.acquire(ElasticSearchThrottle.Lane.BACKGROUND, 10, 1000);
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waited >= ElasticSearchThrottle.MAX_YIELD_MS
+            && waited < 2 * ElasticSearchThrottle.MAX_YIELD_MS, "" + waited);
+    }
+}
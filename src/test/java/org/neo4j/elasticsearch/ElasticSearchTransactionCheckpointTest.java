@@ -0,0 +1,113 @@
+package org.neo4j.elasticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.List;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ElasticSearchTransactionCheckpointTest {
+
+    @TempDir
+    Path directory;
+
+    private static LongIntHashMap items(long transactionId, int count) {
+        LongIntHashMap items = new LongIntHashMap();
+        items.put(transactionId, count);
+        return items;
+    }
+
+    @Test
+    public void testCheckpointStopsBeforeOldestPendingTransaction() throws Exception {
+        ElasticSearchTransactionCheckpoint checkpoint =
+            new ElasticSearchTransactionCheckpoint(directory);
+        assertEquals(ElasticSearchTransactionCheckpoint.NONE, checkpoint.last());
+
+        checkpoint.committed(5, 2);
+        checkpoint.committed(6, 1);
+        checkpoint.committed(7, 0);
+        assertEquals(4, checkpoint.checkpoint());
+
+        checkpoint.acknowledged(items(6, 1));
+        assertEquals(4, checkpoint.checkpoint());
+        checkpoint.acknowledged(items(5, 1));
+        assertEquals(4, checkpoint.checkpoint());
+        checkpoint.acknowledged(items(5, 1));
+        assertEquals(7, checkpoint.checkpoint());
+        assertEquals(0, checkpoint.pendingTransactions());
+    }
+
+    @Test
+    public void testDroppedItemsAreAcknowledged() throws Exception {
+        ElasticSearchTransactionCheckpoint checkpoint =
+            new ElasticSearchTransactionCheckpoint(directory);
+        checkpoint.committed(5, 2);
+        ElasticSearchBulkItem item = new ElasticSearchBulkItem(ElasticSearchBulkItem.INDEX,
+            "test", "1", new byte[0]).withTransaction(5);
+        checkpoint.dropped(List.of(item, item));
+        assertEquals(5, checkpoint.checkpoint());
+        assertEquals(0, checkpoint.pendingTransactions());
+    }
+
+    @Test
+    public void testUnknownTransactionsAreIgnored() throws Exception {
+        ElasticSearchTransactionCheckpoint checkpoint =
+            new ElasticSearchTransactionCheckpoint(directory);
+        checkpoint.committed(3, 1);
+        checkpoint.acknowledged(items(2, 5));
+        assertEquals(2, checkpoint.checkpoint());
+    }
+
+    @Test
+    public void testHoldKeepsCheckpoint() throws Exception {
+        ElasticSearchTransactionCheckpoint checkpoint =
+            new ElasticSearchTransactionCheckpoint(directory);
+        checkpoint.hold(1);
+        checkpoint.committed(10, 1);
+        checkpoint.acknowledged(items(10, 1));
+        assertEquals(0, checkpoint.checkpoint());
+
+        checkpoint.release(1);
+        assertEquals(10, checkpoint.checkpoint());
+    }
+
+    @Test
+    public void testTransactionsCommittedOutOfOrder() throws Exception {
+        ElasticSearchTransactionCheckpoint checkpoint =
+            new ElasticSearchTransactionCheckpoint(directory);
+        checkpoint.committed(5, 0);
+        // transactions 6 and 7 commit concurrently, both after 5 was the last committed one
+        checkpoint.hold(6);
+        checkpoint.hold(6);
+
+        // 7 registers and is acknowledged before the afterCommit of 6 ran
+        checkpoint.committed(7, 1);
+        checkpoint.release(6);
+        checkpoint.acknowledged(items(7, 1));
+        assertEquals(5, checkpoint.checkpoint());
+
+        checkpoint.committed(6, 1);
+        checkpoint.release(6);
+        assertEquals(5, checkpoint.checkpoint());
+        checkpoint.acknowledged(items(6, 1));
+        assertEquals(7, checkpoint.checkpoint());
+        assertEquals(0, checkpoint.pendingTransactions());
+    }
+
+    @Test
+    public void testCheckpointSurvivesRestart() throws Exception {
+        ElasticSearchTransactionCheckpoint checkpoint =
+            new ElasticSearchTransactionCheckpoint(directory);
+        checkpoint.committed(42, 1);
+        checkpoint.committed(43, 1);
+        checkpoint.acknowledged(items(42, 1));
+        checkpoint.close();
+
+        ElasticSearchTransactionCheckpoint reopened =
+            new ElasticSearchTransactionCheckpoint(directory);
+        assertEquals(42, reopened.last());
+        assertEquals(42, reopened.checkpoint());
+    }
+}
@@ -26,6 +26,17 @@ public class JestDefaultHttpConfigFactoryTest {
         assertEquals(expected, subject.getServerList());
     }
 
+    @Test
+    public void itAcceptsSeveralHosts() throws Throwable {
+        subject = JestDefaultHttpConfigFactory.getConfigFor(
+            "https://es1:9200, https://es2:9200", false);
+
+        Set<String> expected = new HashSet<String>(
+            Arrays.asList("https://es1:9200", "https://es2:9200"));
+        assertEquals(expected, subject.getServerList());
+        assertEquals("https://", subject.getDefaultSchemeForDiscoveredNodes());
+    }
+
     @Test
     public void itIsMultiThreaded() {
         assertTrue(subject.isMultiThreaded());
@@ -9,7 +9,10 @@ import io.searchbox.client.JestClientFactory;
 import io.searchbox.client.JestResult;
 import io.searchbox.client.config.HttpClientConfig;
 import io.searchbox.core.Get;
+import io.searchbox.core.Index;
+import io.searchbox.indices.Refresh;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -19,7 +22,9 @@ import org.junit.jupiter.api.TestInstance.Lifecycle;
 import org.neo4j.driver.Config;
 import org.neo4j.driver.Driver;
 import org.neo4j.driver.GraphDatabase;
+import org.neo4j.driver.Record;
 import org.neo4j.driver.Session;
+import org.neo4j.driver.Values;
 import org.neo4j.elasticsearch.ElasticSearchSettings;
 import org.neo4j.harness.Neo4j;
 import org.neo4j.harness.Neo4jBuilders;
@@ -87,4 +92,99 @@ public class ElasticSearchProceduresTest {
         assertEquals("bar", source.get("foo"));
     }
 
+    @Test
+    public void testIndexBatch() throws IOException {
+        List<Long> ids;
+        try (Session session = driver.session()) {
+            ids = session.run("UNWIND range(1, 5) AS i CREATE (n:MyLabel{foo: 'batch' + i}) "
+                + "RETURN ID(n)").list(record -> record.get(0).asLong());
+            Record result = session.run("MATCH (n:MyLabel) "
+                + "WHERE n.foo STARTS WITH 'batch' WITH collect(n) AS batch "
+                + "CALL es.indexBatch(batch, {batchSize: 2, concurrency: 2}) "
+                + "YIELD nodes, documents, failed, bulks RETURN *").single();
+            assertEquals(5, result.get("nodes").asLong());
+            assertEquals(5, result.get("documents").asLong());
+            assertEquals(0, result.get("failed").asLong());
+            assertEquals(3, result.get("bulks").asLong());
+
+            result = session.run("CALL es.indexQuery("
+                + "'MATCH (n:MyLabel) WHERE n.foo STARTS WITH \"batch\" RETURN ID(n)', {}, "
+                + "{batchSize: 2}) YIELD nodes, failed RETURN *").single();
+            assertEquals(5, result.get("nodes").asLong());
+            assertEquals(0, result.get("failed").asLong());
+        }
+        for (long id : ids) {
+            JestResult response = client.execute(
+                new Get.Builder(INDEX, String.valueOf(id)).build());
+            assertTrue(response.isSucceeded(), "request failed " + response.getErrorMessage());
+        }
+    }
+
+    @Test
+    public void testReindex() throws IOException {
+        List<Long> ids;
+        try (Session session = driver.session()) {
+            ids = session.run("UNWIND range(1, 3) AS i CREATE (n:MyLabel{foo: 'reindex' + i}) "
+                + "RETURN ID(n)").list(record -> record.get(0).asLong());
+        }
+        // an outdated document is replaced, the others are created
+        client.execute(new Index.Builder("{\"foo\":\"old\"}").index(INDEX).type(LABEL)
+            .id(String.valueOf(ids.get(0))).build());
+
+        try (Session session = driver.session()) {
+            Record result = session.run("CALL es.reindex('MyLabel', {batchSize: 2}) "
+                + "YIELD label, nodes, failed RETURN *").single();
+            assertEquals(LABEL, result.get("label").asString());
+            assertTrue(result.get("nodes").asLong() >= 3);
+            assertEquals(0, result.get("failed").asLong());
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            JestResult response = client.execute(
+                new Get.Builder(INDEX, String.valueOf(ids.get(i))).build());
+            assertTrue(response.isSucceeded(), "request failed " + response.getErrorMessage());
+            assertEquals("reindex" + (i + 1), response.getSourceAsObject(Map.class).get("foo"));
+        }
+    }
+
+    @Test
+    public void testReindexAll() throws IOException {
+        long id;
+        try (Session session = driver.session()) {
+            id = session.run("CREATE (n:MyLabel{foo: 'all'}) RETURN ID(n)").single().get(0)
+                .asLong();
+            // the second pass replaces the documents of the first one
+            for (int pass = 0; pass < 2; pass++) {
+                List<Record> results = session.run("CALL es.reindexAll({batchSize: 2}) "
+                    + "YIELD label, nodes, failed RETURN *").list();
+                assertEquals(1, results.size());
+                assertEquals(LABEL, results.get(0).get("label").asString());
+                assertTrue(results.get(0).get("nodes").asLong() >= 1);
+                assertEquals(0, results.get(0).get("failed").asLong());
+            }
+        }
+        JestResult response = client.execute(new Get.Builder(INDEX, String.valueOf(id)).build());
+        assertTrue(response.isSucceeded(), "request failed " + response.getErrorMessage());
+        assertEquals("all", response.getSourceAsObject(Map.class).get("foo"));
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        long id;
+        try (Session session = driver.session()) {
+            id = session.run("CREATE (n:MyLabel{foo: 'searchable'}) WITH n CALL es.index(n) "
+                + "RETURN ID(n)").single().get(0).asLong();
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<Long> found;
+        do {
+            client.execute(new Refresh.Builder().addIndex(INDEX).build());
+            try (Session session = driver.session()) {
+                found = session.run("CALL es.search($index, 'foo:searchable', {size: 5}) "
+                        + "YIELD node, score RETURN ID(node)", Values.parameters("index", INDEX))
+                    .list(record -> record.get(0).asLong());
+            }
+        } while (found.isEmpty() && System.currentTimeMillis() < deadline);
+
+        assertEquals(asList(id), found);
+    }
 }